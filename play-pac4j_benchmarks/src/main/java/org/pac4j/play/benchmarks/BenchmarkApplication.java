@@ -0,0 +1,103 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pac4j.cas.client.CasClient;
+import org.pac4j.core.client.Clients;
+import org.pac4j.play.Config;
+import org.pac4j.play.Constants;
+import org.pac4j.play.java.RequiresAuthentication;
+
+import play.mvc.Http;
+import play.test.FakeApplication;
+import play.test.Helpers;
+
+/**
+ * This class starts a fake Play application with the in-memory cache and a CAS client, and builds the contexts of the benchmarks.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class BenchmarkApplication {
+
+    public static final String CLIENT_NAME = "CasClient";
+
+    private BenchmarkApplication() {
+    }
+
+    /**
+     * Start a fake application using the in-memory cache.
+     * 
+     * @return the started application
+     */
+    public static FakeApplication start() {
+        final Map<String, String> configuration = new HashMap<>();
+        configuration.put("ehcacheplugin", "disabled");
+        configuration.put("application.secret", "benchmarks-secret");
+        final FakeApplication application = Helpers.fakeApplication(configuration,
+                                                                    Arrays.asList(InMemoryCachePlugin.class.getName()));
+        Helpers.start(application);
+        final CasClient casClient = new CasClient();
+        casClient.setCasLoginUrl("http://localhost:8080/cas/login");
+        Config.setClients(new Clients("http://localhost:9000/callback", casClient));
+        return application;
+    }
+
+    public static void stop(final FakeApplication application) {
+        Helpers.stop(application);
+    }
+
+    /**
+     * Build a context for a GET request on a protected url.
+     * 
+     * @param sessionId
+     * @return the context
+     */
+    public static Http.Context newContext(final String sessionId) {
+        final Map<String, String[]> queryString = new HashMap<>();
+        queryString.put("page", new String[] {
+            "1"
+        });
+        final InMemoryRequest request = new InMemoryRequest("GET", "localhost:9000", "/protected", queryString,
+                                                            null);
+        final Map<String, String> session = new HashMap<>();
+        if (sessionId != null) {
+            session.put(Constants.SESSION_ID, sessionId);
+        }
+        return new Http.Context(1L, null, request, session, new HashMap<String, String>(), new HashMap<String, Object>());
+    }
+
+    /**
+     * Get the annotation of a protected action.
+     * 
+     * @return the annotation
+     */
+    public static RequiresAuthentication getRequiresAuthentication() {
+        try {
+            return BenchmarkApplication.class.getDeclaredMethod("protectedAction").getAnnotation(RequiresAuthentication.class);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @RequiresAuthentication(clientName = CLIENT_NAME)
+    static void protectedAction() {
+    }
+}
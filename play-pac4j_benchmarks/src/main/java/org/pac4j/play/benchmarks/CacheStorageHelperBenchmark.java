@@ -0,0 +1,86 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.play.CacheStorageHelper;
+import org.pac4j.play.Config;
+
+import play.test.FakeApplication;
+
+/**
+ * This benchmark measures the {@link CacheStorageHelper} get/save operations, with and without cache key prefix.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheStorageHelperBenchmark {
+
+    private static final String SESSION_ID = "0b6a2e5c-3c8e-4b4a-9f4e-5d7d2c1e8f00";
+
+    @Param({
+        "", "pac4j"
+    })
+    public String cacheKeyPrefix;
+
+    private FakeApplication application;
+
+    private CacheStorageHelper storageHelper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.application = BenchmarkApplication.start();
+        Config.setCacheKeyPrefix(this.cacheKeyPrefix);
+        this.storageHelper = new CacheStorageHelper();
+        this.storageHelper.save(SESSION_ID, "key", "value");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Config.setCacheKeyPrefix("");
+        BenchmarkApplication.stop(this.application);
+    }
+
+    @Benchmark
+    public Object get() {
+        return this.storageHelper.get(SESSION_ID, "key");
+    }
+
+    @Benchmark
+    public void save() {
+        this.storageHelper.save(SESSION_ID, "key", "value");
+    }
+}
@@ -0,0 +1,84 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import play.api.Application;
+import play.api.cache.CacheAPI;
+import play.api.cache.CachePlugin;
+import scala.Option;
+
+/**
+ * This cache plugin is an in-memory stand-in for the Play cache, so that the benchmarks measure this library and not the cache backend.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class InMemoryCachePlugin extends CachePlugin {
+
+    private final InMemoryCacheAPI api = new InMemoryCacheAPI();
+
+    public InMemoryCachePlugin(final Application application) {
+    }
+
+    @Override
+    public CacheAPI api() {
+        return this.api;
+    }
+
+    private static final class InMemoryCacheAPI implements CacheAPI {
+
+        private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public void set(final String key, final Object value, final int expiration) {
+            if (value == null) {
+                this.entries.remove(key);
+            } else {
+                final long expirationDate = expiration > 0 ? System.currentTimeMillis() + expiration * 1000L : Long.MAX_VALUE;
+                this.entries.put(key, new Entry(value, expirationDate));
+            }
+        }
+
+        @Override
+        public Option<Object> get(final String key) {
+            final Entry entry = this.entries.get(key);
+            if (entry == null || entry.expirationDate < System.currentTimeMillis()) {
+                return Option.empty();
+            }
+            return Option.apply(entry.value);
+        }
+
+        @Override
+        public void remove(final String key) {
+            this.entries.remove(key);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+
+        private final long expirationDate;
+
+        private Entry(final Object value, final long expirationDate) {
+            this.value = value;
+            this.expirationDate = expirationDate;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import play.api.http.MediaRange;
+import play.i18n.Lang;
+import play.mvc.Http;
+
+/**
+ * This request is an in-memory stand-in for a Play request : a GET or a form POST with query string parameters.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class InMemoryRequest extends Http.Request {
+
+    private final String method;
+
+    private final String path;
+
+    private final String host;
+
+    private final Map<String, String[]> queryString;
+
+    private final Map<String, String[]> headers = new HashMap<>();
+
+    private final Http.RequestBody body;
+
+    public InMemoryRequest(final String method, final String host, final String path, final Map<String, String[]> queryString,
+                           final Map<String, String[]> formParameters) {
+        this.method = method;
+        this.host = host;
+        this.path = path;
+        this.queryString = queryString;
+        this.body = new Http.RequestBody() {
+            @Override
+            public Map<String, String[]> asFormUrlEncoded() {
+                return formParameters;
+            }
+        };
+        this.headers.put("Host", new String[] {
+            host
+        });
+    }
+
+    public String uri() {
+        if (this.queryString.isEmpty()) {
+            return this.path;
+        }
+        final StringBuilder uri = new StringBuilder(this.path);
+        char separator = '?';
+        for (final Map.Entry<String, String[]> entry : this.queryString.entrySet()) {
+            for (final String value : entry.getValue()) {
+                uri.append(separator).append(entry.getKey()).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return uri.toString();
+    }
+
+    public String method() {
+        return this.method;
+    }
+
+    public String version() {
+        return "HTTP/1.1";
+    }
+
+    public String remoteAddress() {
+        return "127.0.0.1";
+    }
+
+    public String host() {
+        return this.host;
+    }
+
+    public String path() {
+        return this.path;
+    }
+
+    public List<Lang> acceptLanguages() {
+        return Collections.emptyList();
+    }
+
+    public List<String> accept() {
+        return Collections.emptyList();
+    }
+
+    public List<MediaRange> acceptedTypes() {
+        return Collections.emptyList();
+    }
+
+    public boolean accepts(final String mimeType) {
+        return true;
+    }
+
+    public Map<String, String[]> queryString() {
+        return this.queryString;
+    }
+
+    public Http.Cookies cookies() {
+        return new Http.Cookies() {
+            public Http.Cookie get(final String name) {
+                return null;
+            }
+        };
+    }
+
+    public Map<String, String[]> headers() {
+        return this.headers;
+    }
+
+    public Http.RequestBody body() {
+        return this.body;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.play.java.JavaWebContext;
+
+import play.mvc.Http;
+
+/**
+ * This benchmark measures the request parameters access of the {@link JavaWebContext}, on a new context for each operation (as for a
+ * callback).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JavaWebContextBenchmark {
+
+    private InMemoryRequest request;
+
+    private Http.Session session;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Map<String, String[]> queryString = new HashMap<>();
+        queryString.put("client_name", new String[] {
+            BenchmarkApplication.CLIENT_NAME
+        });
+        queryString.put("ticket", new String[] {
+            "ST-1-abcdefghijklmnopqrst-cas"
+        });
+        final Map<String, String[]> formParameters = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            formParameters.put("field" + i, new String[] {
+                "value" + i
+            });
+        }
+        this.request = new InMemoryRequest("POST", "localhost:9000", "/callback", queryString, formParameters);
+        this.session = new Http.Session(new HashMap<String, String>());
+    }
+
+    @Benchmark
+    public Object getRequestParameters() {
+        return new JavaWebContext(this.request, null, this.session).getRequestParameters();
+    }
+
+    @Benchmark
+    public Object getRequestParameter() {
+        return new JavaWebContext(this.request, null, this.session).getRequestParameter("ticket");
+    }
+
+    @Benchmark
+    public Object getRequestParameterTwice() {
+        final JavaWebContext context = new JavaWebContext(this.request, null, this.session);
+        context.getRequestParameter("client_name");
+        return context.getRequestParameter("ticket");
+    }
+}
@@ -0,0 +1,104 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.StorageHelper;
+import org.pac4j.play.java.RequiresAuthenticationAction;
+
+import play.libs.F.Promise;
+import play.mvc.Action;
+import play.mvc.Http.Context;
+import play.mvc.Results;
+import play.mvc.SimpleResult;
+import play.test.FakeApplication;
+
+/**
+ * This benchmark measures the {@link RequiresAuthenticationAction} : access to the protected action when the user is authenticated
+ * (hit) and redirection to the provider otherwise (miss).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RequiresAuthenticationActionBenchmark {
+
+    private static final String AUTHENTICATED_SESSION_ID = "authenticated";
+
+    private static final String ANONYMOUS_SESSION_ID = "anonymous";
+
+    private static final long TIMEOUT = 10000;
+
+    private FakeApplication application;
+
+    private final Action<Void> protectedAction = new Action.Simple() {
+        @Override
+        public Promise<SimpleResult> call(final Context context) {
+            return Promise.pure((SimpleResult) Results.ok());
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.application = BenchmarkApplication.start();
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        StorageHelper.getInstance().saveProfile(null, null, null, AUTHENTICATED_SESSION_ID, profile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkApplication.stop(this.application);
+    }
+
+    private RequiresAuthenticationAction newAction() {
+        final RequiresAuthenticationAction action = new RequiresAuthenticationAction();
+        action.configuration = BenchmarkApplication.getRequiresAuthentication();
+        action.delegate = this.protectedAction;
+        return action;
+    }
+
+    @Benchmark
+    public SimpleResult hit() throws Throwable {
+        return newAction().call(BenchmarkApplication.newContext(AUTHENTICATED_SESSION_ID)).get(TIMEOUT);
+    }
+
+    @Benchmark
+    public SimpleResult miss() throws Throwable {
+        return newAction().call(BenchmarkApplication.newContext(ANONYMOUS_SESSION_ID)).get(TIMEOUT);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.play.CacheStorageHelper;
+import org.pac4j.play.SecureSessionIdGenerator;
+import org.pac4j.play.StorageHelper;
+
+/**
+ * This benchmark measures the generation of session identifiers by concurrent threads : the {@link SecureSessionIdGenerator} (a secure
+ * random per thread) against <code>UUID.randomUUID()</code> (a shared secure random).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionIdBenchmark {
+
+    private final StorageHelper storageHelper = new CacheStorageHelper();
+
+    @Benchmark
+    @Threads(1)
+    public String generateSessionId() {
+        return this.storageHelper.generateSessionId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String generateSessionIdContended() {
+        return this.storageHelper.generateSessionId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String randomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String randomUuidContended() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.play.Constants;
+
+/**
+ * This benchmark measures the building of the wire key of a session attribute (<code>sessionId$key</code>) : the plain concatenation
+ * used by the storage helpers against a precomputed <code>$key</code> suffix and against a key object with a cached hash and a lazy wire
+ * key. To be run with <code>-prof gc</code> to compare the allocations : as the backends are keyed by strings, the wire key is always
+ * built and the JIT already allocates nothing more than this string for the plain concatenation.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireKeyBenchmark {
+
+    private static final class Key {
+
+        private final String sessionId;
+
+        private final String key;
+
+        private int hash;
+
+        private String wireKey;
+
+        Key(final String sessionId, final String key) {
+            this.sessionId = sessionId;
+            this.key = key;
+        }
+
+        String getWireKey() {
+            if (this.wireKey == null) {
+                this.wireKey = this.sessionId + Constants.SEPARATOR + this.key;
+            }
+            return this.wireKey;
+        }
+
+        @Override
+        public int hashCode() {
+            if (this.hash == 0) {
+                this.hash = 31 * this.sessionId.hashCode() + this.key.hashCode();
+            }
+            return this.hash;
+        }
+    }
+
+    private final ConcurrentMap<String, String> suffixes = new ConcurrentHashMap<String, String>();
+
+    private final String sessionId = "0f8fad5bd9cb469fa16570867728950e0f8fad5bd9c";
+
+    private final String key = Constants.REQUESTED_URL;
+
+    @Benchmark
+    public String concatenation() {
+        return this.sessionId + Constants.SEPARATOR + this.key;
+    }
+
+    @Benchmark
+    public String precomputedSuffix() {
+        String suffix = this.suffixes.get(this.key);
+        if (suffix == null) {
+            suffix = Constants.SEPARATOR.concat(this.key);
+            this.suffixes.putIfAbsent(this.key, suffix);
+        }
+        return this.sessionId.concat(suffix);
+    }
+
+    @Benchmark
+    public String keyObject() {
+        return new Key(this.sessionId, this.key).getWireKey();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.libs.F.Function0;
+import play.libs.F.Promise;
+import scala.concurrent.ExecutionContext;
+import akka.dispatch.ExecutionContexts;
+
+/**
+ * This executor runs the authentication work (redirection urls, credentials and user profiles retrieval) on a bounded pool of
+ * {@link Config#getAuthThreads()} threads, so that bursts of unauthenticated traffic cannot starve the request processing.
+ * <p />
+ * At most {@link Config#getAuthQueueSize()} tasks wait for a thread : beyond, the tasks are rejected with a
+ * {@link RejectedExecutionException}, which should be turned into a 503 status. The queue wait and execution times are measured and
+ * recorded in the {@link Config#getMetricsRegistry()}.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class AuthExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthExecutor.class);
+
+    public static final String QUEUE_WAIT_METRIC = "pac4j.auth.queueWait";
+
+    public static final String EXECUTION_METRIC = "pac4j.auth.execution";
+
+    public static final String REJECTED_METRIC = "pac4j.auth.rejected";
+
+    private static volatile AuthExecutor instance;
+
+    private final ThreadPoolExecutor threadPool;
+
+    private final ExecutionContext executionContext;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong totalQueueWait = new AtomicLong();
+
+    private final AtomicLong maxQueueWait = new AtomicLong();
+
+    private final AtomicLong totalExecutionTime = new AtomicLong();
+
+    private final AtomicLong maxExecutionTime = new AtomicLong();
+
+    public AuthExecutor(final int threads, final int queueSize) {
+        this.threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                                                 new NamedThreadFactory("pac4j-auth"), new RejectedExecutionHandler() {
+                                                     public void rejectedExecution(final Runnable runnable,
+                                                                                   final ThreadPoolExecutor executor) {
+                                                         AuthExecutor.this.rejected.incrementAndGet();
+                                                         Config.getMetricsRegistry().counter(REJECTED_METRIC).increment();
+                                                         throw new RejectedExecutionException("authentication executor saturated");
+                                                     }
+                                                 });
+        this.threadPool.allowCoreThreadTimeOut(true);
+        this.executionContext = ExecutionContexts.fromExecutor(this);
+    }
+
+    /**
+     * Get the authentication executor : by default, created from the {@link Config} on first use.
+     * 
+     * @return the authentication executor
+     */
+    public static AuthExecutor getInstance() {
+        if (instance == null) {
+            synchronized (AuthExecutor.class) {
+                if (instance == null) {
+                    instance = new AuthExecutor(Config.getAuthThreads(), Config.getAuthQueueSize());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public static void setInstance(final AuthExecutor authExecutor) {
+        instance = authExecutor;
+    }
+
+    /**
+     * Run some authentication work.
+     * 
+     * @param function
+     * @return the promise of the result
+     * @throws RejectedExecutionException if the executor is saturated
+     */
+    public <A> Promise<A> submit(final Function0<A> function) {
+        return Promise.promise(function, this.executionContext);
+    }
+
+    /**
+     * Run a task, measuring its queue wait and execution times.
+     * 
+     * @param runnable
+     * @throws RejectedExecutionException if the executor is saturated
+     */
+    public void execute(final Runnable runnable) {
+        final long submitDate = System.nanoTime();
+        this.submitted.incrementAndGet();
+        this.threadPool.execute(new Runnable() {
+            public void run() {
+                final long startDate = System.nanoTime();
+                final long queueWait = startDate - submitDate;
+                record(AuthExecutor.this.totalQueueWait, AuthExecutor.this.maxQueueWait, queueWait);
+                Config.getMetricsRegistry().timer(QUEUE_WAIT_METRIC).record(queueWait);
+                try {
+                    runnable.run();
+                } finally {
+                    final long executionTime = System.nanoTime() - startDate;
+                    record(AuthExecutor.this.totalExecutionTime, AuthExecutor.this.maxExecutionTime, executionTime);
+                    Config.getMetricsRegistry().timer(EXECUTION_METRIC).record(executionTime);
+                    AuthExecutor.this.completed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static void record(final AtomicLong total, final AtomicLong max, final long duration) {
+        total.addAndGet(duration);
+        long currentMax = max.get();
+        while (duration > currentMax && !max.compareAndSet(currentMax, duration)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Stop accepting tasks : the submitted tasks are still run.
+     */
+    public void shutdown() {
+        logger.debug("shutdown authentication executor");
+        this.threadPool.shutdown();
+    }
+
+    public ExecutionContext getExecutionContext() {
+        return this.executionContext;
+    }
+
+    public int getQueueSize() {
+        return this.threadPool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return this.threadPool.getActiveCount();
+    }
+
+    public long getSubmitted() {
+        return this.submitted.get();
+    }
+
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    public long getCompleted() {
+        return this.completed.get();
+    }
+
+    /**
+     * @return the total time (in nanoseconds) the tasks have waited for a thread
+     */
+    public long getTotalQueueWait() {
+        return this.totalQueueWait.get();
+    }
+
+    public long getMaxQueueWait() {
+        return this.maxQueueWait.get();
+    }
+
+    /**
+     * @return the total execution time (in nanoseconds) of the tasks
+     */
+    public long getTotalExecutionTime() {
+        return this.totalExecutionTime.get();
+    }
+
+    public long getMaxExecutionTime() {
+        return this.maxExecutionTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AuthExecutor[submitted=" + getSubmitted() + ", rejected=" + getRejected() + ", completed=" + getCompleted()
+               + ", queueSize=" + getQueueSize() + ", activeCount=" + getActiveCount() + "]";
+    }
+}
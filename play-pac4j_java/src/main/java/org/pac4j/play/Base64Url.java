@@ -0,0 +1,125 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+/**
+ * This class encodes/decodes bytes in the URL-safe base64 alphabet (RFC 4648), without padding, so that the result can be used as is in
+ * cookies, urls and cache keys.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class Base64Url {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int[] INDEXES = new int[128];
+
+    static {
+        java.util.Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            INDEXES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * Encode bytes.
+     *
+     * @param bytes
+     * @return the encoded string
+     */
+    public static String encode(final byte[] bytes) {
+        return encode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encode a range of bytes.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the encoded string
+     */
+    public static String encode(final byte[] bytes, final int offset, final int length) {
+        final char[] chars = new char[(length * 4 + 2) / 3];
+        final int end = offset + length;
+        int i = offset;
+        int c = 0;
+        while (end - i >= 3) {
+            final int bits = (bytes[i++] & 0xff) << 16 | (bytes[i++] & 0xff) << 8 | (bytes[i++] & 0xff);
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[(bits >>> 12) & 0x3f];
+            chars[c++] = ALPHABET[(bits >>> 6) & 0x3f];
+            chars[c++] = ALPHABET[bits & 0x3f];
+        }
+        final int remaining = end - i;
+        if (remaining == 1) {
+            final int bits = (bytes[i] & 0xff) << 16;
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[(bits >>> 12) & 0x3f];
+        } else if (remaining == 2) {
+            final int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+            chars[c++] = ALPHABET[bits >>> 18];
+            chars[c++] = ALPHABET[(bits >>> 12) & 0x3f];
+            chars[c++] = ALPHABET[(bits >>> 6) & 0x3f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decode a string.
+     *
+     * @param value
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the value is not a valid URL-safe base64 string
+     */
+    public static byte[] decode(final String value) {
+        final int length = value.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64 length : " + length);
+        }
+        final byte[] bytes = new byte[length * 3 / 4];
+        int b = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            final int index = ch < 128 ? INDEXES[ch] : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid base64 character : " + ch);
+            }
+            bits = bits << 6 | index;
+            count++;
+            if (count == 4) {
+                bytes[b++] = (byte) (bits >> 16);
+                bytes[b++] = (byte) (bits >> 8);
+                bytes[b++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            bytes[b++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            bytes[b++] = (byte) (bits >> 10);
+            bytes[b++] = (byte) (bits >> 2);
+        }
+        return bytes;
+    }
+}
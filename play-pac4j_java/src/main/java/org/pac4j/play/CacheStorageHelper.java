@@ -69,7 +69,9 @@ public final class CacheStorageHelper extends StorageHelper {
      */
     @Override
     public void remove(final String sessionId, final String key) {
-        remove(sessionId + Constants.SEPARATOR + key);
+        if (sessionId != null) {
+            remove(sessionId + Constants.SEPARATOR + key);
+        }
     }
     
     /**
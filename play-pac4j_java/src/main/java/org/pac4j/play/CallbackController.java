@@ -15,7 +15,10 @@
  */
 package org.pac4j.play;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.pac4j.core.client.BaseClient;
@@ -29,14 +32,20 @@ import org.pac4j.play.java.JavaWebContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import play.libs.F.Function;
+import play.libs.F.Function0;
+import play.libs.F.Promise;
+import play.libs.F.Tuple;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
 
 /**
  * This controller is the class to finish the authentication process and logout the user.
  * <p />
- * Public methods : {@link #callback()}, {@link #logoutAndOk()} and {@link #logoutAndRedirect()} must be used in the routes file.
+ * Public methods : {@link #callback()} (or {@link #callbackAsync()}), {@link #logoutAndOk()} and {@link #logoutAndRedirect()} must be
+ * used in the routes file.
  * 
  * @author Jerome Leleu
  * @since 1.0.0
@@ -45,6 +54,23 @@ public class CallbackController extends Controller {
     
     protected static final Logger logger = LoggerFactory.getLogger(CallbackController.class);
     
+    public static final String CALLBACK_METRIC = "pac4j.callback";
+    
+    public static final String FIND_CLIENT_METRIC = "pac4j.callback.findClient";
+    
+    public static final String REQUESTED_URL_METRIC = "pac4j.callback.requestedUrl";
+    
+    public static final String CREDENTIALS_METRIC = "pac4j.callback.credentials";
+    
+    public static final String USER_PROFILE_METRIC = "pac4j.callback.userProfile";
+    
+    public static final String SAVE_PROFILE_METRIC = "pac4j.callback.saveProfile";
+    
+    public static final String SHARED_METRIC = "pac4j.callback.shared";
+    
+    // the retrievals of user profiles in flight on this node, by session and client
+    private static final SingleFlight<String, Object> inFlightCallbacks = new SingleFlight<String, Object>();
+    
     /**
      * This method handles the callback call from the provider to finish the authentication process. The credentials and then the profile of
      * the authenticated user is retrieved and the originally requested url (or the specific saved url) is restored.
@@ -55,31 +81,247 @@ public class CallbackController extends Controller {
         "rawtypes", "unchecked"
     })
     public static Result callback() {
+        // each phase is timed
+        final long start = System.nanoTime();
+        long phaseStart = start;
+        
         // clients group from config
         final Clients clientsGroup = Config.getClients();
         
-        // web context
-        final JavaWebContext context = new JavaWebContext(request(), response(), session());
+        // web context : the session attributes written by the client are saved in one batch
+        final JavaWebContext context = new JavaWebContext(request(), response(), session(), true);
         
         // get the client from its type
         final BaseClient client = (BaseClient) clientsGroup.findClient(context);
         logger.debug("client : {}", client);
+        phaseStart = recordPhase(FIND_CLIENT_METRIC, phaseStart);
+        
+        // the requested url comes from its signed cookie (lazy sessions) or is read once from storage and kept by the web context
+        final String requestedUrlKey = StorageHelper.getInstance().getRequestedUrlKey(client.getName());
+        final String cookieRequestedUrl = RequestedUrlCookie.read(request(), client.getName());
+        if (cookieRequestedUrl != null) {
+            RequestedUrlCookie.discard(response(), client.getName());
+        } else {
+            context.preloadSessionAttributes(requestedUrlKey);
+        }
+        recordPhase(REQUESTED_URL_METRIC, phaseStart);
+        
+        // get or create sessionId
+        final String sessionId = StorageHelper.getInstance().getOrCreationSessionId(session());
         
-        // get credentials
-        Credentials credentials = null;
+        // the request thread is blocked anyway : the retrieval runs inline rather than holding a thread of the authentication executor too
+        final Http.Request request = request();
+        final Http.Response response = response();
+        final Http.Session session = session();
         try {
-            credentials = client.getCredentials(context);
-            logger.debug("credentials : {}", credentials);
-        } catch (final RequiresHttpAction e) {
+            final Object outcome = retrieveOnce(client, request, response, session, sessionId, new Callable<Object>() {
+                public Object call() {
+                    final Object outcome = retrieveProfile(client, context);
+                    saveProfile(outcome, request, response, session, sessionId);
+                    return outcome;
+                }
+            });
+            
+            // get requested url (already read if the session existed)
+            final String requestedUrl = cookieRequestedUrl != null ? cookieRequestedUrl : (String) context
+                .getSessionAttribute(requestedUrlKey);
+            return toResult(outcome, requestedUrl);
+        } finally {
+            // the failures and timeouts are measured too
+            recordPhase(CALLBACK_METRIC, start);
+        }
+    }
+    
+    /**
+     * This method handles the callback call from the provider like {@link #callback()}, but without blocking the Play thread : the
+     * credentials and the user profile are retrieved on the {@link AuthExecutor} while the requested url is read from storage in parallel
+     * on the storage execution context.
+     * <p />
+     * As the Scala applications also use this controller in their routes file, it can replace {@link #callback()} for both Java and Scala
+     * applications.
+     * 
+     * @return the promise of the redirection to the saved request
+     */
+    @SuppressWarnings({
+        "rawtypes", "unchecked"
+    })
+    public static Promise<Result> callbackAsync() {
+        // each phase is timed
+        final long start = System.nanoTime();
+        
+        // the Play context is only available on this thread
+        final Http.Request request = request();
+        final Http.Response response = response();
+        final Http.Session session = session();
+        
+        // web context : the session attributes written by the client are saved in one batch
+        final JavaWebContext context = new JavaWebContext(request, response, session, true);
+        
+        // get the client from its type
+        final BaseClient client = (BaseClient) Config.getClients().findClient(context);
+        logger.debug("client : {}", client);
+        final long requestedUrlStart = recordPhase(FIND_CLIENT_METRIC, start);
+        
+        // the requested url comes from its signed cookie (lazy sessions) or is read from storage along with the user profile
+        final Promise<String> requestedUrlPromise;
+        final String cookieRequestedUrl = RequestedUrlCookie.read(request, client.getName());
+        final String existingSessionId = session.get(Constants.SESSION_ID);
+        if (cookieRequestedUrl != null) {
+            RequestedUrlCookie.discard(response, client.getName());
+            requestedUrlPromise = Promise.pure(cookieRequestedUrl);
+        } else if (existingSessionId == null) {
+            requestedUrlPromise = Promise.pure(null);
+        } else {
+            final String requestedUrlKey = StorageHelper.getInstance().getRequestedUrlKey(client.getName());
+            requestedUrlPromise = Promise.promise(new Function0<String>() {
+                public String apply() {
+                    final String requestedUrl = (String) StorageHelper.getInstance().get(existingSessionId, requestedUrlKey);
+                    recordPhase(REQUESTED_URL_METRIC, requestedUrlStart);
+                    return requestedUrl;
+                }
+            }, StorageHelper.getInstance().getExecutionContext());
+        }
+        
+        // get or create sessionId
+        final String sessionId = StorageHelper.getInstance().getOrCreationSessionId(session);
+        
+        // the retrieval runs on the authentication executor : the concurrent callbacks of the same session and client are notified of
+        // its outcome without holding a thread
+        final scala.concurrent.Promise<Object> completion = scala.concurrent.Promise$.MODULE$.apply();
+        final boolean leader;
+        try {
+            leader = inFlightCallbacks.executeAsync(flightKey(client, sessionId), Config.getAuthTimeout(), AuthExecutor.getInstance(),
+                                                    new Callable<Object>() {
+                                                        public Object call() {
+                                                            final Object outcome = retrieveProfile(client, context);
+                                                            saveProfile(outcome, request, response, session, sessionId);
+                                                            return outcome;
+                                                        }
+                                                    }, new SingleFlight.Callback<Object>() {
+                                                        public void done(final Object outcome, final Throwable failure) {
+                                                            if (failure != null) {
+                                                                completion.failure(failure);
+                                                            } else {
+                                                                completion.success(outcome);
+                                                            }
+                                                        }
+                                                    });
+        } catch (final RejectedExecutionException e) {
+            logger.warn("authentication executor saturated : {}", AuthExecutor.getInstance());
+            recordPhase(CALLBACK_METRIC, start);
+            return Promise.pure(serviceUnavailable());
+        }
+        final Promise<Object> outcomePromise = Promise.wrap(completion.future()).map(new Function<Object, Object>() {
+            public Object apply(final Object outcome) {
+                if (!leader) {
+                    shareOutcome(outcome, request, response, session, sessionId);
+                }
+                return outcome;
+            }
+        });
+        
+        return outcomePromise.zip(requestedUrlPromise).map(new Function<Tuple<Object, String>, Result>() {
+            public Result apply(final Tuple<Object, String> outcomeAndRequestedUrl) {
+                final Result result = toResult(outcomeAndRequestedUrl._1, outcomeAndRequestedUrl._2);
+                recordPhase(CALLBACK_METRIC, start);
+                return result;
+            }
+        }).recover(new Function<Throwable, Result>() {
+            public Result apply(final Throwable t) throws Throwable {
+                // the failures and timeouts are measured too
+                recordPhase(CALLBACK_METRIC, start);
+                if (t instanceof RejectedExecutionException) {
+                    // the retrieval joined by this callback has been rejected
+                    logger.warn("authentication executor saturated : {}", AuthExecutor.getInstance());
+                    return serviceUnavailable();
+                }
+                throw t;
+            }
+        });
+    }
+    
+    /**
+     * Run the retrieval of the user profile, shared by the concurrent callbacks of the same session and client.
+     * 
+     * @param client
+     * @param request
+     * @param response
+     * @param session
+     * @param sessionId
+     * @param retrieval
+     * @return the user profile or the {@link HttpAction} required by the client
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object retrieveOnce(final BaseClient client, final Http.Request request, final Http.Response response,
+                                       final Http.Session session, final String sessionId, final Callable<Object> retrieval) {
+        final boolean[] leader = new boolean[1];
+        final Object outcome = inFlightCallbacks.execute(flightKey(client, sessionId), Config.getAuthTimeout(),
+                                                         new Callable<Object>() {
+                                                             public Object call() throws Exception {
+                                                                 leader[0] = true;
+                                                                 return retrieval.call();
+                                                             }
+                                                         });
+        if (!leader[0]) {
+            shareOutcome(outcome, request, response, session, sessionId);
+        }
+        return outcome;
+    }
+    
+    @SuppressWarnings("rawtypes")
+    private static String flightKey(final BaseClient client, final String sessionId) {
+        return sessionId + Constants.SEPARATOR + client.getName();
+    }
+    
+    /**
+     * Apply the outcome of the retrieval run by a concurrent callback of the same session and client to this callback.
+     * 
+     * @param outcome
+     * @param request
+     * @param response
+     * @param session
+     * @param sessionId
+     */
+    private static void shareOutcome(final Object outcome, final Http.Request request, final Http.Response response,
+                                     final Http.Session session, final String sessionId) {
+        logger.debug("user profile shared with a concurrent callback");
+        Config.getMetricsRegistry().counter(SHARED_METRIC).increment();
+        if (outcome instanceof HttpAction) {
+            // the HTTP action has been written in the web context of the other callback : its headers are needed in this response too
+            for (final Map.Entry<String, String> header : ((HttpAction) outcome).headers.entrySet()) {
+                response.setHeader(header.getKey(), header.getValue());
+            }
+        } else if (outcome != null && StorageHelper.getInstance().isClientSideStorage()) {
+            // the user profile is stored in the response of each callback
+            StorageHelper.getInstance().saveProfile(request, response, session, sessionId, (CommonProfile) outcome);
+        } else if (outcome != null) {
+            // the Play session of this response must be marked as authenticated too
+            StorageHelper.getInstance().markAuthenticated(session, sessionId);
+        }
+    }
+    
+    private static Result serviceUnavailable() {
+        return status(Constants.SERVICE_UNAVAILABLE, Config.getErrorPage503()).as(Constants.HTML_CONTENT_TYPE);
+    }
+    
+    /**
+     * Turn the outcome of the retrieval of the user profile into the result of the callback.
+     * 
+     * @param outcome
+     * @param requestedUrl
+     * @return the redirection to the saved request or the required HTTP action
+     */
+    private static Result toResult(final Object outcome, final String requestedUrl) {
+        if (outcome instanceof HttpAction) {
             // requires some specific HTTP action
-            final int code = context.getResponseStatus();
+            final int code = ((HttpAction) outcome).code;
             logger.debug("requires HTTP action : {}", code);
             if (code == HttpConstants.UNAUTHORIZED) {
                 return unauthorized(Config.getErrorPage401()).as(Constants.HTML_CONTENT_TYPE);
             } else if (code == HttpConstants.TEMP_REDIRECT) {
                 return Results.status(HttpConstants.TEMP_REDIRECT);
             } else if (code == HttpConstants.OK) {
-                final String content = context.getResponseContent();
+                final String content = ((HttpAction) outcome).content;
                 logger.debug("render : {}", content);
                 return ok(content);
             }
@@ -87,26 +329,75 @@ public class CallbackController extends Controller {
             logger.error(message);
             throw new TechnicalException(message);
         }
-        
-        // get user profile
-        final CommonProfile profile = client.getUserProfile(credentials, context);
-        logger.debug("profile : {}", profile);
-        
-        // get or create sessionId
-        final String sessionId = StorageHelper.getInstance().getOrCreationSessionId(session());
-        
-        // save user profile only if it's not null
-        if (profile != null) {
-            StorageHelper.getInstance().saveProfile(request(), response(), session(), sessionId, profile);
-        }
-        
-        // get requested url
-        final String requestedUrl = StorageHelper.getInstance().getRequestedUrl(sessionId, client.getName());
-        
         // retrieve saved request and redirect
         return redirect(defaultUrl(requestedUrl, Config.getDefaultSuccessUrl()));
     }
     
+    /**
+     * Retrieve the credentials and the user profile, on the calling thread.
+     * 
+     * @param client
+     * @param context
+     * @return the user profile or the {@link HttpAction} required by the client
+     */
+    @SuppressWarnings({
+        "rawtypes", "unchecked"
+    })
+    private static Object retrieveProfile(final BaseClient client, final JavaWebContext context) {
+        try {
+            // get credentials
+            final long credentialsStart = System.nanoTime();
+            final Credentials credentials = client.getCredentials(context);
+            logger.debug("credentials : {}", credentials);
+            final long profileStart = recordPhase(CREDENTIALS_METRIC, credentialsStart);
+            // get user profile (from the provider profile cache if possible)
+            CommonProfile profile = ProviderProfileCache.get(client.getName(), credentials);
+            if (profile == null) {
+                profile = client.getUserProfile(credentials, context);
+                ProviderProfileCache.put(client.getName(), credentials, profile);
+            }
+            recordPhase(USER_PROFILE_METRIC, profileStart);
+            logger.debug("outcome : {}", profile);
+            return profile;
+        } catch (final RequiresHttpAction e) {
+            logger.debug("outcome : {}", e);
+            return new HttpAction(context);
+        } finally {
+            context.flushSessionAttributes();
+        }
+    }
+    
+    /**
+     * Save the user profile only if it's not null.
+     * 
+     * @param outcome
+     * @param request
+     * @param response
+     * @param session
+     * @param sessionId
+     */
+    private static void saveProfile(final Object outcome, final Http.Request request, final Http.Response response,
+                                    final Http.Session session, final String sessionId) {
+        if (outcome instanceof CommonProfile) {
+            final long saveStart = System.nanoTime();
+            StorageHelper.getInstance().saveProfile(request, response, session, sessionId, (CommonProfile) outcome);
+            recordPhase(SAVE_PROFILE_METRIC, saveStart);
+        }
+    }
+    
+    /**
+     * Record the duration of a phase in the metrics registry.
+     * 
+     * @param metric
+     * @param phaseStart
+     * @return the end of the phase
+     */
+    private static long recordPhase(final String metric, final long phaseStart) {
+        final long phaseEnd = System.nanoTime();
+        Config.getMetricsRegistry().timer(metric).record(phaseEnd - phaseStart);
+        return phaseEnd;
+    }
+    
     /**
      * This method logouts the authenticated user.
      */
@@ -120,6 +411,7 @@ public class CallbackController extends Controller {
             logger.debug("remove user profile for sessionId : {}", sessionId);
         }
         session().remove(Constants.SESSION_ID);
+        session().remove(Constants.AUTHENTICATION_MARKER);
     }
     
     /**
@@ -165,4 +457,23 @@ public class CallbackController extends Controller {
         logger.debug("defaultUrl : {}", redirectUrl);
         return redirectUrl;
     }
+    
+    /**
+     * The HTTP action required by the client, as written in the web context of the callback which ran the retrieval : it's shared with
+     * the concurrent callbacks of the same session and client.
+     */
+    private static final class HttpAction {
+        
+        private final int code;
+        
+        private final String content;
+        
+        private final Map<String, String> headers;
+        
+        private HttpAction(final JavaWebContext context) {
+            this.code = context.getResponseStatus();
+            this.content = context.getResponseContent();
+            this.headers = new HashMap<String, String>(context.getResponseHeaders());
+        }
+    }
 }
@@ -15,7 +15,12 @@
  */
 package org.pac4j.play;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.pac4j.core.client.Clients;
+import org.pac4j.play.metrics.InMemoryMetricsRegistry;
+import org.pac4j.play.metrics.MetricsRegistry;
 
 /**
  * This class gathers all the configuration.
@@ -37,15 +42,57 @@ public final class Config {
     // 1 minute = 60 second
     private static int sessionTimeout = 60;
     
+    // no sliding expiration by default
+    private static int profileTouchInterval = 0;
+    
     // all the clients
     private static Clients clients;
     
     private static String errorPage401 = "authentication required";
     
     private static String errorPage403 = "forbidden";
+    
+    private static String errorPage503 = "service unavailable";
 
     private static String cacheKeyPrefix = "";
     
+    // threads running the blocking storage operations of the asynchronous API
+    private static int storageThreads = 16;
+    
+    // threads and queue of the authentication work (redirection urls, credentials and user profiles retrieval)
+    private static int authThreads = 16;
+    
+    private static int authQueueSize = 256;
+    
+    // 30 seconds
+    private static long authTimeout = 30000;
+    
+    // resolved at record time by all the components : it can be changed at any time
+    private static volatile MetricsRegistry metricsRegistry = new InMemoryMetricsRegistry();
+    
+    // no index of the sessions of the users by default
+    private static int maxSessionsPerUser = 0;
+    
+    // the requested url is saved in storage by default
+    private static boolean lazySessions = false;
+    
+    // no negative cache by default
+    private static int negativeCacheTimeout = 0;
+    
+    // no refresh-ahead of the profiles by default
+    private static ProfileRefreshStrategy profileRefreshStrategy;
+    
+    // 5 minutes = 300 seconds
+    private static int profileRefreshAhead = 300;
+    
+    private static int profileRefreshConcurrency = 4;
+    
+    // no provider profile cache by default
+    private static final Map<String, Integer> providerProfileCacheTimeouts = new ConcurrentHashMap<String, Integer>();
+    
+    // the credentials with a password are not cached by default
+    private static boolean providerProfileCachePasswords = false;
+    
     public static String getDefaultSuccessUrl() {
         return defaultSuccessUrl;
     }
@@ -70,6 +117,29 @@ public final class Config {
         Config.profileTimeout = profileTimeout;
     }
     
+    /**
+     * Gets the minimum interval (in seconds) between two extensions of the expiration of a profile when it's read : 0 means no sliding
+     * expiration
+     *
+     * @return the profile touch interval
+     * @since 1.2.1
+     */
+    public static int getProfileTouchInterval() {
+        return profileTouchInterval;
+    }
+    
+    /**
+     * Sets the minimum interval (in seconds) between two extensions of the expiration of a profile when it's read, so that active users
+     * stay authenticated (sliding expiration) : each session is written at most once per interval on each node. 0 (default) disables the
+     * sliding expiration.
+     *
+     * @param profileTouchInterval
+     * @since 1.2.1
+     */
+    public static void setProfileTouchInterval(final int profileTouchInterval) {
+        Config.profileTouchInterval = profileTouchInterval;
+    }
+    
     public static int getSessionTimeout() {
         return sessionTimeout;
     }
@@ -101,6 +171,26 @@ public final class Config {
     public static void setErrorPage403(final String errorPage403) {
         Config.errorPage403 = errorPage403;
     }
+    
+    /**
+     * Gets the content returned when the authentication work is rejected because the authentication executor is saturated
+     *
+     * @return the error page for the 503 status
+     * @since 1.2.1
+     */
+    public static String getErrorPage503() {
+        return errorPage503;
+    }
+    
+    /**
+     * Sets the content returned when the authentication work is rejected because the authentication executor is saturated
+     *
+     * @param errorPage503
+     * @since 1.2.1
+     */
+    public static void setErrorPage503(final String errorPage503) {
+        Config.errorPage503 = errorPage503;
+    }
 
     /**
      * Gets the prefix used for all cache operations
@@ -121,4 +211,280 @@ public final class Config {
     public static void setCacheKeyPrefix(String cacheKeyPrefix) {
         Config.cacheKeyPrefix = cacheKeyPrefix;
     }
+
+    /**
+     * Gets the number of threads running the blocking storage operations of the asynchronous API
+     *
+     * @return the number of storage threads
+     * @since 1.2.1
+     */
+    public static int getStorageThreads() {
+        return storageThreads;
+    }
+
+    /**
+     * Sets the number of threads running the blocking storage operations of the asynchronous API (before the first asynchronous call)
+     *
+     * @param storageThreads
+     * @since 1.2.1
+     */
+    public static void setStorageThreads(final int storageThreads) {
+        Config.storageThreads = storageThreads;
+    }
+
+    /**
+     * Gets the number of threads running the authentication work
+     *
+     * @return the number of authentication threads
+     * @since 1.2.1
+     */
+    public static int getAuthThreads() {
+        return authThreads;
+    }
+
+    /**
+     * Sets the number of threads running the authentication work (before the first authentication)
+     *
+     * @param authThreads
+     * @since 1.2.1
+     */
+    public static void setAuthThreads(final int authThreads) {
+        Config.authThreads = authThreads;
+    }
+
+    /**
+     * Gets the maximum number of authentication tasks waiting for a thread
+     *
+     * @return the size of the authentication queue
+     * @since 1.2.1
+     */
+    public static int getAuthQueueSize() {
+        return authQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of authentication tasks waiting for a thread (before the first authentication) : when the queue is full,
+     * the authentication is rejected with a 503 status
+     *
+     * @param authQueueSize
+     * @since 1.2.1
+     */
+    public static void setAuthQueueSize(final int authQueueSize) {
+        Config.authQueueSize = authQueueSize;
+    }
+
+    /**
+     * Gets the maximum time (in milliseconds) a callback waits for the user profile retrieved by a concurrent callback of the same session
+     *
+     * @return the authentication timeout
+     * @since 1.2.1
+     */
+    public static long getAuthTimeout() {
+        return authTimeout;
+    }
+
+    /**
+     * Sets the maximum time (in milliseconds) a callback waits for the user profile retrieved by a concurrent callback of the same session
+     *
+     * @param authTimeout
+     * @since 1.2.1
+     */
+    public static void setAuthTimeout(final long authTimeout) {
+        Config.authTimeout = authTimeout;
+    }
+
+    /**
+     * Gets the registry of the metrics (counters and timers) measured by this library
+     *
+     * @return the metrics registry
+     * @since 1.2.1
+     */
+    public static MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets the registry of the metrics (counters and timers) measured by this library : an in-memory registry by default
+     *
+     * @param metricsRegistry
+     * @since 1.2.1
+     */
+    public static void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        Config.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Gets the time (in seconds) the user profiles fetched from the provider of a client are cached : 0 means no cache
+     *
+     * @param clientName
+     * @return the provider profile cache timeout
+     * @since 1.2.1
+     */
+    public static int getProviderProfileCacheTimeout(final String clientName) {
+        final Integer timeout = providerProfileCacheTimeouts.get(clientName);
+        return timeout != null ? timeout.intValue() : 0;
+    }
+
+    /**
+     * Sets the time (in seconds) the user profiles fetched from the provider of a client are cached, so that a login with the same
+     * credentials doesn't call the provider again. 0 (default) disables the cache. It must be shorter than the validity of the
+     * credentials (or token) at the provider, and is only useful for clients whose credentials are reusable : the one-time codes and
+     * tickets of the OAuth and CAS protocols never hit.
+     *
+     * @param clientName
+     * @param timeout
+     * @since 1.2.1
+     */
+    public static void setProviderProfileCacheTimeout(final String clientName, final int timeout) {
+        if (timeout > 0) {
+            providerProfileCacheTimeouts.put(clientName, timeout);
+        } else {
+            providerProfileCacheTimeouts.remove(clientName);
+        }
+    }
+
+    /**
+     * Gets whether the user profiles fetched with credentials holding a password are cached
+     *
+     * @return whether the credentials with a password are cached
+     * @since 1.2.1
+     */
+    public static boolean isProviderProfileCachePasswords() {
+        return providerProfileCachePasswords;
+    }
+
+    /**
+     * Sets whether the user profiles fetched with credentials holding a password are cached (false by default). When enabled, an old
+     * password keeps logging in until the cached profile expires after a password change.
+     *
+     * @param providerProfileCachePasswords
+     * @since 1.2.1
+     */
+    public static void setProviderProfileCachePasswords(final boolean providerProfileCachePasswords) {
+        Config.providerProfileCachePasswords = providerProfileCachePasswords;
+    }
+
+    /**
+     * Gets the maximum number of sessions of a user kept in the index of its sessions : 0 means no index
+     *
+     * @return the maximum number of sessions per user
+     * @since 1.2.1
+     */
+    public static int getMaxSessionsPerUser() {
+        return maxSessionsPerUser;
+    }
+
+    /**
+     * Sets the maximum number of sessions of a user kept in the index of its sessions, used to remove all the sessions of a user. Beyond,
+     * the oldest sessions of the user are removed. 0 (default) disables the index.
+     *
+     * @param maxSessionsPerUser
+     * @since 1.2.1
+     */
+    public static void setMaxSessionsPerUser(final int maxSessionsPerUser) {
+        Config.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    /**
+     * Gets whether the anonymous requests create no storage entry
+     *
+     * @return whether the sessions are lazy
+     * @since 1.2.1
+     */
+    public static boolean isLazySessions() {
+        return lazySessions;
+    }
+
+    /**
+     * Sets whether the anonymous requests create no storage entry : the requested url is kept in a signed cookie (see
+     * {@link RequestedUrlCookie}) instead of storage until the callback, so that only the successful authentications write to storage.
+     * Defaults to false.
+     *
+     * @param lazySessions
+     * @since 1.2.1
+     */
+    public static void setLazySessions(final boolean lazySessions) {
+        Config.lazySessions = lazySessions;
+    }
+
+    /**
+     * Gets how long (in seconds) a session found without profile is answered without storage lookup on this node : 0 means no negative
+     * cache
+     *
+     * @return the negative cache timeout
+     * @since 1.2.1
+     */
+    public static int getNegativeCacheTimeout() {
+        return negativeCacheTimeout;
+    }
+
+    /**
+     * Sets how long (in seconds) a session found without profile is answered without storage lookup on this node, so that replayed dead
+     * sessions don't hit the storage on every request. It also marks the new sessions as not authenticated until a profile is saved, so
+     * that they are never looked up. A live session is never missed : the authentication marker of the Play session changes with each
+     * saved profile. 0 (default) disables the negative cache.
+     *
+     * @param negativeCacheTimeout
+     * @since 1.2.1
+     */
+    public static void setNegativeCacheTimeout(final int negativeCacheTimeout) {
+        Config.negativeCacheTimeout = negativeCacheTimeout;
+    }
+
+    public static ProfileRefreshStrategy getProfileRefreshStrategy() {
+        return profileRefreshStrategy;
+    }
+
+    /**
+     * Sets the strategy refreshing in the background the profiles nearing expiry which are still read (see {@link ProfileRefresher}) :
+     * <code>null</code> (default) disables the refresh-ahead. The profiles stored on the client side are never refreshed.
+     *
+     * @param profileRefreshStrategy
+     * @since 1.2.1
+     */
+    public static void setProfileRefreshStrategy(final ProfileRefreshStrategy profileRefreshStrategy) {
+        Config.profileRefreshStrategy = profileRefreshStrategy;
+    }
+
+    /**
+     * Gets how long (in seconds) before its expiration a profile can be refreshed
+     *
+     * @return the profile refresh ahead
+     * @since 1.2.1
+     */
+    public static int getProfileRefreshAhead() {
+        return profileRefreshAhead;
+    }
+
+    /**
+     * Sets how long (in seconds) before its expiration a profile can be refreshed : it should be much lower than the profile timeout and
+     * higher than the time needed to refresh a profile.
+     *
+     * @param profileRefreshAhead
+     * @since 1.2.1
+     */
+    public static void setProfileRefreshAhead(final int profileRefreshAhead) {
+        Config.profileRefreshAhead = profileRefreshAhead;
+    }
+
+    /**
+     * Gets the maximum number of profiles refreshed at the same time on this node
+     *
+     * @return the profile refresh concurrency
+     * @since 1.2.1
+     */
+    public static int getProfileRefreshConcurrency() {
+        return profileRefreshConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of profiles refreshed at the same time on this node, so that the refreshes don't take all the threads of the
+     * authentication executor.
+     *
+     * @param profileRefreshConcurrency
+     * @since 1.2.1
+     */
+    public static void setProfileRefreshConcurrency(final int profileRefreshConcurrency) {
+        Config.profileRefreshConcurrency = profileRefreshConcurrency;
+    }
 }
@@ -37,5 +37,13 @@ public interface Constants {
     
     public final static String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
     
+    public final static int SERVICE_UNAVAILABLE = 503;
+    
     public final static String SEPARATOR = "$";
+    
+    public final static String PROFILE_COOKIE_NAME = "pac4jProfile";
+    
+    public final static String REQUESTED_URL_COOKIE_PREFIX = "pac4jRequestedUrl_";
+    
+    public final static String AUTHENTICATION_MARKER = "pac4jAuth";
 }
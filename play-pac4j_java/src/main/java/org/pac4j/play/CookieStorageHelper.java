@@ -0,0 +1,425 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.codec.BinaryProfileCodec;
+import org.pac4j.play.codec.ProfileCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.libs.F.Promise;
+import play.mvc.Http;
+import play.mvc.Http.Session;
+
+/**
+ * This class is a stateless storage helper : the user profile is encoded (by default with the {@link BinaryProfileCodec}), compressed,
+ * encrypted (AES), authenticated (HMAC-SHA256) and stored in a cookie, so that no storage lookup is necessary to retrieve it.
+ * <p />
+ * The first secret is used to encrypt new cookies, all the secrets are accepted to decrypt them : to rotate keys, add the new secret in
+ * first position and remove the old one once all the cookies encrypted with it have expired. If no secret is defined, the
+ * <code>application.secret</code> of the Play application is used.
+ * <p />
+ * The cookie is bound to the session identifier, so that it's no longer accepted after logout. The profiles too large for a cookie
+ * (<code>maxCookieSize</code>) and all the other objects are stored in the delegate storage helper (by default : the
+ * {@link CacheStorageHelper}).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class CookieStorageHelper extends DelegatingStorageHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(CookieStorageHelper.class);
+
+    private static final byte VERSION = 1;
+
+    private static final String DELEGATE_VALUE = "delegate";
+
+    private static final int IV_LENGTH = 16;
+
+    private static final int MAC_LENGTH = 32;
+
+    private static final int HEADER_LENGTH = 2;
+
+    private static final ProfileCodec DEFAULT_PROFILE_CODEC = new BinaryProfileCodec();
+
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile List<Key> keys;
+
+    private String cookieName = Constants.PROFILE_COOKIE_NAME;
+
+    private String cookiePath = "/";
+
+    private String cookieDomain;
+
+    private boolean cookieSecure = false;
+
+    // the maximum length of the cookie value (4096 bytes per cookie for most browsers, with some room left for its attributes)
+    private int maxCookieSize = 3800;
+
+    public CookieStorageHelper(final String... secrets) {
+        this(new CacheStorageHelper(), secrets);
+    }
+
+    public CookieStorageHelper(final StorageHelper delegate, final String... secrets) {
+        super(delegate);
+        if (secrets != null && secrets.length > 0) {
+            setSecrets(secrets);
+        }
+    }
+
+    @Override
+    public CommonProfile getProfile(final Http.Request request, final Session session, final String sessionId) {
+        return getProfileFromCookie(cookieValue(request), session, sessionId);
+    }
+
+    @Override
+    public CommonProfile getProfileFromCookie(final String profileCookie, final Session session, final String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        if (profileCookie == null || DELEGATE_VALUE.equals(profileCookie)) {
+            return getDelegate().getProfile(null, session, sessionId);
+        }
+        final CommonProfile profile = decode(profileCookie, sessionId);
+        logger.debug("profile from cookie : {}", profile);
+        return profile;
+    }
+
+    /**
+     * Decode the profile from the cookie without switching threads, or get it from the delegate on the storage execution context.
+     */
+    @Override
+    public Promise<CommonProfile> getProfileAsync(final Http.Request request, final Session session, final String sessionId) {
+        return getProfileFromCookieAsync(cookieValue(request), session, sessionId);
+    }
+
+    @Override
+    public Promise<CommonProfile> getProfileFromCookieAsync(final String profileCookie, final Session session, final String sessionId) {
+        if (sessionId != null && profileCookie != null && !DELEGATE_VALUE.equals(profileCookie)) {
+            return Promise.pure(decode(profileCookie, sessionId));
+        }
+        return super.getProfileAsync(null, session, sessionId);
+    }
+
+    @Override
+    public String getProfileCookieName() {
+        return this.cookieName;
+    }
+
+    private String cookieValue(final Http.Request request) {
+        final Http.Cookie cookie = request != null ? request.cookie(this.cookieName) : null;
+        return cookie != null ? cookie.value() : null;
+    }
+
+    @Override
+    public void saveProfile(final Http.Request request, final Http.Response response, final Session session, final String sessionId,
+                            final CommonProfile profile) {
+        if (sessionId == null) {
+            return;
+        }
+        markAuthenticated(session, sessionId);
+        final int timeout = Config.getProfileTimeout();
+        final String value = encode(profile, sessionId, System.currentTimeMillis() + timeout * 1000L);
+        if (value.length() <= this.maxCookieSize) {
+            logger.debug("profile saved in cookie ({} characters)", value.length());
+            setCookie(response, value, timeout);
+        } else {
+            logger.debug("profile too large for a cookie ({} characters), saved in delegate", value.length());
+            setCookie(response, DELEGATE_VALUE, timeout);
+            getDelegate().saveProfile(request, response, session, sessionId, profile);
+        }
+    }
+
+    /**
+     * The user profiles are stored in cookies.
+     */
+    @Override
+    public boolean isClientSideStorage() {
+        return true;
+    }
+
+    /**
+     * Remove the user profile saved in the delegate storage helper. The cookie itself is no longer valid as soon as the session
+     * identifier is removed from the session.
+     *
+     * @param sessionId
+     */
+    @Override
+    public void removeProfile(final String sessionId) {
+        getDelegate().removeProfile(sessionId);
+    }
+
+    @Override
+    public void removeProfiles(final Collection<String> sessionIds) {
+        getDelegate().removeProfiles(sessionIds);
+    }
+
+    private void setCookie(final Http.Response response, final String value, final int timeout) {
+        response.setCookie(this.cookieName, value, timeout, this.cookiePath, this.cookieDomain, this.cookieSecure, true);
+    }
+
+    /**
+     * Encode a user profile into a cookie value.
+     *
+     * @param profile
+     * @param sessionId
+     * @param expirationDate
+     * @return the cookie value
+     */
+    String encode(final CommonProfile profile, final String sessionId, final long expirationDate) {
+        try {
+            final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            final DataOutputStream data = new DataOutputStream(plain);
+            data.writeLong(expirationDate);
+            data.writeUTF(sessionId);
+            data.write(serialize(profile));
+            data.flush();
+
+            final Key key = getKeys().get(0);
+            final byte[] iv = new byte[IV_LENGTH];
+            this.random.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, key.encryptionKey, new IvParameterSpec(iv));
+            final byte[] encrypted = cipher.doFinal(plain.toByteArray());
+
+            final byte[] bytes = new byte[HEADER_LENGTH + IV_LENGTH + encrypted.length + MAC_LENGTH];
+            bytes[0] = VERSION;
+            bytes[1] = key.id;
+            System.arraycopy(iv, 0, bytes, HEADER_LENGTH, IV_LENGTH);
+            System.arraycopy(encrypted, 0, bytes, HEADER_LENGTH + IV_LENGTH, encrypted.length);
+            final int macOffset = bytes.length - MAC_LENGTH;
+            final Mac mac = key.newMac();
+            mac.update(bytes, 0, macOffset);
+            mac.doFinal(bytes, macOffset);
+            return Base64Url.encode(bytes);
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        } catch (final GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Decode a user profile from a cookie value.
+     *
+     * @param value
+     * @param sessionId
+     * @return the user profile or <code>null</code> if the cookie is invalid, expired or bound to another session
+     */
+    CommonProfile decode(final String value, final String sessionId) {
+        try {
+            final byte[] bytes = Base64Url.decode(value);
+            if (bytes.length < HEADER_LENGTH + IV_LENGTH + MAC_LENGTH || bytes[0] != VERSION) {
+                logger.debug("invalid cookie format");
+                return null;
+            }
+            final int macOffset = bytes.length - MAC_LENGTH;
+            final byte[] expectedMac = new byte[MAC_LENGTH];
+            System.arraycopy(bytes, macOffset, expectedMac, 0, MAC_LENGTH);
+            for (final Key key : getKeys()) {
+                if (key.id != bytes[1]) {
+                    continue;
+                }
+                final Mac mac = key.newMac();
+                mac.update(bytes, 0, macOffset);
+                if (!MessageDigest.isEqual(expectedMac, mac.doFinal())) {
+                    continue;
+                }
+                final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.DECRYPT_MODE, key.encryptionKey, new IvParameterSpec(bytes, HEADER_LENGTH, IV_LENGTH));
+                final byte[] plain = cipher.doFinal(bytes, HEADER_LENGTH + IV_LENGTH, macOffset - HEADER_LENGTH - IV_LENGTH);
+                final DataInputStream data = new DataInputStream(new ByteArrayInputStream(plain));
+                final long expirationDate = data.readLong();
+                if (expirationDate < System.currentTimeMillis()) {
+                    logger.debug("expired cookie");
+                    return null;
+                }
+                if (!sessionId.equals(data.readUTF())) {
+                    logger.debug("cookie bound to another session");
+                    return null;
+                }
+                final int offset = plain.length - data.available();
+                return deserialize(plain, offset, plain.length - offset);
+            }
+            logger.debug("no key to authenticate the cookie");
+            return null;
+        } catch (final IllegalArgumentException e) {
+            logger.debug("invalid cookie encoding");
+            return null;
+        } catch (final IOException e) {
+            logger.warn("cannot read cookie", e);
+            return null;
+        } catch (final GeneralSecurityException e) {
+            logger.warn("cannot decrypt cookie", e);
+            return null;
+        } catch (final RuntimeException e) {
+            logger.warn("cannot decode profile from cookie", e);
+            return null;
+        }
+    }
+
+    private ProfileCodec getCookieProfileCodec() {
+        final ProfileCodec profileCodec = getProfileCodec();
+        return profileCodec != null ? profileCodec : DEFAULT_PROFILE_CODEC;
+    }
+
+    private byte[] serialize(final CommonProfile profile) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = new DeflaterOutputStream(bytes);
+        out.write(getCookieProfileCodec().encode(profile));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private CommonProfile deserialize(final byte[] bytes, final int offset, final int length) throws IOException {
+        final InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes, offset, length));
+        try {
+            final ByteArrayOutputStream inflated = new ByteArrayOutputStream(length * 2);
+            final byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                inflated.write(buffer, 0, read);
+            }
+            return getCookieProfileCodec().decode(inflated.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    private List<Key> getKeys() {
+        if (this.keys == null) {
+            final String secret = play.Play.application().configuration().getString("application.secret");
+            if (StringUtils.isBlank(secret)) {
+                throw new TechnicalException("No secret defined. Use CookieStorageHelper.setSecrets(secrets)");
+            }
+            setSecrets(secret);
+        }
+        return this.keys;
+    }
+
+    /**
+     * Define the secrets used to encrypt and authenticate the cookies : the first one encrypts the new cookies, all of them decrypt.
+     *
+     * @param secrets
+     */
+    public void setSecrets(final String... secrets) {
+        final List<Key> newKeys = new ArrayList<Key>();
+        for (final String secret : secrets) {
+            if (StringUtils.isBlank(secret)) {
+                throw new IllegalArgumentException("secret cannot be blank");
+            }
+            newKeys.add(new Key(secret));
+        }
+        this.keys = newKeys;
+    }
+
+    public String getCookieName() {
+        return this.cookieName;
+    }
+
+    public void setCookieName(final String cookieName) {
+        this.cookieName = cookieName;
+    }
+
+    public String getCookiePath() {
+        return this.cookiePath;
+    }
+
+    public void setCookiePath(final String cookiePath) {
+        this.cookiePath = cookiePath;
+    }
+
+    public String getCookieDomain() {
+        return this.cookieDomain;
+    }
+
+    public void setCookieDomain(final String cookieDomain) {
+        this.cookieDomain = cookieDomain;
+    }
+
+    public boolean isCookieSecure() {
+        return this.cookieSecure;
+    }
+
+    public void setCookieSecure(final boolean cookieSecure) {
+        this.cookieSecure = cookieSecure;
+    }
+
+    public int getMaxCookieSize() {
+        return this.maxCookieSize;
+    }
+
+    public void setMaxCookieSize(final int maxCookieSize) {
+        this.maxCookieSize = maxCookieSize;
+    }
+
+    private static final class Key {
+
+        private final byte id;
+
+        private final SecretKeySpec encryptionKey;
+
+        private final SecretKeySpec macKey;
+
+        private Key(final String secret) {
+            try {
+                final byte[] encryptionBytes = digest("enc:" + secret);
+                this.id = digest("id:" + secret)[0];
+                this.encryptionKey = new SecretKeySpec(encryptionBytes, 0, 16, "AES");
+                this.macKey = new SecretKeySpec(digest("mac:" + secret), "HmacSHA256");
+            } catch (final GeneralSecurityException e) {
+                throw new TechnicalException(e);
+            } catch (final IOException e) {
+                throw new TechnicalException(e);
+            }
+        }
+
+        private Mac newMac() throws GeneralSecurityException {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(this.macKey);
+            return mac;
+        }
+
+        private static byte[] digest(final String value) throws GeneralSecurityException, IOException {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+        }
+    }
+}
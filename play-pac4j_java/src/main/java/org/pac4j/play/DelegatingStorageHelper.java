@@ -0,0 +1,174 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.codec.ProfileCodec;
+
+import play.mvc.Http.Session;
+
+/**
+ * This class is a storage helper which forwards all the storage operations to another storage helper, along with the bookkeeping of the
+ * sessions (touches, misses, index of the sessions of the users), so that it's kept in one place.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public abstract class DelegatingStorageHelper extends StorageHelper {
+
+    private final StorageHelper delegate;
+
+    protected DelegatingStorageHelper(final StorageHelper delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+    }
+
+    public StorageHelper getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Define the profile codec of this storage helper and of its delegate.
+     * 
+     * @param profileCodec
+     */
+    @Override
+    public void setProfileCodec(final ProfileCodec profileCodec) {
+        super.setProfileCodec(profileCodec);
+        this.delegate.setProfileCodec(profileCodec);
+    }
+
+    @Override
+    public boolean isClientSideStorage() {
+        return this.delegate.isClientSideStorage();
+    }
+
+    @Override
+    protected boolean isKnownMiss(final Session session, final String sessionId) {
+        return this.delegate.isKnownMiss(session, sessionId);
+    }
+
+    @Override
+    protected void recordMiss(final Session session, final String sessionId) {
+        this.delegate.recordMiss(session, sessionId);
+    }
+
+    @Override
+    public void markAuthenticated(final Session session, final String sessionId) {
+        this.delegate.markAuthenticated(session, sessionId);
+    }
+
+    @Override
+    protected boolean shouldTouch(final String sessionId) {
+        return this.delegate.shouldTouch(sessionId);
+    }
+
+    @Override
+    protected void forgetSession(final String sessionId) {
+        this.delegate.forgetSession(sessionId);
+    }
+
+    @Override
+    protected void indexSession(final String sessionId, final CommonProfile profile) {
+        this.delegate.indexSession(sessionId, profile);
+    }
+
+    @Override
+    protected void touchUserSessions(final CommonProfile profile) {
+        this.delegate.touchUserSessions(profile);
+    }
+
+    @Override
+    public List<String> getSessionIds(final String typedId) {
+        return this.delegate.getSessionIds(typedId);
+    }
+
+    @Override
+    protected List<String> removeUserSessions(final String typedId) {
+        return this.delegate.removeUserSessions(typedId);
+    }
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        return this.delegate.get(sessionId, key);
+    }
+
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        this.delegate.save(sessionId, key, value);
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        this.delegate.remove(sessionId, key);
+    }
+
+    @Override
+    public Object get(final String key) {
+        return this.delegate.get(key);
+    }
+
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        this.delegate.save(key, value, timeout);
+    }
+
+    @Override
+    public void remove(final String key) {
+        this.delegate.remove(key);
+    }
+
+    @Override
+    protected boolean touch(final String key, final int timeout) {
+        return this.delegate.touch(key, timeout);
+    }
+
+    @Override
+    public Map<String, Object> getAll(final String sessionId, final Collection<String> keys) {
+        return this.delegate.getAll(sessionId, keys);
+    }
+
+    @Override
+    public void saveAll(final String sessionId, final Map<String, Object> values) {
+        this.delegate.saveAll(sessionId, values);
+    }
+
+    @Override
+    public void removeAll(final String sessionId, final Collection<String> keys) {
+        this.delegate.removeAll(sessionId, keys);
+    }
+
+    @Override
+    public Map<String, Object> getAll(final Collection<String> keys) {
+        return this.delegate.getAll(keys);
+    }
+
+    @Override
+    public void saveAll(final Map<String, Object> values, final int timeout) {
+        this.delegate.saveAll(values, timeout);
+    }
+
+    @Override
+    public void removeAll(final Collection<String> keys) {
+        this.delegate.removeAll(keys);
+    }
+}
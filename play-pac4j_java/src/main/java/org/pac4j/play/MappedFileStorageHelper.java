@@ -0,0 +1,717 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.play.codec.BinaryProfileCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is a storage helper which keeps the encoded user profiles, the requested urls and the other session attributes in
+ * memory-mapped files : after a restart, the sessions are reloaded from the files and the users don't need to authenticate again.
+ * <p />
+ * The entries are appended to fixed-size log files (by default : 64 MB), a removal being appended as a tombstone. On startup, the files are
+ * replayed in order, the expired entries being skipped and a torn record at the end of a file being dropped (each record has a checksum).
+ * Only the location of the entries is kept on heap, the values are read from the mapped files. Periodically, the expired entries are
+ * dropped from the index, the files with less than half of live data are compacted (their live entries are appended to the current file)
+ * and the files are forced to disk.
+ * <p />
+ * The written data survives a crash of the JVM as soon as it's written, a crash of the OS only once forced to disk. A directory can only be
+ * used by one storage helper at a time : {@link #close()} must be called when the application stops (in <code>Global.onStop</code>),
+ * otherwise the storage helper created after a reload in development mode fails to lock the directory still held by the previous one.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class MappedFileStorageHelper extends StorageHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileStorageHelper.class);
+
+    private static final String FILE_PREFIX = "sessions-";
+
+    private static final String FILE_SUFFIX = ".log";
+
+    // record layout : checksum (4), type (1), expiration (8), key length (4), value length (4), key, value
+    // the expiration is excluded from the checksum as it's updated in place when an entry is touched
+    private static final int TYPE = 4;
+
+    private static final int EXPIRATION = 5;
+
+    private static final int KEY_LENGTH = 13;
+
+    private static final int VALUE_LENGTH = 17;
+
+    private static final int HEADER = 21;
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    // the size of the records moved at once by a compaction, under the write lock
+    private static final int COMPACTION_BATCH_SIZE = 256 * 1024;
+
+    private final File directory;
+
+    private final int fileSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Location> index = new HashMap<String, Location>();
+
+    private final TreeMap<Integer, DataFile> files = new TreeMap<Integer, DataFile>();
+
+    private final RandomAccessFile lockFile;
+
+    private final FileLock directoryLock;
+
+    private final ScheduledExecutorService maintenance;
+
+    private DataFile activeFile;
+
+    private double compactionThreshold = 0.5;
+
+    private long compactionCount;
+
+    private boolean closed;
+
+    /**
+     * Create a storage helper with files of 64 MB, maintained every minute.
+     *
+     * @param directory
+     */
+    public MappedFileStorageHelper(final File directory) {
+        this(directory, 64 * 1024 * 1024, 60);
+    }
+
+    /**
+     * Create a storage helper and reload the entries already stored in the directory.
+     *
+     * @param directory the directory of the files
+     * @param fileSize the size of a file, in bytes, which is also the maximum size of an entry
+     * @param maintenanceInterval the interval between two maintenances (expiration, compaction, force to disk) in seconds, 0 to disable
+     *            them (see {@link #maintain()})
+     */
+    public MappedFileStorageHelper(final File directory, final int fileSize, final int maintenanceInterval) {
+        if (fileSize < 1024) {
+            throw new IllegalArgumentException("fileSize must be at least 1 KB");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new TechnicalException("Cannot create directory : " + directory);
+        }
+        this.directory = directory;
+        this.fileSize = fileSize;
+        try {
+            this.lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+            FileLock directoryLock;
+            try {
+                directoryLock = this.lockFile.getChannel().tryLock();
+            } catch (final OverlappingFileLockException e) {
+                // already locked in this JVM
+                directoryLock = null;
+            }
+            this.directoryLock = directoryLock;
+            if (directoryLock == null) {
+                this.lockFile.close();
+                throw new TechnicalException("Directory already used by another storage helper : " + directory);
+            }
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            load();
+            logger.info("{} entries reloaded from {} in {} ms", new Object[] {
+                this.index.size(), directory, System.currentTimeMillis() - start
+            });
+        } catch (final IOException e) {
+            release();
+            throw new TechnicalException(e);
+        } catch (final RuntimeException e) {
+            release();
+            throw e;
+        }
+        setProfileCodec(new BinaryProfileCodec());
+        if (maintenanceInterval > 0) {
+            this.maintenance = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("pac4j-mapped-storage"));
+            this.maintenance.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        maintain();
+                    } catch (final RuntimeException e) {
+                        logger.error("maintenance failed", e);
+                    }
+                }
+            }, maintenanceInterval, maintenanceInterval, TimeUnit.SECONDS);
+        } else {
+            this.maintenance = null;
+        }
+    }
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        if (sessionId != null) {
+            return get(sessionId + Constants.SEPARATOR + key);
+        }
+        return null;
+    }
+
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        if (sessionId != null) {
+            save(sessionId + Constants.SEPARATOR + key, value, Config.getSessionTimeout());
+        }
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        if (sessionId != null) {
+            remove(sessionId + Constants.SEPARATOR + key);
+        }
+    }
+
+    @Override
+    public Object get(final String key) {
+        final byte[] data;
+        this.lock.readLock().lock();
+        try {
+            final Location location = this.index.get(key);
+            if (location == null) {
+                return null;
+            }
+            final ByteBuffer buffer = location.file.buffer.duplicate();
+            if (buffer.getLong(location.offset + EXPIRATION) <= System.currentTimeMillis()) {
+                return null;
+            }
+            data = new byte[buffer.getInt(location.offset + VALUE_LENGTH)];
+            buffer.position(location.offset + HEADER + buffer.getInt(location.offset + KEY_LENGTH));
+            buffer.get(data);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return StorageValues.decode(data);
+    }
+
+    /**
+     * Save an object in storage.
+     *
+     * @param key
+     * @param value
+     * @param timeout the time to live in seconds, 0 for no expiration
+     */
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        final byte[] record = record(PUT, StorageValues.toUtf8(key), StorageValues.encode(value), expiration(timeout));
+        this.lock.writeLock().lock();
+        try {
+            final Location location = append(record);
+            if (location == null) {
+                logger.warn("entry too large for a file of {} bytes : {}", this.fileSize, key);
+                removeEntry(key);
+                return;
+            }
+            unlink(this.index.put(key, location));
+            location.file.liveBytes += location.length;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        this.lock.writeLock().lock();
+        try {
+            removeEntry(key);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The expiration is updated in place, under the write lock as the readers and the maintenance read it.
+     */
+    @Override
+    protected boolean touch(final String key, final int timeout) {
+        this.lock.writeLock().lock();
+        try {
+            final Location location = this.index.get(key);
+            if (location == null || location.file.buffer.getLong(location.offset + EXPIRATION) <= System.currentTimeMillis()) {
+                return false;
+            }
+            location.file.buffer.putLong(location.offset + EXPIRATION, expiration(timeout));
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the expired entries from the index, compact the files with too much garbage and force the files to disk. This method is called
+     * periodically if a maintenance interval is defined.
+     * <p />
+     * The index is scanned and the compacted files are read under the read lock or without lock (only the active file is written), the
+     * write lock being only held to drop the expired entries and to move a batch of live entries, so that the reads are not blocked by a
+     * compaction.
+     */
+    public synchronized void maintain() {
+        final long now = System.currentTimeMillis();
+        final List<String> expiredKeys = new ArrayList<String>();
+        this.lock.readLock().lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            for (final Map.Entry<String, Location> entry : this.index.entrySet()) {
+                if (isExpired(entry.getValue(), now)) {
+                    expiredKeys.add(entry.getKey());
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (!expiredKeys.isEmpty()) {
+            this.lock.writeLock().lock();
+            try {
+                for (final String key : expiredKeys) {
+                    // the entry may have been saved again since the scan
+                    final Location location = this.index.get(key);
+                    if (location != null && isExpired(location, now)) {
+                        this.index.remove(key);
+                        unlink(location);
+                    }
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        final List<DataFile> compactedFiles = new ArrayList<DataFile>();
+        final DataFile activeFile;
+        this.lock.readLock().lock();
+        try {
+            for (final DataFile file : this.files.values()) {
+                if (file != this.activeFile && file.liveBytes < file.writePosition * this.compactionThreshold) {
+                    compactedFiles.add(file);
+                }
+            }
+            activeFile = this.activeFile;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        try {
+            for (final DataFile file : compactedFiles) {
+                if (!compact(file, now)) {
+                    return;
+                }
+            }
+            // a file rolled over is already forced by the append
+            activeFile.buffer.force();
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Stop the maintenance, force the files to disk and release them, along with the directory : to be called when the application stops
+     * (in <code>Global.onStop</code>).
+     */
+    public void close() {
+        if (this.maintenance != null) {
+            this.maintenance.shutdown();
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.closed = true;
+            for (final DataFile file : this.files.values()) {
+                file.buffer.force();
+                file.close();
+            }
+            this.files.clear();
+            this.index.clear();
+            this.directoryLock.release();
+            this.lockFile.close();
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    // release the opened files and the directory after a failed load, the original error being reported
+    private void release() {
+        try {
+            for (final DataFile file : this.files.values()) {
+                file.close();
+            }
+            this.files.clear();
+            this.index.clear();
+            this.directoryLock.release();
+            this.lockFile.close();
+        } catch (final IOException e) {
+            logger.warn("cannot release the directory : " + this.directory, e);
+        }
+    }
+
+    public int getSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int getFileCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.files.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.compactionCount;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    public double getCompactionThreshold() {
+        return this.compactionThreshold;
+    }
+
+    /**
+     * Define the ratio of live data under which a file is compacted (by default : 0.5).
+     *
+     * @param compactionThreshold
+     */
+    public void setCompactionThreshold(final double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileStorageHelper[directory=" + this.directory + ", size=" + getSize() + ", files=" + getFileCount()
+               + ", compactions=" + getCompactionCount() + "]";
+    }
+
+    private static long expiration(final int timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+    }
+
+    private static byte[] record(final byte type, final byte[] key, final byte[] value, final long expiration) {
+        final byte[] record = new byte[HEADER + key.length + value.length];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.put(TYPE, type);
+        buffer.putLong(EXPIRATION, expiration);
+        buffer.putInt(KEY_LENGTH, key.length);
+        buffer.putInt(VALUE_LENGTH, value.length);
+        System.arraycopy(key, 0, record, HEADER, key.length);
+        System.arraycopy(value, 0, record, HEADER + key.length, value.length);
+        buffer.putInt(0, checksum(record));
+        return record;
+    }
+
+    private static int checksum(final byte[] record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record, TYPE, 1);
+        crc.update(record, KEY_LENGTH, record.length - KEY_LENGTH);
+        return (int) crc.getValue();
+    }
+
+    private static boolean isExpired(final Location location, final long now) {
+        return location.file.buffer.getLong(location.offset + EXPIRATION) <= now;
+    }
+
+    private static String key(final byte[] record) {
+        return StorageValues.fromUtf8(Arrays.copyOfRange(record, HEADER, HEADER + ByteBuffer.wrap(record).getInt(KEY_LENGTH)));
+    }
+
+    // the record at this position or null if there is none (end of the data or torn write)
+    private static byte[] readRecord(final DataFile file, final int position) {
+        final ByteBuffer buffer = file.buffer.duplicate();
+        if (position + HEADER > file.size) {
+            return null;
+        }
+        final byte type = buffer.get(position + TYPE);
+        final int keyLength = buffer.getInt(position + KEY_LENGTH);
+        final int valueLength = buffer.getInt(position + VALUE_LENGTH);
+        if ((type != PUT && type != REMOVE) || keyLength < 0 || valueLength < 0
+            || (long) position + HEADER + keyLength + valueLength > file.size) {
+            return null;
+        }
+        final byte[] record = new byte[HEADER + keyLength + valueLength];
+        buffer.position(position);
+        buffer.get(record);
+        return checksum(record) == buffer.getInt(position) ? record : null;
+    }
+
+    private void removeEntry(final String key) {
+        final Location location = this.index.remove(key);
+        if (location != null) {
+            // the tombstone is needed as long as the removed entry could be reloaded : it has the same expiration
+            final long expiration = location.file.buffer.getLong(location.offset + EXPIRATION);
+            unlink(location);
+            append(record(REMOVE, StorageValues.toUtf8(key), new byte[0], expiration));
+        }
+    }
+
+    private void unlink(final Location location) {
+        if (location != null) {
+            location.file.liveBytes -= location.length;
+        }
+    }
+
+    private Location append(final byte[] record) {
+        if (record.length > this.fileSize) {
+            return null;
+        }
+        if (this.activeFile.writePosition + record.length > this.activeFile.size) {
+            this.activeFile.buffer.force();
+            try {
+                this.activeFile = openFile(this.activeFile.id + 1);
+            } catch (final IOException e) {
+                throw new TechnicalException(e);
+            }
+        }
+        final ByteBuffer buffer = this.activeFile.buffer.duplicate();
+        buffer.position(this.activeFile.writePosition);
+        buffer.put(record);
+        final Location location = new Location(this.activeFile, this.activeFile.writePosition, record.length);
+        this.activeFile.writePosition += record.length;
+        return location;
+    }
+
+    private void load() throws IOException {
+        final String[] names = this.directory.list(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        final int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = Integer.parseInt(names[i].substring(FILE_PREFIX.length(), names[i].length() - FILE_SUFFIX.length()));
+        }
+        Arrays.sort(ids);
+        final long now = System.currentTimeMillis();
+        for (final int id : ids) {
+            replay(openFile(id), now);
+        }
+        this.activeFile = this.files.isEmpty() ? openFile(1) : this.files.get(this.files.lastKey());
+    }
+
+    private void replay(final DataFile file, final long now) {
+        int position = 0;
+        byte[] record;
+        while ((record = readRecord(file, position)) != null) {
+            final String key = key(record);
+            final long expiration = ByteBuffer.wrap(record).getLong(EXPIRATION);
+            if (record[TYPE] == PUT && expiration > now) {
+                unlink(this.index.put(key, new Location(file, position, record.length)));
+                file.liveBytes += record.length;
+            } else {
+                unlink(this.index.remove(key));
+            }
+            position += record.length;
+        }
+        file.writePosition = position;
+        // the rest of the file is cleared so that the remains of a torn write are never read as records
+        if (position + HEADER <= file.size && file.buffer.get(position + TYPE) != 0) {
+            logger.warn("dropping torn data at the end of {} from position {}", file.file, position);
+            final ByteBuffer buffer = file.buffer.duplicate();
+            buffer.position(position);
+            final byte[] zeros = new byte[Math.min(8192, file.size - position)];
+            while (buffer.hasRemaining()) {
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+            }
+        }
+    }
+
+    // the records are read without lock as only the expirations of a file which is not the active one are updated, then the live entries
+    // and the needed tombstones are appended to the active file by batches under the write lock, then the file is deleted
+    private boolean compact(final DataFile file, final long now) throws IOException {
+        final List<byte[]> records = new ArrayList<byte[]>();
+        final List<Integer> positions = new ArrayList<Integer>();
+        final List<String> keys = new ArrayList<String>();
+        int batchSize = 0;
+        int position = 0;
+        while (position < file.writePosition) {
+            final byte[] record = readRecord(file, position);
+            if (record == null) {
+                break;
+            }
+            records.add(record);
+            positions.add(position);
+            keys.add(key(record));
+            batchSize += record.length;
+            position += record.length;
+            if (batchSize >= COMPACTION_BATCH_SIZE) {
+                if (!move(file, records, positions, keys, now)) {
+                    return false;
+                }
+                records.clear();
+                positions.clear();
+                keys.clear();
+                batchSize = 0;
+            }
+        }
+        if (!move(file, records, positions, keys, now)) {
+            return false;
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+            // no entry of the index is located in the file anymore
+            this.files.remove(file.id);
+            file.close();
+            this.compactionCount++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        if (!file.file.delete()) {
+            logger.warn("cannot delete compacted file : {}", file.file);
+        }
+        logger.debug("compacted : {}", file.file);
+        return true;
+    }
+
+    // move the records of a batch which are still live, false if the storage helper is closed
+    private boolean move(final DataFile file, final List<byte[]> records, final List<Integer> positions, final List<String> keys,
+                         final long now) {
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+            for (int i = 0; i < records.size(); i++) {
+                final byte[] record = records.get(i);
+                final int position = positions.get(i);
+                final String key = keys.get(i);
+                if (record[TYPE] == PUT) {
+                    final Location location = this.index.get(key);
+                    if (location != null && location.file == file && location.offset == position) {
+                        // the current expiration is copied as is
+                        ByteBuffer.wrap(record).putLong(EXPIRATION, file.buffer.getLong(position + EXPIRATION));
+                        final Location newLocation = append(record);
+                        if (newLocation != null) {
+                            this.index.put(key, newLocation);
+                            newLocation.file.liveBytes += newLocation.length;
+                        } else {
+                            this.index.remove(key);
+                        }
+                    }
+                } else if (!this.index.containsKey(key) && ByteBuffer.wrap(record).getLong(EXPIRATION) > now) {
+                    append(record);
+                }
+            }
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private DataFile openFile(final int id) throws IOException {
+        final DataFile file = new DataFile(id, new File(this.directory, FILE_PREFIX + id + FILE_SUFFIX), this.fileSize);
+        this.files.put(id, file);
+        return file;
+    }
+
+    /**
+     * A mapped file.
+     */
+    private static final class DataFile {
+
+        final int id;
+
+        final File file;
+
+        final RandomAccessFile randomAccessFile;
+
+        final MappedByteBuffer buffer;
+
+        final int size;
+
+        int writePosition;
+
+        long liveBytes;
+
+        DataFile(final int id, final File file, final int defaultSize) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            if (this.randomAccessFile.length() == 0) {
+                this.randomAccessFile.setLength(defaultSize);
+            }
+            this.size = (int) this.randomAccessFile.length();
+            this.buffer = this.randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+        }
+
+        void close() throws IOException {
+            this.randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The location of an entry.
+     */
+    private static final class Location {
+
+        final DataFile file;
+
+        final int offset;
+
+        final int length;
+
+        Location(final DataFile file, final int offset, final int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
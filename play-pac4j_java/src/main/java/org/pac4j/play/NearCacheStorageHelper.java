@@ -0,0 +1,364 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pac4j.core.profile.CommonProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.libs.F.Promise;
+import play.mvc.Http;
+import play.mvc.Http.Session;
+
+/**
+ * This class is a two-tier storage helper : the user profiles recently read or saved on this node are kept in a bounded in-process cache
+ * (L1) in front of another storage helper (by default : the {@link CacheStorageHelper}).
+ * <p />
+ * An entry of the L1 cache lives at most <code>timeToLive</code> seconds (and never longer than the profile timeout), which bounds how
+ * long a profile removed on another node can still be seen on this node. The L1 cache is striped by session identifier (up to 16 LRU
+ * segments with their own lock) and a profile loaded from the delegate while it's removed on this node is not cached.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class NearCacheStorageHelper extends DelegatingStorageHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheStorageHelper.class);
+
+    // at most 16 stripes of at least 64 profiles
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    // 10 000 profiles
+    private volatile int maxSize = 10000;
+
+    // 30 seconds
+    private int timeToLive = 30;
+
+    // the profiles are striped by session identifier, so that the requests of different sessions don't contend on one lock
+    private volatile Segment[] segments = newSegments(this.maxSize);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public NearCacheStorageHelper() {
+        this(new CacheStorageHelper());
+    }
+
+    public NearCacheStorageHelper(final StorageHelper delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public CommonProfile getProfile(final Http.Request request, final Session session, final String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        final CommonProfile cachedProfile = getCachedProfile(sessionId);
+        if (cachedProfile != null) {
+            touchDelegate(sessionId, cachedProfile);
+            return cachedProfile;
+        }
+        final long now = System.currentTimeMillis();
+        // a removal of the profile during the load makes the loaded profile stale
+        final Segment segment = segmentFor(sessionId);
+        final long generation = segment.getGeneration();
+        final CommonProfile profile = getDelegate().getProfile(request, session, sessionId);
+        logger.debug("profile loaded from delegate : {}", profile);
+        if (profile != null) {
+            put(segment, sessionId, profile, now, generation);
+        }
+        return profile;
+    }
+
+    /**
+     * Get the profile from the in-process cache without switching threads, or from the delegate on the storage execution context.
+     */
+    @Override
+    public Promise<CommonProfile> getProfileAsync(final Http.Request request, final Session session, final String sessionId) {
+        if (sessionId != null) {
+            final CommonProfile cachedProfile = getCachedProfile(sessionId, false);
+            if (cachedProfile != null) {
+                touchDelegate(sessionId, cachedProfile);
+                return Promise.pure(cachedProfile);
+            }
+        }
+        return super.getProfileAsync(request, session, sessionId);
+    }
+
+    /**
+     * The delegate doesn't see the reads served by the in-process cache : record the read for the refresh-ahead and extend the
+     * expiration of the profile in the delegate in the background, at most once per touch interval.
+     * 
+     * @param sessionId
+     * @param profile
+     */
+    private void touchDelegate(final String sessionId, final CommonProfile profile) {
+        trackProfileRead(sessionId);
+        if (shouldTouch(sessionId)) {
+            getExecutionContext().execute(new Runnable() {
+                public void run() {
+                    if (getDelegate().touch(sessionId, Config.getProfileTimeout())) {
+                        trackProfileWrite(sessionId);
+                    }
+                    getDelegate().touchUserSessions(profile);
+                }
+            });
+        }
+    }
+
+    private CommonProfile getCachedProfile(final String sessionId) {
+        return getCachedProfile(sessionId, true);
+    }
+
+    private CommonProfile getCachedProfile(final String sessionId, final boolean countMiss) {
+        final long now = System.currentTimeMillis();
+        final Segment segment = segmentFor(sessionId);
+        synchronized (segment) {
+            final Entry entry = segment.profiles.get(sessionId);
+            if (entry != null) {
+                if (entry.expirationDate > now) {
+                    this.hits.incrementAndGet();
+                    return entry.profile;
+                }
+                segment.profiles.remove(sessionId);
+            }
+        }
+        if (countMiss) {
+            this.misses.incrementAndGet();
+        }
+        return null;
+    }
+
+    @Override
+    public void saveProfile(final Http.Request request, final Http.Response response, final Session session, final String sessionId,
+                            final CommonProfile profile) {
+        if (sessionId != null) {
+            getDelegate().saveProfile(request, response, session, sessionId, profile);
+            if (profile != null) {
+                final Segment segment = segmentFor(sessionId);
+                put(segment, sessionId, profile, System.currentTimeMillis(), segment.getGeneration());
+            } else {
+                invalidate(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Remove the profile from the delegate, then from the in-process cache : a concurrent load which has read the profile before its
+     * removal from the delegate is discarded.
+     */
+    @Override
+    public void removeProfile(final String sessionId) {
+        if (sessionId != null) {
+            getDelegate().removeProfile(sessionId);
+            invalidate(sessionId);
+        }
+    }
+
+    @Override
+    public void removeProfiles(final Collection<String> sessionIds) {
+        getDelegate().removeProfiles(sessionIds);
+        for (final String sessionId : sessionIds) {
+            invalidate(sessionId);
+        }
+    }
+
+    @Override
+    protected List<String> removeUserSessions(final String typedId) {
+        final List<String> sessionIds = super.removeUserSessions(typedId);
+        for (final String sessionId : sessionIds) {
+            invalidate(sessionId);
+        }
+        return sessionIds;
+    }
+
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        super.save(key, value, timeout);
+        invalidate(key);
+    }
+
+    @Override
+    public void remove(final String key) {
+        super.remove(key);
+        invalidate(key);
+    }
+
+    @Override
+    public void saveAll(final Map<String, Object> values, final int timeout) {
+        super.saveAll(values, timeout);
+        for (final String key : values.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void removeAll(final Collection<String> keys) {
+        super.removeAll(keys);
+        for (final String key : keys) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * Put a profile in the in-process cache, unless the session has been invalidated since the given generation of its segment.
+     */
+    private void put(final Segment segment, final String sessionId, final CommonProfile profile, final long now, final long generation) {
+        final int ttl = Math.min(this.timeToLive, Config.getProfileTimeout());
+        if (ttl > 0 && this.maxSize > 0) {
+            synchronized (segment) {
+                if (segment.generation == generation) {
+                    segment.profiles.put(sessionId, new Entry(profile, now + ttl * 1000L));
+                } else {
+                    logger.debug("profile invalidated during its load, not cached : {}", sessionId);
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(final String sessionId) {
+        final Segment[] currentSegments = this.segments;
+        // spread the hash codes, the number of segments is a power of two
+        int hash = sessionId.hashCode();
+        hash ^= (hash >>> 16);
+        return currentSegments[hash & (currentSegments.length - 1)];
+    }
+
+    private static Segment[] newSegments(final int maxSize) {
+        int count = 1;
+        while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+            count *= 2;
+        }
+        final int segmentSize = (maxSize + count - 1) / count;
+        final Segment[] newSegments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            newSegments[i] = new Segment(segmentSize);
+        }
+        return newSegments;
+    }
+
+    /**
+     * Remove the profile of this session identifier from the in-process cache only.
+     *
+     * @param sessionId
+     */
+    public void invalidate(final String sessionId) {
+        final Segment segment = segmentFor(sessionId);
+        synchronized (segment) {
+            segment.generation++;
+            segment.profiles.remove(sessionId);
+        }
+    }
+
+    /**
+     * Remove all the profiles from the in-process cache only.
+     */
+    public void invalidateAll() {
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.generation++;
+                segment.profiles.clear();
+            }
+        }
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.profiles.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Define the maximum number of profiles of the in-process cache : the cached profiles are dropped.
+     *
+     * @param maxSize
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        this.segments = newSegments(maxSize);
+    }
+
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    public void setTimeToLive(final int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * A stripe of the in-process cache : a LRU map guarded by the segment itself, with a generation incremented by each invalidation.
+     */
+    private static final class Segment {
+
+        private final Map<String, Entry> profiles;
+
+        private long generation;
+
+        private Segment(final int maxSize) {
+            this.profiles = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = -4035812318006283573L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        private synchronized long getGeneration() {
+            return this.generation;
+        }
+    }
+
+    private static final class Entry {
+
+        private final CommonProfile profile;
+
+        private final long expirationDate;
+
+        private Entry(final CommonProfile profile, final long expirationDate) {
+            this.profile = profile;
+            this.expirationDate = expirationDate;
+        }
+    }
+}
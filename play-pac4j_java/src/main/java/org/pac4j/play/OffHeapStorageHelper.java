@@ -0,0 +1,682 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.codec.BinaryProfileCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.libs.F.Promise;
+import play.mvc.Http;
+import play.mvc.Http.Session;
+
+/**
+ * This class is a storage helper which keeps the encoded user profiles, the requested urls and the other session attributes in direct
+ * (off-heap) memory of the current JVM : the heap usage does not depend on the number of sessions.
+ * <p />
+ * The memory is split into segments, each one with its own lock. A segment allocates fixed-size slabs (by default : 64 KB) up to its
+ * share of the maximum memory and cuts them in chunks of growing size classes, an entry being written in the smallest chunk it fits in.
+ * The entries are found through an open addressing index made of primitive arrays (64-bit hash of the key and chunk address), the key
+ * bytes being checked against the chunk on lookup. Expired entries are dropped on access; when a size class has no free chunk left and
+ * the memory is exhausted, a chunk of this size class is evicted with the CLOCK algorithm.
+ * <p />
+ * User profiles are encoded with the profile codec (by default : the {@link BinaryProfileCodec}), strings in UTF-8 and the other values
+ * with the Java serialization. As the data stays in the current JVM, this storage helper is meant for single node deployments or behind a
+ * sticky load balancer.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class OffHeapStorageHelper extends StorageHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapStorageHelper.class);
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private static final int MAX_CHUNKS_PER_SLAB = 1 << 16;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final long maxMemory;
+
+    private final int slabSize;
+
+    /**
+     * Create a storage helper of 64 MB.
+     */
+    public OffHeapStorageHelper() {
+        this(64L * 1024 * 1024);
+    }
+
+    /**
+     * Create a storage helper with 16 segments and slabs of 64 KB.
+     *
+     * @param maxMemory the maximum direct memory used, in bytes
+     */
+    public OffHeapStorageHelper(final long maxMemory) {
+        this(maxMemory, 16, 64 * 1024);
+    }
+
+    /**
+     * Create a storage helper.
+     *
+     * @param maxMemory the maximum direct memory used, in bytes
+     * @param concurrency the number of segments (rounded up to a power of two)
+     * @param slabSize the size of a slab, in bytes, which is also the maximum size of an entry
+     */
+    public OffHeapStorageHelper(final long maxMemory, final int concurrency, final int slabSize) {
+        if (slabSize < 1024 || slabSize / MIN_CHUNK_SIZE > MAX_CHUNKS_PER_SLAB) {
+            throw new IllegalArgumentException("slabSize must be between 1 KB and 4 MB");
+        }
+        int segmentCount = 1;
+        int shift = 64;
+        while (segmentCount < concurrency) {
+            segmentCount <<= 1;
+            shift--;
+        }
+        final long slabsPerSegment = maxMemory / segmentCount / slabSize;
+        if (slabsPerSegment < 1 || slabsPerSegment >= Short.MAX_VALUE) {
+            throw new IllegalArgumentException("maxMemory must allow between 1 and " + (Short.MAX_VALUE - 1) + " slabs per segment");
+        }
+        final int[] chunkSizes = chunkSizes(slabSize);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment(slabSize, (int) slabsPerSegment, chunkSizes);
+        }
+        this.segmentShift = shift;
+        this.maxMemory = slabsPerSegment * segmentCount * slabSize;
+        this.slabSize = slabSize;
+        setProfileCodec(new BinaryProfileCodec());
+    }
+
+    // size classes growing by 25%, aligned on 8 bytes, the last one being a whole slab
+    private static int[] chunkSizes(final int slabSize) {
+        int[] sizes = new int[16];
+        int count = 0;
+        int size = MIN_CHUNK_SIZE;
+        while (size < slabSize) {
+            if (count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            sizes[count++] = size;
+            size = (size + size / 4 + 7) & ~7;
+        }
+        sizes = Arrays.copyOf(sizes, count + 1);
+        sizes[count] = slabSize;
+        return sizes;
+    }
+
+    /**
+     * The profile is read in memory : no need to go through the storage execution context.
+     */
+    @Override
+    public Promise<CommonProfile> getProfileAsync(final Http.Request request, final Session session, final String sessionId) {
+        return Promise.pure(sessionId != null ? getProfile(request, session, sessionId) : null);
+    }
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        if (sessionId != null) {
+            return get(sessionId + Constants.SEPARATOR + key);
+        }
+        return null;
+    }
+
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        if (sessionId != null) {
+            save(sessionId + Constants.SEPARATOR + key, value, Config.getSessionTimeout());
+        }
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        if (sessionId != null) {
+            remove(sessionId + Constants.SEPARATOR + key);
+        }
+    }
+
+    @Override
+    public Object get(final String key) {
+        final byte[] keyBytes = StorageValues.toUtf8(key);
+        final long hash = StorageValues.hash64(keyBytes);
+        final byte[] data = segmentFor(hash).get(hash, keyBytes, System.currentTimeMillis());
+        return data != null ? StorageValues.decode(data) : null;
+    }
+
+    /**
+     * Save an object in storage.
+     *
+     * @param key
+     * @param value
+     * @param timeout the time to live in seconds, 0 for no expiration
+     */
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        final byte[] keyBytes = StorageValues.toUtf8(key);
+        final long hash = StorageValues.hash64(keyBytes);
+        final byte[] data = StorageValues.encode(value);
+        if (!segmentFor(hash).put(hash, keyBytes, data, expiration(timeout), System.currentTimeMillis())) {
+            logger.warn("entry too large for a slab of {} bytes : {}", this.slabSize, key);
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        final byte[] keyBytes = StorageValues.toUtf8(key);
+        final long hash = StorageValues.hash64(keyBytes);
+        segmentFor(hash).remove(hash, keyBytes);
+    }
+
+    /**
+     * The expiration is updated in place.
+     */
+    @Override
+    protected boolean touch(final String key, final int timeout) {
+        final byte[] keyBytes = StorageValues.toUtf8(key);
+        final long hash = StorageValues.hash64(keyBytes);
+        return segmentFor(hash).touch(hash, keyBytes, expiration(timeout), System.currentTimeMillis());
+    }
+
+    /**
+     * Remove all the entries and release the slabs.
+     */
+    public void clear() {
+        for (final Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Get the number of entries (including the expired ones not yet dropped).
+     *
+     * @return the number of entries
+     */
+    public int getSize() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Get the direct memory currently allocated for slabs, in bytes.
+     *
+     * @return the allocated memory
+     */
+    public long getAllocatedMemory() {
+        long memory = 0;
+        for (final Segment segment : this.segments) {
+            memory += segment.getSlabCount();
+        }
+        return memory * this.slabSize;
+    }
+
+    public long getMaxMemory() {
+        return this.maxMemory;
+    }
+
+    public long getEvictionCount() {
+        long count = 0;
+        for (final Segment segment : this.segments) {
+            count += segment.getEvictions();
+        }
+        return count;
+    }
+
+    public long getExpirationCount() {
+        long count = 0;
+        for (final Segment segment : this.segments) {
+            count += segment.getExpirations();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapStorageHelper[size=" + getSize() + ", allocatedMemory=" + getAllocatedMemory() + ", maxMemory=" + this.maxMemory
+               + ", evictions=" + getEvictionCount() + ", expirations=" + getExpirationCount() + "]";
+    }
+
+    // the high bits of the hash select the segment, the low bits the index slot
+    private Segment segmentFor(final long hash) {
+        return this.segments.length == 1 ? this.segments[0] : this.segments[(int) (hash >>> this.segmentShift)];
+    }
+
+    private static long expiration(final int timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+    }
+
+    /**
+     * The chunks of one size : the slabs cut in chunks of this size, the free chunks and the CLOCK hand.
+     */
+    private static final class SizeClass {
+
+        final int chunkSize;
+
+        final int chunksPerSlab;
+
+        int[] slabIds = new int[4];
+
+        int slabCount;
+
+        int[] freeChunks = new int[64];
+
+        int freeCount;
+
+        int hand;
+
+        SizeClass(final int chunkSize, final int slabSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        void addSlab(final int slabId) {
+            if (this.slabCount == this.slabIds.length) {
+                this.slabIds = Arrays.copyOf(this.slabIds, this.slabCount * 2);
+            }
+            this.slabIds[this.slabCount++] = slabId;
+            // pushed in reverse order so that the chunks are used from the start of the slab
+            for (int chunk = this.chunksPerSlab - 1; chunk >= 0; chunk--) {
+                pushFree(address(slabId, chunk));
+            }
+        }
+
+        void removeSlab(final int slabId) {
+            for (int i = 0; i < this.slabCount; i++) {
+                if (this.slabIds[i] == slabId) {
+                    this.slabIds[i] = this.slabIds[--this.slabCount];
+                    break;
+                }
+            }
+            int kept = 0;
+            for (int i = 0; i < this.freeCount; i++) {
+                if (this.freeChunks[i] >>> 16 != slabId) {
+                    this.freeChunks[kept++] = this.freeChunks[i];
+                }
+            }
+            this.freeCount = kept;
+            this.hand = 0;
+        }
+
+        void pushFree(final int address) {
+            if (this.freeCount == this.freeChunks.length) {
+                this.freeChunks = Arrays.copyOf(this.freeChunks, this.freeCount * 2);
+            }
+            this.freeChunks[this.freeCount++] = address;
+        }
+    }
+
+    private static int address(final int slabId, final int chunk) {
+        return slabId << 16 | chunk;
+    }
+
+    /**
+     * A segment : its slabs, its size classes and its index, all guarded by the segment lock.
+     */
+    private static final class Segment {
+
+        // chunk layout : hash (8), expiration (8), flags (1), key length (4), value length (4), key, value
+        private static final int EXPIRATION = 8;
+
+        private static final int FLAGS = 16;
+
+        private static final int KEY_LENGTH = 17;
+
+        private static final int VALUE_LENGTH = 21;
+
+        private static final int HEADER = 25;
+
+        private static final byte USED = 1;
+
+        private static final byte REFERENCED = 2;
+
+        private static final int EMPTY = -1;
+
+        private static final int REMOVED = -2;
+
+        private final int slabSize;
+
+        private final int maxSlabs;
+
+        private final SizeClass[] classes;
+
+        private ByteBuffer[] slabs;
+
+        private int[] slabClasses;
+
+        private int slabCount;
+
+        private long[] hashes;
+
+        private int[] addresses;
+
+        // live entries, and live + removed slots
+        private int size;
+
+        private int used;
+
+        private long evictions;
+
+        private long expirations;
+
+        Segment(final int slabSize, final int maxSlabs, final int[] chunkSizes) {
+            this.slabSize = slabSize;
+            this.maxSlabs = maxSlabs;
+            this.classes = new SizeClass[chunkSizes.length];
+            for (int i = 0; i < chunkSizes.length; i++) {
+                this.classes[i] = new SizeClass(chunkSizes[i], slabSize);
+            }
+            reset();
+        }
+
+        private void reset() {
+            this.slabs = new ByteBuffer[Math.min(this.maxSlabs, 16)];
+            this.slabClasses = new int[this.slabs.length];
+            this.slabCount = 0;
+            this.hashes = new long[1024];
+            this.addresses = new int[1024];
+            Arrays.fill(this.addresses, EMPTY);
+            this.size = 0;
+            this.used = 0;
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < this.classes.length; i++) {
+                this.classes[i] = new SizeClass(this.classes[i].chunkSize, this.slabSize);
+            }
+            reset();
+        }
+
+        synchronized byte[] get(final long hash, final byte[] key, final long now) {
+            final int slot = find(hash, key);
+            if (slot < 0) {
+                return null;
+            }
+            final int address = this.addresses[slot];
+            final ByteBuffer slab = this.slabs[address >>> 16];
+            final int offset = offset(address);
+            if (slab.getLong(offset + EXPIRATION) <= now) {
+                this.expirations++;
+                removeSlot(slot);
+                return null;
+            }
+            slab.put(offset + FLAGS, (byte) (USED | REFERENCED));
+            final byte[] value = new byte[slab.getInt(offset + VALUE_LENGTH)];
+            slab.position(offset + HEADER + key.length);
+            slab.get(value);
+            return value;
+        }
+
+        synchronized boolean put(final long hash, final byte[] key, final byte[] value, final long expiration, final long now) {
+            final int existing = find(hash, key);
+            if (existing >= 0) {
+                removeSlot(existing);
+            }
+            final int sizeClass = sizeClassFor(HEADER + key.length + value.length);
+            if (sizeClass < 0) {
+                return false;
+            }
+            final int address = allocate(sizeClass, now);
+            final ByteBuffer slab = this.slabs[address >>> 16];
+            final int offset = offset(address);
+            slab.putLong(offset, hash);
+            slab.putLong(offset + EXPIRATION, expiration);
+            slab.put(offset + FLAGS, USED);
+            slab.putInt(offset + KEY_LENGTH, key.length);
+            slab.putInt(offset + VALUE_LENGTH, value.length);
+            slab.position(offset + HEADER);
+            slab.put(key);
+            slab.put(value);
+            insert(hash, address);
+            return true;
+        }
+
+        synchronized void remove(final long hash, final byte[] key) {
+            final int slot = find(hash, key);
+            if (slot >= 0) {
+                removeSlot(slot);
+            }
+        }
+
+        synchronized boolean touch(final long hash, final byte[] key, final long expiration, final long now) {
+            final int slot = find(hash, key);
+            if (slot < 0) {
+                return false;
+            }
+            final int address = this.addresses[slot];
+            final ByteBuffer slab = this.slabs[address >>> 16];
+            final int offset = offset(address);
+            if (slab.getLong(offset + EXPIRATION) <= now) {
+                this.expirations++;
+                removeSlot(slot);
+                return false;
+            }
+            slab.putLong(offset + EXPIRATION, expiration);
+            slab.put(offset + FLAGS, (byte) (USED | REFERENCED));
+            return true;
+        }
+
+        synchronized int getSize() {
+            return this.size;
+        }
+
+        synchronized int getSlabCount() {
+            return this.slabCount;
+        }
+
+        synchronized long getEvictions() {
+            return this.evictions;
+        }
+
+        synchronized long getExpirations() {
+            return this.expirations;
+        }
+
+        private int offset(final int address) {
+            return (address & 0xffff) * this.classes[this.slabClasses[address >>> 16]].chunkSize;
+        }
+
+        private int sizeClassFor(final int length) {
+            for (int i = 0; i < this.classes.length; i++) {
+                if (this.classes[i].chunkSize >= length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int find(final long hash, final byte[] key) {
+            final int mask = this.addresses.length - 1;
+            int slot = (int) hash & mask;
+            while (true) {
+                final int address = this.addresses[slot];
+                if (address == EMPTY) {
+                    return -1;
+                }
+                if (address != REMOVED && this.hashes[slot] == hash && keyEquals(address, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private boolean keyEquals(final int address, final byte[] key) {
+            final ByteBuffer slab = this.slabs[address >>> 16];
+            final int offset = offset(address);
+            if (slab.getInt(offset + KEY_LENGTH) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (slab.get(offset + HEADER + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void insert(final long hash, final int address) {
+            if (this.used + 1 > this.addresses.length * 3 / 4) {
+                // grow if the index is half full with live entries, otherwise only drop the removed slots
+                rehash(this.size + 1 > this.addresses.length / 2 ? this.addresses.length * 2 : this.addresses.length);
+            }
+            final int mask = this.addresses.length - 1;
+            int slot = (int) hash & mask;
+            while (this.addresses[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            if (this.addresses[slot] == EMPTY) {
+                this.used++;
+            }
+            this.hashes[slot] = hash;
+            this.addresses[slot] = address;
+            this.size++;
+        }
+
+        private void rehash(final int capacity) {
+            final long[] oldHashes = this.hashes;
+            final int[] oldAddresses = this.addresses;
+            this.hashes = new long[capacity];
+            this.addresses = new int[capacity];
+            Arrays.fill(this.addresses, EMPTY);
+            final int mask = capacity - 1;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] >= 0) {
+                    int slot = (int) oldHashes[i] & mask;
+                    while (this.addresses[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.hashes[slot] = oldHashes[i];
+                    this.addresses[slot] = oldAddresses[i];
+                }
+            }
+            this.used = this.size;
+        }
+
+        private void removeSlot(final int slot) {
+            final int address = this.addresses[slot];
+            this.slabs[address >>> 16].put(offset(address) + FLAGS, (byte) 0);
+            this.classes[this.slabClasses[address >>> 16]].pushFree(address);
+            this.addresses[slot] = REMOVED;
+            this.size--;
+        }
+
+        // drop the index slot of an evicted chunk, which is reused as is by the caller
+        private void unindex(final int address) {
+            final long hash = this.slabs[address >>> 16].getLong(offset(address));
+            final int mask = this.addresses.length - 1;
+            int slot = (int) hash & mask;
+            while (this.addresses[slot] != address) {
+                slot = (slot + 1) & mask;
+            }
+            this.addresses[slot] = REMOVED;
+            this.size--;
+        }
+
+        private int allocate(final int sizeClass, final long now) {
+            final SizeClass chunks = this.classes[sizeClass];
+            if (chunks.freeCount == 0) {
+                if (this.slabCount < this.maxSlabs) {
+                    chunks.addSlab(newSlab(sizeClass));
+                } else if (chunks.slabCount > 0) {
+                    return evict(chunks, now);
+                } else {
+                    reassignSlab(sizeClass);
+                }
+            }
+            return chunks.freeChunks[--chunks.freeCount];
+        }
+
+        private int newSlab(final int sizeClass) {
+            if (this.slabCount == this.slabs.length) {
+                final int length = Math.min(this.maxSlabs, this.slabCount * 2);
+                this.slabs = Arrays.copyOf(this.slabs, length);
+                this.slabClasses = Arrays.copyOf(this.slabClasses, length);
+            }
+            final int slabId = this.slabCount++;
+            this.slabs[slabId] = ByteBuffer.allocateDirect(this.slabSize);
+            this.slabClasses[slabId] = sizeClass;
+            return slabId;
+        }
+
+        // CLOCK : the referenced chunks get a second chance, the expired ones are taken first
+        private int evict(final SizeClass chunks, final long now) {
+            final int total = chunks.slabCount * chunks.chunksPerSlab;
+            while (true) {
+                final int position = chunks.hand;
+                chunks.hand = (position + 1) % total;
+                final int address = address(chunks.slabIds[position / chunks.chunksPerSlab], position % chunks.chunksPerSlab);
+                final ByteBuffer slab = this.slabs[address >>> 16];
+                final int offset = offset(address);
+                final byte flags = slab.get(offset + FLAGS);
+                if ((flags & USED) == 0) {
+                    continue;
+                }
+                if (slab.getLong(offset + EXPIRATION) <= now) {
+                    this.expirations++;
+                } else if ((flags & REFERENCED) != 0) {
+                    slab.put(offset + FLAGS, USED);
+                    continue;
+                } else {
+                    this.evictions++;
+                }
+                unindex(address);
+                slab.put(offset + FLAGS, (byte) 0);
+                return address;
+            }
+        }
+
+        // the memory is exhausted and this size class has no slab : take the last slab of the size class with the most slabs
+        private void reassignSlab(final int sizeClass) {
+            int victimClass = 0;
+            for (int i = 1; i < this.classes.length; i++) {
+                if (this.classes[i].slabCount > this.classes[victimClass].slabCount) {
+                    victimClass = i;
+                }
+            }
+            final SizeClass victim = this.classes[victimClass];
+            final int slabId = victim.slabIds[victim.slabCount - 1];
+            final ByteBuffer slab = this.slabs[slabId];
+            for (int chunk = 0; chunk < victim.chunksPerSlab; chunk++) {
+                final int offset = chunk * victim.chunkSize;
+                if ((slab.get(offset + FLAGS) & USED) != 0) {
+                    unindex(address(slabId, chunk));
+                    slab.put(offset + FLAGS, (byte) 0);
+                    this.evictions++;
+                }
+            }
+            victim.removeSlab(slabId);
+            // the chunks are cut differently : the flags of the new layout must not read the old data as used
+            this.slabClasses[slabId] = sizeClass;
+            final SizeClass chunks = this.classes[sizeClass];
+            for (int chunk = 0; chunk < chunks.chunksPerSlab; chunk++) {
+                slab.put(chunk * chunks.chunkSize + FLAGS, (byte) 0);
+            }
+            chunks.addSlab(slabId);
+        }
+    }
+}
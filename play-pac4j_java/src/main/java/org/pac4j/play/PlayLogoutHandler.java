@@ -15,15 +15,31 @@
  */
 package org.pac4j.play;
 
-import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.pac4j.cas.logout.NoLogoutHandler;
 import org.pac4j.core.context.WebContext;
 import org.pac4j.play.java.JavaWebContext;
+import org.pac4j.play.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class handles logout requests from CAS server.
+ * <p />
+ * The sessions are indexed by ticket (<code>pac4jTicket$ticket</code> -&gt; session id). The logout requests are queued and processed in
+ * batches on the storage execution context : one batch read of the index and one batch removal of the profiles and index entries, so
+ * that a burst of back-channel logout requests doesn't cost three storage calls per request.
+ * <p />
+ * The sessions recorded before the version 1.2.1 are indexed by the bare ticket : they are still found as long as
+ * <code>legacyTicketKeys</code> is enabled (default), which must last at least one profile timeout after the upgrade.
  * 
  * @author Jerome Leleu
  * @since 1.1.0
@@ -32,16 +48,61 @@ public final class PlayLogoutHandler extends NoLogoutHandler {
     
     private static final Logger logger = LoggerFactory.getLogger(PlayLogoutHandler.class);
     
+    public static final String TICKET_KEY_PREFIX = "pac4jTicket" + Constants.SEPARATOR;
+    
+    public static final String REQUESTS_METRIC = "pac4j.logout.requests";
+    
+    public static final String SESSIONS_METRIC = "pac4j.logout.sessions";
+    
+    public static final String BATCH_METRIC = "pac4j.logout.batch";
+    
+    private static final String SESSION_INDEX_START = "SessionIndex>";
+    
+    private static final String SESSION_INDEX_END = "</";
+    
+    private final Queue<String> pendingTicketKeys = new ConcurrentLinkedQueue<String>();
+    
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    
+    // whether a drain task is scheduled or running : at most one at a time
+    private final AtomicBoolean draining = new AtomicBoolean();
+    
+    private int batchSize = 100;
+    
+    // beyond, the calling threads process the logout requests until the queue is back under this limit
+    private int maxPending = 10000;
+    
+    // look for the sessions indexed by the bare ticket, before the ticket key prefix
+    private boolean legacyTicketKeys = true;
+    
     @Override
     public void destroySession(final WebContext context) {
         final String logoutRequest = context.getRequestParameter("logoutRequest");
         logger.debug("logoutRequest : {}", logoutRequest);
-        final String ticket = StringUtils.substringBetween(logoutRequest, "SessionIndex>", "</");
+        final String ticket = extractSessionIndex(logoutRequest);
         logger.debug("extract ticket : {}", ticket);
-        final String sessionId = (String) StorageHelper.getInstance().get(ticket);
-        logger.debug("found sessionId : {}", sessionId);
-        StorageHelper.getInstance().removeProfile(sessionId);
-        StorageHelper.getInstance().remove(ticket);
+        if (ticket != null) {
+            logout(ticket);
+        }
+    }
+    
+    /**
+     * Queue the logout of the session of a ticket.
+     * 
+     * @param ticket
+     */
+    void logout(final String ticket) {
+        Config.getMetricsRegistry().counter(REQUESTS_METRIC).increment();
+        this.pendingTicketKeys.add(TICKET_KEY_PREFIX.concat(ticket));
+        if (this.pendingCount.incrementAndGet() > this.maxPending) {
+            logger.warn("too many pending logout requests : processed by the calling thread");
+            List<String> ticketKeys;
+            while (this.pendingCount.get() > this.maxPending && !(ticketKeys = pollBatch()).isEmpty()) {
+                destroySessionsSafely(ticketKeys);
+            }
+        } else {
+            scheduleDrain();
+        }
     }
     
     @Override
@@ -50,6 +111,160 @@ public final class PlayLogoutHandler extends NoLogoutHandler {
         final JavaWebContext javaWebContext = (JavaWebContext) context;
         final String sessionId = javaWebContext.getSession().get(Constants.SESSION_ID);
         logger.debug("save sessionId : {}", sessionId);
-        StorageHelper.getInstance().save(ticket, sessionId, Config.getProfileTimeout());
+        StorageHelper.getInstance().save(TICKET_KEY_PREFIX.concat(ticket), sessionId, Config.getProfileTimeout());
+    }
+    
+    /**
+     * Extract the ticket from the <code>SessionIndex</code> element of a SAML logout request.
+     * 
+     * @param logoutRequest
+     * @return the ticket or <code>null</code> if not found
+     */
+    static String extractSessionIndex(final String logoutRequest) {
+        if (logoutRequest == null) {
+            return null;
+        }
+        final int start = logoutRequest.indexOf(SESSION_INDEX_START);
+        if (start < 0) {
+            return null;
+        }
+        final int begin = start + SESSION_INDEX_START.length();
+        final int end = logoutRequest.indexOf(SESSION_INDEX_END, begin);
+        if (end < 0) {
+            return null;
+        }
+        return logoutRequest.substring(begin, end);
+    }
+    
+    // a drain task is only submitted when none is scheduled or running
+    private void scheduleDrain() {
+        if (this.draining.compareAndSet(false, true)) {
+            try {
+                StorageHelper.getInstance().getExecutionContext().execute(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                logger.warn("storage execution context unavailable : logout requests processed by the calling thread");
+                this.draining.set(false);
+                flush();
+            }
+        }
+    }
+    
+    // a request queued after the last poll but before the end of the drain is drained again
+    private void drain() {
+        do {
+            try {
+                flush();
+            } finally {
+                this.draining.set(false);
+            }
+        } while (!this.pendingTicketKeys.isEmpty() && this.draining.compareAndSet(false, true));
+    }
+    
+    /**
+     * Process the pending logout requests now, in batches, in the calling thread.
+     */
+    public void flush() {
+        List<String> ticketKeys = pollBatch();
+        while (!ticketKeys.isEmpty()) {
+            destroySessionsSafely(ticketKeys);
+            ticketKeys = pollBatch();
+        }
+    }
+    
+    private void destroySessionsSafely(final List<String> ticketKeys) {
+        try {
+            destroySessions(ticketKeys);
+        } catch (final RuntimeException e) {
+            logger.error("cannot process " + ticketKeys.size() + " logout requests : " + ticketKeys, e);
+        }
+    }
+    
+    private List<String> pollBatch() {
+        final List<String> ticketKeys = new ArrayList<String>(this.batchSize);
+        String ticketKey;
+        while (ticketKeys.size() < this.batchSize && (ticketKey = this.pendingTicketKeys.poll()) != null) {
+            this.pendingCount.decrementAndGet();
+            ticketKeys.add(ticketKey);
+        }
+        return ticketKeys;
+    }
+    
+    private void destroySessions(final List<String> ticketKeys) {
+        final long start = System.nanoTime();
+        final StorageHelper storageHelper = StorageHelper.getInstance();
+        final Map<String, Object> sessionIds = storageHelper.getAll(ticketKeys);
+        logger.debug("found sessionIds : {}", sessionIds);
+        final List<String> keys = new ArrayList<String>(ticketKeys);
+        final List<String> profileKeys = new ArrayList<String>(ticketKeys.size());
+        for (final Object sessionId : sessionIds.values()) {
+            if (sessionId != null) {
+                profileKeys.add((String) sessionId);
+            }
+        }
+        if (this.legacyTicketKeys) {
+            final List<String> legacyKeys = new ArrayList<String>();
+            for (final String ticketKey : ticketKeys) {
+                if (sessionIds.get(ticketKey) == null) {
+                    legacyKeys.add(ticketKey.substring(TICKET_KEY_PREFIX.length()));
+                }
+            }
+            if (!legacyKeys.isEmpty()) {
+                final Map<String, Object> legacySessionIds = storageHelper.getAll(legacyKeys);
+                logger.debug("found legacy sessionIds : {}", legacySessionIds);
+                for (final Map.Entry<String, Object> entry : legacySessionIds.entrySet()) {
+                    if (entry.getValue() != null) {
+                        profileKeys.add((String) entry.getValue());
+                        keys.add(entry.getKey());
+                    }
+                }
+            }
+        }
+        // the removal of the profiles goes through the storage helper to forget the sessions on this node too
+        storageHelper.removeProfiles(profileKeys);
+        storageHelper.removeAll(keys);
+        final MetricsRegistry metricsRegistry = Config.getMetricsRegistry();
+        metricsRegistry.counter(SESSIONS_METRIC).add(profileKeys.size());
+        metricsRegistry.timer(BATCH_METRIC).record(System.nanoTime() - start);
+    }
+    
+    /**
+     * @return the number of logout requests waiting to be processed
+     */
+    public int getPendingCount() {
+        return this.pendingCount.get();
+    }
+    
+    public boolean isLegacyTicketKeys() {
+        return this.legacyTicketKeys;
+    }
+    
+    /**
+     * Define whether the sessions indexed by the bare ticket (before the version 1.2.1) are looked for : it can be disabled one profile
+     * timeout after the upgrade.
+     * 
+     * @param legacyTicketKeys
+     */
+    public void setLegacyTicketKeys(final boolean legacyTicketKeys) {
+        this.legacyTicketKeys = legacyTicketKeys;
+    }
+    
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    public int getMaxPending() {
+        return this.maxPending;
+    }
+    
+    public void setMaxPending(final int maxPending) {
+        this.maxPending = maxPending;
     }
 }
@@ -0,0 +1,39 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This interface defines how a user profile nearing expiry is refreshed in the background (see {@link ProfileRefresher}), for instance
+ * by calling the provider again with an access token kept in the profile.
+ * <p />
+ * Implementations must be thread-safe : they are called on the authentication executor.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public interface ProfileRefreshStrategy {
+
+    /**
+     * Refresh a user profile.
+     *
+     * @param profile
+     * @return the refreshed profile or <code>null</code> if the profile cannot be refreshed (its client doesn't support it) : the profile
+     *         then expires normally
+     */
+    CommonProfile refresh(CommonProfile profile);
+}
@@ -0,0 +1,367 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.pac4j.core.profile.CommonProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class refreshes in the background the user profiles nearing expiry, so that active users are not sent back to their provider in
+ * the middle of a workflow and that the expirations of the profiles saved at the same time don't turn into spikes of logins.
+ * <p />
+ * The profiles saved on this node are tracked until their expiration : when a profile gets within {@link Config#getProfileRefreshAhead()}
+ * seconds of its expiration and has been read since it was saved, it's refreshed by the {@link ProfileRefreshStrategy} and saved again.
+ * The profiles not read since their last save expire normally. The checks are spread randomly over the first half of the refresh window
+ * and at most {@link Config#getProfileRefreshConcurrency()} refreshes run at the same time on the {@link AuthExecutor} : the others are
+ * retried a bit later.
+ * <p />
+ * The pending checks are grouped by second of their due time, and a single periodic task sweeps the due seconds : the number of scheduled
+ * tasks does not grow with the number of tracked profiles.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class ProfileRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProfileRefresher.class);
+
+    public static final String REFRESHED_METRIC = "pac4j.refresh.refreshed";
+
+    public static final String SATURATED_METRIC = "pac4j.refresh.saturated";
+
+    public static final String FAILED_METRIC = "pac4j.refresh.failed";
+
+    // bound of the tracked profiles : beyond, the new profiles are not refreshed
+    private static final int MAX_ENTRIES = 100000;
+
+    // delay (in milliseconds) before retrying a refresh when the concurrency limit is reached
+    private static final int RETRY_DELAY = 1000;
+
+    // width (in milliseconds) of the buckets of pending checks, and period of the sweep
+    private static final long BUCKET_MILLIS = 1000;
+
+    private static volatile ProfileRefresher instance;
+
+    private final ProfileRefreshStrategy strategy;
+
+    private final long aheadMillis;
+
+    private final Semaphore permits;
+
+    private final Executor executor;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("pac4j-refresh"));
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // the pending checks by bucket of due time, guarded by the map itself
+    private final TreeMap<Long, List<Entry>> buckets = new TreeMap<Long, List<Entry>>();
+
+    private final Random random = new Random();
+
+    public ProfileRefresher(final ProfileRefreshStrategy strategy, final int ahead, final int concurrency) {
+        this(strategy, ahead, concurrency, AuthExecutor.getInstance());
+    }
+
+    /**
+     * Define the refresher.
+     * 
+     * @param strategy
+     * @param ahead how long (in seconds) before its expiration a profile can be refreshed
+     * @param concurrency the maximum number of refreshes running at the same time
+     * @param executor where the refreshes run
+     */
+    public ProfileRefresher(final ProfileRefreshStrategy strategy, final int ahead, final int concurrency, final Executor executor) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy cannot be null");
+        }
+        if (ahead <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("ahead and concurrency must be positive : " + ahead + ", " + concurrency);
+        }
+        this.strategy = strategy;
+        this.aheadMillis = ahead * 1000L;
+        this.permits = new Semaphore(concurrency);
+        this.executor = executor;
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep(System.currentTimeMillis());
+            }
+        }, BUCKET_MILLIS, BUCKET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the profile refresher : by default, created from the {@link Config} on first use.
+     * 
+     * @return the profile refresher
+     */
+    public static ProfileRefresher getInstance() {
+        if (instance == null) {
+            synchronized (ProfileRefresher.class) {
+                if (instance == null) {
+                    instance = new ProfileRefresher(Config.getProfileRefreshStrategy(), Config.getProfileRefreshAhead(),
+                                                    Config.getProfileRefreshConcurrency());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public static void setInstance(final ProfileRefresher profileRefresher) {
+        instance = profileRefresher;
+    }
+
+    /**
+     * Record that a profile has just been saved (or its expiration extended) with the {@link Config#getProfileTimeout()}.
+     * 
+     * @param sessionId
+     * @param now
+     */
+    public void saved(final String sessionId, final long now) {
+        final long expiration = now + Config.getProfileTimeout() * 1000L;
+        Entry entry = this.entries.get(sessionId);
+        if (entry == null) {
+            if (this.entries.size() >= MAX_ENTRIES) {
+                logger.debug("too many tracked profiles, {} not tracked", sessionId);
+                return;
+            }
+            entry = new Entry(sessionId, now, expiration);
+            final Entry existingEntry = this.entries.putIfAbsent(sessionId, entry);
+            if (existingEntry == null) {
+                schedule(entry, now);
+                return;
+            }
+            entry = existingEntry;
+        }
+        // the scheduled check of the existing entry takes the new expiration into account
+        entry.savedAt = now;
+        entry.expiration = expiration;
+    }
+
+    /**
+     * Record that a profile has just been read.
+     * 
+     * @param sessionId
+     * @param now
+     */
+    public void read(final String sessionId, final long now) {
+        final Entry entry = this.entries.get(sessionId);
+        if (entry != null) {
+            entry.lastRead = now;
+        }
+    }
+
+    /**
+     * Stop tracking a profile.
+     * 
+     * @param sessionId
+     */
+    public void forget(final String sessionId) {
+        this.entries.remove(sessionId);
+    }
+
+    /**
+     * Schedule the next check of a profile, at a random time of the first half of its refresh window.
+     * 
+     * @param entry
+     * @param now
+     */
+    private void schedule(final Entry entry, final long now) {
+        final long jitter = (long) (this.random.nextDouble() * this.aheadMillis / 2);
+        scheduleCheck(entry, Math.max(now, entry.expiration - this.aheadMillis + jitter));
+    }
+
+    private void scheduleCheck(final Entry entry, final long checkTime) {
+        final Long bucket = Long.valueOf(checkTime / BUCKET_MILLIS);
+        synchronized (this.buckets) {
+            List<Entry> bucketEntries = this.buckets.get(bucket);
+            if (bucketEntries == null) {
+                bucketEntries = new ArrayList<Entry>();
+                this.buckets.put(bucket, bucketEntries);
+            }
+            bucketEntries.add(entry);
+        }
+    }
+
+    /**
+     * Check the profiles whose check is due.
+     * 
+     * @param now
+     */
+    void sweep(final long now) {
+        final List<Entry> dueEntries = new ArrayList<Entry>();
+        synchronized (this.buckets) {
+            final Long lastDueBucket = Long.valueOf(now / BUCKET_MILLIS);
+            Map.Entry<Long, List<Entry>> bucket = this.buckets.firstEntry();
+            while (bucket != null && bucket.getKey().compareTo(lastDueBucket) <= 0) {
+                dueEntries.addAll(bucket.getValue());
+                this.buckets.pollFirstEntry();
+                bucket = this.buckets.firstEntry();
+            }
+        }
+        for (final Entry entry : dueEntries) {
+            try {
+                check(entry, now);
+            } catch (final RuntimeException e) {
+                // the sweep must go on
+                logger.error("cannot check profile for sessionId : " + entry.sessionId, e);
+                this.entries.remove(entry.sessionId, entry);
+            }
+        }
+    }
+
+    /**
+     * Check whether a profile must be refreshed now and start its refresh if so.
+     * 
+     * @param sessionId
+     * @param now
+     */
+    void check(final String sessionId, final long now) {
+        final Entry entry = this.entries.get(sessionId);
+        if (entry != null) {
+            check(entry, now);
+        }
+    }
+
+    private void check(final Entry entry, final long now) {
+        final String sessionId = entry.sessionId;
+        // forgotten (and maybe tracked again, with its own check) since the check was scheduled
+        if (this.entries.get(sessionId) != entry) {
+            return;
+        }
+        if (now < entry.expiration - this.aheadMillis) {
+            // saved again since the check was scheduled
+            schedule(entry, now);
+            return;
+        }
+        if (entry.lastRead <= entry.savedAt || now >= entry.expiration) {
+            logger.debug("profile not read since its last save, let it expire : {}", sessionId);
+            this.entries.remove(sessionId, entry);
+            return;
+        }
+        if (!this.permits.tryAcquire()) {
+            retry(entry, now);
+            return;
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh(entry);
+                    } finally {
+                        ProfileRefresher.this.permits.release();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.permits.release();
+            retry(entry, now);
+        }
+    }
+
+    private void retry(final Entry entry, final long now) {
+        logger.debug("too many refreshes in progress, retry later : {}", entry.sessionId);
+        Config.getMetricsRegistry().counter(SATURATED_METRIC).increment();
+        scheduleCheck(entry, now + RETRY_DELAY + this.random.nextInt(RETRY_DELAY));
+    }
+
+    private void refresh(final Entry entry) {
+        final String sessionId = entry.sessionId;
+        final StorageHelper storageHelper = StorageHelper.getInstance();
+        try {
+            // the stored profile is read directly : a refresh is not a read of the user and must not extend its session
+            final CommonProfile profile = storageHelper.decodeProfile(storageHelper.get(sessionId));
+            final CommonProfile refreshedProfile = profile != null ? this.strategy.refresh(profile) : null;
+            logger.debug("refreshed profile : {}", refreshedProfile);
+            if (refreshedProfile == null) {
+                this.entries.remove(sessionId, entry);
+                return;
+            }
+            // not saved again if the profile has been removed meanwhile (logout)
+            if (this.entries.get(sessionId) != entry) {
+                return;
+            }
+            // the entry is updated by the save
+            storageHelper.saveProfile(null, null, null, sessionId, refreshedProfile);
+            Config.getMetricsRegistry().counter(REFRESHED_METRIC).increment();
+            schedule(entry, System.currentTimeMillis());
+        } catch (final RuntimeException e) {
+            logger.warn("cannot refresh profile for sessionId : " + sessionId, e);
+            Config.getMetricsRegistry().counter(FAILED_METRIC).increment();
+            this.entries.remove(sessionId, entry);
+        }
+    }
+
+    /**
+     * Stop the sweep of the checks : the profiles are no longer refreshed.
+     */
+    public void shutdown() {
+        logger.debug("shutdown profile refresher");
+        this.scheduler.shutdownNow();
+        this.entries.clear();
+        synchronized (this.buckets) {
+            this.buckets.clear();
+        }
+    }
+
+    /**
+     * @return the number of tracked profiles
+     */
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    public int getAvailablePermits() {
+        return this.permits.availablePermits();
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileRefresher[size=" + getSize() + ", availablePermits=" + getAvailablePermits() + ", ahead=" + this.aheadMillis / 1000
+               + "]";
+    }
+
+    private static final class Entry {
+
+        private final String sessionId;
+
+        private volatile long savedAt;
+
+        private volatile long expiration;
+
+        private volatile long lastRead;
+
+        private Entry(final String sessionId, final long savedAt, final long expiration) {
+            this.sessionId = sessionId;
+            this.savedAt = savedAt;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class caches the user profiles fetched from the providers, so that a login with the same (still valid) credentials or token
+ * doesn't call the provider again.
+ * <p />
+ * The cache is disabled by default and enabled per client with {@link Config#setProviderProfileCacheTimeout(String, int)} : it's only
+ * useful for clients whose credentials are reusable (bearer tokens, API keys...), the one-time codes and tickets of the OAuth and CAS
+ * protocols never hit. The profiles are saved through the {@link StorageHelper}, under the HMAC-SHA256 (keyed with a server secret) of the
+ * client name and the serialized credentials : the credentials themselves are never stored and the keys cannot be brute-forced offline.
+ * If no secret is defined, the <code>application.secret</code> of the Play application is used.
+ * <p />
+ * Credentials with a password (a <code>getPassword()</code> method) are not cached, unless
+ * {@link Config#setProviderProfileCachePasswords(boolean)} is enabled : a hit skips the provider, so the old password would keep working
+ * until the cached profile expires.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class ProviderProfileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProviderProfileCache.class);
+
+    public static final String HIT_METRIC = "pac4j.providerProfileCache.hit";
+
+    public static final String MISS_METRIC = "pac4j.providerProfileCache.miss";
+
+    public static final String KEY_PREFIX = "pac4jProviderProfile" + Constants.SEPARATOR;
+
+    private static volatile SecretKeySpec key;
+
+    private ProviderProfileCache() {
+    }
+
+    /**
+     * Get the cached user profile for some credentials.
+     * 
+     * @param clientName
+     * @param credentials
+     * @return the cached user profile or <code>null</code> if the cache is disabled for this client or if no profile is cached
+     */
+    public static CommonProfile get(final String clientName, final Credentials credentials) {
+        if (Config.getProviderProfileCacheTimeout(clientName) <= 0) {
+            return null;
+        }
+        final String key = getKey(clientName, credentials);
+        if (key == null) {
+            return null;
+        }
+        final StorageHelper storageHelper = StorageHelper.getInstance();
+        final CommonProfile profile = storageHelper.decodeProfile(storageHelper.get(key));
+        logger.debug("cached provider profile : {}", profile);
+        Config.getMetricsRegistry().counter(profile != null ? HIT_METRIC : MISS_METRIC).increment();
+        return profile;
+    }
+
+    /**
+     * Cache the user profile fetched from the provider for some credentials.
+     * 
+     * @param clientName
+     * @param credentials
+     * @param profile
+     */
+    public static void put(final String clientName, final Credentials credentials, final CommonProfile profile) {
+        final int timeout = Config.getProviderProfileCacheTimeout(clientName);
+        if (timeout <= 0 || profile == null) {
+            return;
+        }
+        final String key = getKey(clientName, credentials);
+        if (key != null) {
+            final StorageHelper storageHelper = StorageHelper.getInstance();
+            storageHelper.save(key, storageHelper.encodeProfile(profile), timeout);
+        }
+    }
+
+    /**
+     * Define the secret used to compute the storage keys.
+     *
+     * @param secret
+     */
+    public static void setSecret(final String secret) {
+        if (StringUtils.isBlank(secret)) {
+            throw new IllegalArgumentException("secret cannot be blank");
+        }
+        try {
+            key = new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(StorageValues.toUtf8("providerProfile:" + secret)),
+                                    "HmacSHA256");
+        } catch (final GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Compute the storage key of some credentials.
+     * 
+     * @param clientName
+     * @param credentials
+     * @return the storage key or <code>null</code> if the credentials cannot be cached
+     */
+    static String getKey(final String clientName, final Credentials credentials) {
+        if (credentials == null) {
+            return null;
+        }
+        if (!Config.isProviderProfileCachePasswords() && hasPassword(credentials)) {
+            logger.debug("credentials with a password, the provider profile is not cached");
+            return null;
+        }
+        if (key == null) {
+            final String secret = play.Play.application().configuration().getString("application.secret");
+            if (StringUtils.isBlank(secret)) {
+                throw new TechnicalException("No secret defined. Use ProviderProfileCache.setSecret(secret)");
+            }
+            setSecret(secret);
+        }
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(StorageValues.toUtf8(clientName));
+            mac.update((byte) 0);
+            final ObjectOutputStream out = new ObjectOutputStream(new MacOutputStream(mac));
+            out.writeObject(credentials);
+            out.close();
+            return KEY_PREFIX + clientName + Constants.SEPARATOR + Base64Url.encode(mac.doFinal());
+        } catch (final GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        } catch (final IOException e) {
+            logger.warn("credentials cannot be serialized, the provider profile is not cached : {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasPassword(final Credentials credentials) {
+        try {
+            credentials.getClass().getMethod("getPassword");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This stream signs the serialized credentials without buffering them.
+     */
+    private static final class MacOutputStream extends OutputStream {
+
+        private final Mac mac;
+
+        private MacOutputStream(final Mac mac) {
+            this.mac = mac;
+        }
+
+        @Override
+        public void write(final int b) {
+            this.mac.update((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) {
+            this.mac.update(bytes, offset, length);
+        }
+    }
+}
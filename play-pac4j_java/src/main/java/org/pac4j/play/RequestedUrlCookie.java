@@ -0,0 +1,178 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.pac4j.core.exception.TechnicalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.mvc.Http;
+
+/**
+ * This class keeps the requested url in a short-lived signed cookie (one per client) when the sessions are lazy (see
+ * {@link Config#setLazySessions(boolean)}), instead of storage : the value is the url, its expiration (after
+ * {@link Config#getSessionTimeout()} seconds) and an HMAC-SHA256 of the client name, the url and the expiration.
+ * <p />
+ * If no secret is defined, the <code>application.secret</code> of the Play application is used.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class RequestedUrlCookie {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestedUrlCookie.class);
+
+    private static volatile SecretKeySpec key;
+
+    private RequestedUrlCookie() {
+    }
+
+    /**
+     * Get the name of the cookie of a client.
+     *
+     * @param clientName
+     * @return the cookie name
+     */
+    public static String getCookieName(final String clientName) {
+        return Constants.REQUESTED_URL_COOKIE_PREFIX.concat(clientName);
+    }
+
+    /**
+     * Save the requested url in the cookie of a client.
+     *
+     * @param response
+     * @param clientName
+     * @param requestedUrl
+     */
+    public static void save(final Http.Response response, final String clientName, final String requestedUrl) {
+        response.setCookie(getCookieName(clientName), encode(clientName, requestedUrl), Config.getSessionTimeout(), "/", null, false,
+                           true);
+    }
+
+    /**
+     * Read the requested url from the cookie of a client.
+     *
+     * @param request
+     * @param clientName
+     * @return the requested url or <code>null</code> if the cookie is absent, expired or invalid
+     */
+    public static String read(final Http.Request request, final String clientName) {
+        final Http.Cookie cookie = request.cookie(getCookieName(clientName));
+        return cookie != null ? decode(clientName, cookie.value()) : null;
+    }
+
+    /**
+     * Remove the cookie of a client.
+     *
+     * @param response
+     * @param clientName
+     */
+    public static void discard(final Http.Response response, final String clientName) {
+        response.discardCookie(getCookieName(clientName));
+    }
+
+    /**
+     * Encode the requested url of a client : <code>url.expiration.signature</code>.
+     *
+     * @param clientName
+     * @param requestedUrl
+     * @return the cookie value
+     */
+    public static String encode(final String clientName, final String requestedUrl) {
+        final String payload = Base64Url.encode(StorageValues.toUtf8(requestedUrl)) + "."
+                               + (System.currentTimeMillis() / 1000 + Config.getSessionTimeout());
+        return payload + "." + Base64Url.encode(sign(clientName, payload));
+    }
+
+    /**
+     * Decode the requested url of a client.
+     *
+     * @param clientName
+     * @param value
+     * @return the requested url or <code>null</code> if the value is expired or invalid
+     */
+    public static String decode(final String clientName, final String value) {
+        if (value == null) {
+            return null;
+        }
+        final int signatureSeparator = value.lastIndexOf('.');
+        final int expirationSeparator = signatureSeparator > 0 ? value.lastIndexOf('.', signatureSeparator - 1) : -1;
+        if (expirationSeparator < 0) {
+            logger.debug("malformed requested url cookie : {}", value);
+            return null;
+        }
+        final String payload = value.substring(0, signatureSeparator);
+        try {
+            final byte[] signature = Base64Url.decode(value.substring(signatureSeparator + 1));
+            if (!MessageDigest.isEqual(signature, sign(clientName, payload))) {
+                logger.warn("invalid signature for the requested url cookie of client : {}", clientName);
+                return null;
+            }
+            final long expiration = Long.parseLong(value.substring(expirationSeparator + 1, signatureSeparator));
+            if (expiration < System.currentTimeMillis() / 1000) {
+                logger.debug("requested url cookie expired : {}", value);
+                return null;
+            }
+            return StorageValues.fromUtf8(Base64Url.decode(value.substring(0, expirationSeparator)));
+        } catch (final IllegalArgumentException e) {
+            logger.debug("malformed requested url cookie : {}", value);
+            return null;
+        }
+    }
+
+    /**
+     * Define the secret used to sign the cookies.
+     *
+     * @param secret
+     */
+    public static void setSecret(final String secret) {
+        if (StringUtils.isBlank(secret)) {
+            throw new IllegalArgumentException("secret cannot be blank");
+        }
+        try {
+            key = new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(StorageValues.toUtf8("url:" + secret)), "HmacSHA256");
+        } catch (final GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    // the client name is signed too : the cookie of a client is not accepted for another one
+    private static byte[] sign(final String clientName, final String payload) {
+        if (key == null) {
+            final String secret = play.Play.application().configuration().getString("application.secret");
+            if (StringUtils.isBlank(secret)) {
+                throw new TechnicalException("No secret defined. Use RequestedUrlCookie.setSecret(secret)");
+            }
+            setSecret(secret);
+        }
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(StorageValues.toUtf8(clientName));
+            mac.update((byte) 0);
+            return mac.doFinal(StorageValues.toUtf8(payload));
+        } catch (final GeneralSecurityException e) {
+            throw new TechnicalException(e);
+        }
+    }
+}
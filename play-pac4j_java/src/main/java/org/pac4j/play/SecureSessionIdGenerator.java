@@ -0,0 +1,82 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.security.SecureRandom;
+
+/**
+ * This generator draws the session identifiers from a {@link SecureRandom} per thread, so that concurrent logins do not contend on a
+ * shared random source, and encodes them in the URL-safe base64 alphabet : 128 random bits give 22 characters instead of the 36 characters
+ * of a UUID.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class SecureSessionIdGenerator implements SessionIdGenerator {
+
+    public static final int DEFAULT_BYTES = 16;
+
+    private static final int MIN_BYTES = 16;
+
+    private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private final int bytes;
+
+    public SecureSessionIdGenerator() {
+        this(DEFAULT_BYTES);
+    }
+
+    /**
+     * Define the number of random bytes of the session identifiers.
+     *
+     * @param bytes at least 16 (128 bits)
+     */
+    public SecureSessionIdGenerator(final int bytes) {
+        if (bytes < MIN_BYTES) {
+            throw new IllegalArgumentException("bytes must be at least " + MIN_BYTES + " : " + bytes);
+        }
+        this.bytes = bytes;
+    }
+
+    public String generate() {
+        final byte[] random = new byte[this.bytes];
+        randoms.get().nextBytes(random);
+        return Base64Url.encode(random);
+    }
+
+    /**
+     * Draw a random long from the {@link SecureRandom} of the current thread.
+     *
+     * @return the random long
+     */
+    static long nextLong() {
+        return randoms.get().nextLong();
+    }
+
+    public int getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SecureSessionIdGenerator[bytes=" + this.bytes + "]";
+    }
+}
@@ -0,0 +1,115 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class groups the storage operations on the attributes of a session during a request : attributes read are kept (so that they are
+ * read at most once), several attributes can be read in one batch and, in buffered mode, attributes written are kept until the
+ * {@link #flush(String)} call which saves them in one batch.
+ * <p />
+ * This class is not thread-safe : it must be used by one request at a time.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class SessionAttributes {
+
+    // marker for the attributes known to be absent from storage
+    private static final Object ABSENT = new Object();
+
+    private final boolean buffered;
+
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    private final Map<String, Object> pendingValues = new LinkedHashMap<String, Object>();
+
+    public SessionAttributes(final boolean buffered) {
+        this.buffered = buffered;
+    }
+
+    /**
+     * Get a session attribute, from storage if it has not been read or written yet.
+     * 
+     * @param sessionId
+     * @param key
+     * @return the session attribute
+     */
+    public Object get(final String sessionId, final String key) {
+        Object value = this.values.get(key);
+        if (value == null) {
+            value = StorageHelper.getInstance().get(sessionId, key);
+            this.values.put(key, value != null ? value : ABSENT);
+        }
+        return value == ABSENT ? null : value;
+    }
+
+    /**
+     * Read several session attributes from storage in one batch (the ones already read or written are not read again).
+     * 
+     * @param sessionId
+     * @param keys
+     */
+    public void preload(final String sessionId, final String... keys) {
+        final Set<String> keysToRead = new HashSet<String>(Arrays.asList(keys));
+        keysToRead.removeAll(this.values.keySet());
+        if (!keysToRead.isEmpty()) {
+            final Map<String, Object> found = StorageHelper.getInstance().getAll(sessionId, keysToRead);
+            for (final String key : keysToRead) {
+                final Object value = found.get(key);
+                this.values.put(key, value != null ? value : ABSENT);
+            }
+        }
+    }
+
+    /**
+     * Set a session attribute : it's saved immediately or at the next {@link #flush(String)} call in buffered mode.
+     * 
+     * @param sessionId
+     * @param key
+     * @param value
+     */
+    public void set(final String sessionId, final String key, final Object value) {
+        this.values.put(key, value != null ? value : ABSENT);
+        if (this.buffered) {
+            this.pendingValues.put(key, value);
+        } else {
+            StorageHelper.getInstance().save(sessionId, key, value);
+        }
+    }
+
+    /**
+     * Save all the pending session attributes in one batch.
+     * 
+     * @param sessionId
+     */
+    public void flush(final String sessionId) {
+        if (!this.pendingValues.isEmpty()) {
+            StorageHelper.getInstance().saveAll(sessionId, new HashMap<String, Object>(this.pendingValues));
+            this.pendingValues.clear();
+        }
+    }
+
+    public boolean isBuffered() {
+        return this.buffered;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+/**
+ * This interface defines how the session identifiers are generated : they are the keys of the user profiles in storage and are sent in
+ * the Play session cookie.
+ * <p />
+ * Implementations must be thread-safe and generate unpredictable identifiers.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public interface SessionIdGenerator {
+
+    /**
+     * Generate a new session identifier.
+     *
+     * @return the session identifier
+     */
+    String generate();
+}
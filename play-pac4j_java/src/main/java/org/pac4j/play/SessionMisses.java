@@ -0,0 +1,128 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class records (lock-free) the sessions recently found without profile on this node (negative cache), so that a replayed dead
+ * session is answered without storage lookup until the record expires.
+ * <p />
+ * A miss is recorded with the authentication marker of the session (see {@link Constants#AUTHENTICATION_MARKER}) : an authentication on
+ * another node changes the marker, so the miss no longer applies. An authentication on this node forgets the miss. The expired records are
+ * swept when the number of records exceeds <code>maxRecords</code> and, if all are recent, no new miss is recorded : the memory stays
+ * bounded even with random session identifiers.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+final class SessionMisses {
+
+    private final ConcurrentMap<String, Miss> misses = new ConcurrentHashMap<String, Miss>();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    // at most one sweep per second
+    private volatile long lastSweep;
+
+    private final int maxRecords;
+
+    SessionMisses(final int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Check whether a session is known to have no profile.
+     * 
+     * @param sessionId
+     * @param marker the authentication marker of the session
+     * @param now
+     * @return whether a recent miss with the same marker has been recorded
+     */
+    boolean isMiss(final String sessionId, final String marker, final long now) {
+        final Miss miss = this.misses.get(sessionId);
+        if (miss == null) {
+            return false;
+        }
+        if (now >= miss.expiration) {
+            this.misses.remove(sessionId, miss);
+            return false;
+        }
+        return miss.marker == null ? marker == null : miss.marker.equals(marker);
+    }
+
+    /**
+     * Record that a session has no profile.
+     * 
+     * @param sessionId
+     * @param marker the authentication marker of the session
+     * @param now
+     * @param timeout in milliseconds
+     */
+    void record(final String sessionId, final String marker, final long now, final long timeout) {
+        if (this.misses.size() >= this.maxRecords) {
+            sweep(now);
+            if (this.misses.size() >= this.maxRecords) {
+                return;
+            }
+        }
+        this.misses.put(sessionId, new Miss(marker, now + timeout));
+    }
+
+    /**
+     * Forget a session.
+     * 
+     * @param sessionId
+     */
+    void forget(final String sessionId) {
+        this.misses.remove(sessionId);
+    }
+
+    int size() {
+        return this.misses.size();
+    }
+
+    private void sweep(final long now) {
+        if (now - this.lastSweep >= 1000L && this.sweeping.compareAndSet(false, true)) {
+            try {
+                this.lastSweep = now;
+                final Iterator<Miss> iterator = this.misses.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now >= iterator.next().expiration) {
+                        iterator.remove();
+                    }
+                }
+            } finally {
+                this.sweeping.set(false);
+            }
+        }
+    }
+
+    private static final class Miss {
+
+        final String marker;
+
+        final long expiration;
+
+        Miss(final String marker, final long expiration) {
+            this.marker = marker;
+            this.expiration = expiration;
+        }
+    }
+}
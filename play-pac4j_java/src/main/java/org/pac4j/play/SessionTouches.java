@@ -0,0 +1,110 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class records (lock-free) when each session has been touched on this node, so that a session is touched at most once per interval.
+ * <p />
+ * Records older than the interval are useless (the next touch is allowed anyway) : they are swept when the number of records exceeds
+ * <code>maxRecords</code>, so that the memory used follows the number of active sessions.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+final class SessionTouches {
+
+    private final ConcurrentMap<String, Long> lastTouches = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    // at most one sweep per second, even if all the records are recent
+    private volatile long lastSweep;
+
+    private final int maxRecords;
+
+    SessionTouches(final int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Check whether a session must be touched now, and record the touch if so.
+     * 
+     * @param sessionId
+     * @param now
+     * @param interval in milliseconds
+     * @return whether the session must be touched
+     */
+    boolean tryTouch(final String sessionId, final long now, final long interval) {
+        while (true) {
+            final Long lastTouch = this.lastTouches.get(sessionId);
+            if (lastTouch == null) {
+                if (this.lastTouches.putIfAbsent(sessionId, now) == null) {
+                    sweepIfNecessary(now, interval);
+                    return true;
+                }
+            } else if (now - lastTouch.longValue() < interval) {
+                return false;
+            } else if (this.lastTouches.replace(sessionId, lastTouch, now)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Record that a session has just been written.
+     * 
+     * @param sessionId
+     * @param now
+     */
+    void record(final String sessionId, final long now) {
+        this.lastTouches.put(sessionId, now);
+    }
+
+    /**
+     * Forget a session.
+     * 
+     * @param sessionId
+     */
+    void forget(final String sessionId) {
+        this.lastTouches.remove(sessionId);
+    }
+
+    int size() {
+        return this.lastTouches.size();
+    }
+
+    private void sweepIfNecessary(final long now, final long interval) {
+        if (this.lastTouches.size() > this.maxRecords && now - this.lastSweep >= 1000L && this.sweeping.compareAndSet(false, true)) {
+            try {
+                this.lastSweep = now;
+                final Iterator<Map.Entry<String, Long>> iterator = this.lastTouches.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next().getValue().longValue() >= interval) {
+                        iterator.remove();
+                    }
+                }
+            } finally {
+                this.sweeping.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.pac4j.play.codec.ProfileCodec;
+import org.pac4j.play.metrics.Counter;
+
+/**
+ * This class is a storage helper which spreads the sessions across several storage helpers (the shards) with consistent hashing : each
+ * shard owns <code>virtualNodes</code> points of a hash ring and a key belongs to the shard of the first point after its hash.
+ * <p />
+ * All the attributes of a session (<code>sessionId$key</code>) and the user profile (stored under the session id) are routed by the session
+ * id, so they are on the same shard. The global keys starting with one of the global key prefixes (the users' sessions, the CAS tickets and
+ * the provider profiles of this library by default) are routed by the whole key.
+ * <p />
+ * When a shard is added, it takes about <code>1 / shards</code> of the keys from the other shards ; when a shard is removed, only its keys
+ * move. The entries are not migrated : the moved sessions authenticate again. The reads, writes and removals of each shard are counted in
+ * the metrics registry as <code>pac4j.storage.shard.&lt;name&gt;.reads</code>, <code>.writes</code> and <code>.removals</code>.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class ShardedStorageHelper extends StorageHelper {
+
+    public static final String SHARD_METRIC_PREFIX = "pac4j.storage.shard.";
+
+    private final int virtualNodes;
+
+    private final List<String> globalKeyPrefixes = new CopyOnWriteArrayList<String>(Arrays.asList(StorageHelper.USER_SESSIONS_KEY_PREFIX,
+                                                                                                      PlayLogoutHandler.TICKET_KEY_PREFIX,
+                                                                                                      ProviderProfileCache.KEY_PREFIX));
+
+    // the ring is immutable and replaced as a whole when the shards change
+    private volatile Ring ring = new Ring(new LinkedHashMap<String, Shard>(), 0);
+
+    /**
+     * Create a storage helper with the shards <code>shard-0</code>, <code>shard-1</code>... and 160 virtual nodes per shard.
+     * 
+     * @param shards
+     */
+    public ShardedStorageHelper(final StorageHelper... shards) {
+        this(160);
+        for (int i = 0; i < shards.length; i++) {
+            addShard("shard-" + i, shards[i]);
+        }
+    }
+
+    /**
+     * Create a storage helper without shard.
+     * 
+     * @param virtualNodes the number of points of each shard on the ring
+     */
+    public ShardedStorageHelper(final int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Add a shard : its points on the ring only depend on its name.
+     * 
+     * @param name
+     * @param storageHelper
+     */
+    public synchronized void addShard(final String name, final StorageHelper storageHelper) {
+        if (name == null || storageHelper == null) {
+            throw new IllegalArgumentException("name and storageHelper cannot be null");
+        }
+        final Map<String, Shard> shards = new LinkedHashMap<String, Shard>(this.ring.shards);
+        if (shards.containsKey(name)) {
+            throw new IllegalArgumentException("Shard already defined : " + name);
+        }
+        if (getProfileCodec() != null) {
+            storageHelper.setProfileCodec(getProfileCodec());
+        }
+        shards.put(name, new Shard(name, storageHelper));
+        this.ring = new Ring(shards, this.virtualNodes);
+    }
+
+    /**
+     * Remove a shard : its sessions are lost.
+     * 
+     * @param name
+     * @return the removed shard or <code>null</code> if not found
+     */
+    public synchronized StorageHelper removeShard(final String name) {
+        final Map<String, Shard> shards = new LinkedHashMap<String, Shard>(this.ring.shards);
+        final Shard shard = shards.remove(name);
+        if (shard == null) {
+            return null;
+        }
+        this.ring = new Ring(shards, this.virtualNodes);
+        return shard.storageHelper;
+    }
+
+    public List<String> getShardNames() {
+        return new ArrayList<String>(this.ring.shards.keySet());
+    }
+
+    /**
+     * Get the shard of a session id or of a global key.
+     * 
+     * @param key
+     * @return the name of the shard
+     */
+    public String getShardName(final String key) {
+        return shardFor(routingKey(key)).name;
+    }
+
+    /**
+     * Get the share of the hash ring owned by each shard : the expected share of the sessions.
+     * 
+     * @return the share of each shard, between 0 and 1
+     */
+    public Map<String, Double> getOwnership() {
+        final Ring ring = this.ring;
+        final Map<String, Double> ownership = new LinkedHashMap<String, Double>();
+        for (final String name : ring.shards.keySet()) {
+            ownership.put(name, 0.0);
+        }
+        final int length = ring.points.length;
+        for (int i = 0; i < length; i++) {
+            // a point owns the arc from the previous point (excluded) to itself (included)
+            final long previous = i == 0 ? ring.points[length - 1] : ring.points[i - 1];
+            final double arc = (ring.points[i] - previous) / 18446744073709551616.0;
+            final String name = ring.owners[i].name;
+            ownership.put(name, ownership.get(name) + (length == 1 ? 1.0 : arc < 0 ? arc + 1.0 : arc));
+        }
+        return ownership;
+    }
+
+    /**
+     * Add a prefix of global keys which must be routed by the whole key.
+     * 
+     * @param prefix
+     */
+    public void addGlobalKeyPrefix(final String prefix) {
+        this.globalKeyPrefixes.add(prefix);
+    }
+
+    public List<String> getGlobalKeyPrefixes() {
+        return this.globalKeyPrefixes;
+    }
+
+    @Override
+    public void setProfileCodec(final ProfileCodec profileCodec) {
+        super.setProfileCodec(profileCodec);
+        for (final Shard shard : this.ring.shards.values()) {
+            shard.storageHelper.setProfileCodec(profileCodec);
+        }
+    }
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        if (sessionId == null) {
+            return null;
+        }
+        final Shard shard = shardFor(sessionId);
+        shard.reads().increment();
+        return shard.storageHelper.get(sessionId, key);
+    }
+
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        if (sessionId != null) {
+            final Shard shard = shardFor(sessionId);
+            shard.writes().increment();
+            shard.storageHelper.save(sessionId, key, value);
+        }
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        if (sessionId != null) {
+            final Shard shard = shardFor(sessionId);
+            shard.removals().increment();
+            shard.storageHelper.remove(sessionId, key);
+        }
+    }
+
+    @Override
+    public Object get(final String key) {
+        final Shard shard = shardFor(routingKey(key));
+        shard.reads().increment();
+        return shard.storageHelper.get(key);
+    }
+
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        final Shard shard = shardFor(routingKey(key));
+        shard.writes().increment();
+        shard.storageHelper.save(key, value, timeout);
+    }
+
+    @Override
+    public void remove(final String key) {
+        final Shard shard = shardFor(routingKey(key));
+        shard.removals().increment();
+        shard.storageHelper.remove(key);
+    }
+
+    @Override
+    protected boolean touch(final String key, final int timeout) {
+        final Shard shard = shardFor(routingKey(key));
+        shard.writes().increment();
+        return shard.storageHelper.touch(key, timeout);
+    }
+
+    @Override
+    public Map<String, Object> getAll(final String sessionId, final Collection<String> keys) {
+        if (sessionId == null) {
+            return new HashMap<String, Object>();
+        }
+        final Shard shard = shardFor(sessionId);
+        shard.reads().add(keys.size());
+        return shard.storageHelper.getAll(sessionId, keys);
+    }
+
+    @Override
+    public void saveAll(final String sessionId, final Map<String, Object> values) {
+        if (sessionId != null) {
+            final Shard shard = shardFor(sessionId);
+            shard.writes().add(values.size());
+            shard.storageHelper.saveAll(sessionId, values);
+        }
+    }
+
+    @Override
+    public void removeAll(final String sessionId, final Collection<String> keys) {
+        if (sessionId != null) {
+            final Shard shard = shardFor(sessionId);
+            shard.removals().add(keys.size());
+            shard.storageHelper.removeAll(sessionId, keys);
+        }
+    }
+
+    /**
+     * The keys are grouped by shard : one batch per shard.
+     */
+    @Override
+    public Map<String, Object> getAll(final Collection<String> keys) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (final Map.Entry<Shard, List<String>> entry : groupByShard(keys).entrySet()) {
+            final Shard shard = entry.getKey();
+            shard.reads().add(entry.getValue().size());
+            values.putAll(shard.storageHelper.getAll(entry.getValue()));
+        }
+        return values;
+    }
+
+    /**
+     * The values are grouped by shard : one batch per shard.
+     */
+    @Override
+    public void saveAll(final Map<String, Object> values, final int timeout) {
+        final Map<Shard, Map<String, Object>> valuesByShard = new HashMap<Shard, Map<String, Object>>();
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            final Shard shard = shardFor(routingKey(entry.getKey()));
+            Map<String, Object> shardValues = valuesByShard.get(shard);
+            if (shardValues == null) {
+                shardValues = new HashMap<String, Object>();
+                valuesByShard.put(shard, shardValues);
+            }
+            shardValues.put(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<Shard, Map<String, Object>> entry : valuesByShard.entrySet()) {
+            final Shard shard = entry.getKey();
+            shard.writes().add(entry.getValue().size());
+            shard.storageHelper.saveAll(entry.getValue(), timeout);
+        }
+    }
+
+    /**
+     * The keys are grouped by shard : one batch per shard.
+     */
+    @Override
+    public void removeAll(final Collection<String> keys) {
+        for (final Map.Entry<Shard, List<String>> entry : groupByShard(keys).entrySet()) {
+            final Shard shard = entry.getKey();
+            shard.removals().add(entry.getValue().size());
+            shard.storageHelper.removeAll(entry.getValue());
+        }
+    }
+
+    private Map<Shard, List<String>> groupByShard(final Collection<String> keys) {
+        final Map<Shard, List<String>> keysByShard = new HashMap<Shard, List<String>>();
+        for (final String key : keys) {
+            final Shard shard = shardFor(routingKey(key));
+            List<String> shardKeys = keysByShard.get(shard);
+            if (shardKeys == null) {
+                shardKeys = new ArrayList<String>();
+                keysByShard.put(shard, shardKeys);
+            }
+            shardKeys.add(key);
+        }
+        return keysByShard;
+    }
+
+    // the session id for a session attribute (sessionId$key) or a profile (sessionId), the whole key for a global key
+    String routingKey(final String key) {
+        final int separator = key.indexOf(Constants.SEPARATOR);
+        if (separator < 0) {
+            return key;
+        }
+        for (final String prefix : this.globalKeyPrefixes) {
+            if (key.startsWith(prefix)) {
+                return key;
+            }
+        }
+        return key.substring(0, separator);
+    }
+
+    private Shard shardFor(final String routingKey) {
+        final Ring ring = this.ring;
+        if (ring.owners.length == 0) {
+            throw new IllegalStateException("No shard defined");
+        }
+        final long hash = StorageValues.hash64(StorageValues.toUtf8(routingKey));
+        int index = Arrays.binarySearch(ring.points, hash);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == ring.points.length) {
+                index = 0;
+            }
+        }
+        return ring.owners[index];
+    }
+
+    /**
+     * A shard and the names of its counters : the counters are resolved at record time, the metrics registry can be changed in the
+     * {@link Config} after this storage helper is created.
+     */
+    private static final class Shard {
+
+        final String name;
+
+        final StorageHelper storageHelper;
+
+        private final String readsMetric;
+
+        private final String writesMetric;
+
+        private final String removalsMetric;
+
+        Shard(final String name, final StorageHelper storageHelper) {
+            this.name = name;
+            this.storageHelper = storageHelper;
+            this.readsMetric = SHARD_METRIC_PREFIX + name + ".reads";
+            this.writesMetric = SHARD_METRIC_PREFIX + name + ".writes";
+            this.removalsMetric = SHARD_METRIC_PREFIX + name + ".removals";
+        }
+
+        Counter reads() {
+            return Config.getMetricsRegistry().counter(this.readsMetric);
+        }
+
+        Counter writes() {
+            return Config.getMetricsRegistry().counter(this.writesMetric);
+        }
+
+        Counter removals() {
+            return Config.getMetricsRegistry().counter(this.removalsMetric);
+        }
+    }
+
+    /**
+     * The sorted points of the ring and their shards.
+     */
+    private static final class Ring {
+
+        final Map<String, Shard> shards;
+
+        final long[] points;
+
+        final Shard[] owners;
+
+        Ring(final Map<String, Shard> shards, final int virtualNodes) {
+            this.shards = shards;
+            final long[] hashes = new long[shards.size() * virtualNodes];
+            final Map<Long, Shard> ownersByPoint = new HashMap<Long, Shard>();
+            int count = 0;
+            for (final Shard shard : shards.values()) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    final long point = StorageValues.hash64(StorageValues.toUtf8(shard.name + "#" + i));
+                    // a collision between two points is very unlikely : the first shard keeps the point
+                    if (!ownersByPoint.containsKey(point)) {
+                        ownersByPoint.put(point, shard);
+                        hashes[count++] = point;
+                    }
+                }
+            }
+            this.points = Arrays.copyOf(hashes, count);
+            Arrays.sort(this.points);
+            this.owners = new Shard[count];
+            for (int i = 0; i < count; i++) {
+                this.owners[i] = ownersByPoint.get(this.points[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.pac4j.core.exception.TechnicalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class de-duplicates concurrent calls on this node : while a call is in flight for a key, the other calls for the same key wait for
+ * its result (or its failure) instead of running again.
+ * <p />
+ * The calls can also be run asynchronously with {@link #executeAsync(Object, long, Executor, Callable, Callback)} : the other calls for
+ * the same key are then notified of the result instead of holding a thread.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class SingleFlight<K, V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+    // the timeouts of the asynchronous waits, shared by all instances
+    private static final ScheduledExecutorService timeouts = Executors
+        .newSingleThreadScheduledExecutor(new NamedThreadFactory("pac4j-single-flight"));
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+
+    /**
+     * Run a call, or wait for the result of the call in flight for the same key.
+     * 
+     * @param key
+     * @param timeout the maximum time (in milliseconds) to wait for the call in flight
+     * @param callable
+     * @return the result of the call
+     * @throws TechnicalException if the call in flight is not finished in time, or wrapping the checked exception of the call
+     */
+    public V execute(final K key, final long timeout, final Callable<V> callable) {
+        final Flight<V> flight = new Flight<V>();
+        final Flight<V> inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            return inFlight.await(key, timeout);
+        }
+        run(key, flight, callable);
+        return flight.result();
+    }
+
+    /**
+     * Run a call on an executor, or join the call in flight for the same key, without blocking the calling thread.
+     * 
+     * @param key
+     * @param timeout the maximum time (in milliseconds) to wait for the call in flight
+     * @param executor
+     * @param callable
+     * @param callback notified once with the result or the failure of the call (a {@link TechnicalException} if the call in flight is
+     *            not finished in time)
+     * @return whether the call is run (<code>false</code> if the call in flight is joined)
+     * @throws RejectedExecutionException if the executor is saturated (the callback is not notified)
+     */
+    public boolean executeAsync(final K key, final long timeout, final Executor executor, final Callable<V> callable,
+                                final Callback<V> callback) {
+        final Flight<V> flight = new Flight<V>();
+        final Flight<V> inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            inFlight.join(key, timeout, callback);
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    SingleFlight.this.run(key, flight, callable);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // the calls which have already joined fail too
+            complete(key, flight, null, e);
+            throw e;
+        }
+        flight.listen(callback);
+        return true;
+    }
+
+    private void run(final K key, final Flight<V> flight, final Callable<V> callable) {
+        V value = null;
+        Throwable failure = null;
+        try {
+            value = callable.call();
+        } catch (final Throwable t) {
+            failure = t;
+        } finally {
+            complete(key, flight, value, failure);
+        }
+    }
+
+    private void complete(final K key, final Flight<V> flight, final V value, final Throwable failure) {
+        this.flights.remove(key, flight);
+        flight.complete(value, failure);
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int size() {
+        return this.flights.size();
+    }
+
+    /**
+     * The callback of an asynchronous call.
+     */
+    public interface Callback<V> {
+
+        /**
+         * @param value the result of the call
+         * @param failure the failure of the call, <code>null</code> if it has succeeded
+         */
+        void done(V value, Throwable failure);
+    }
+
+    private static final class Flight<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // guarded by the flight and published by the latch
+        private V value;
+
+        private Throwable failure;
+
+        // the callbacks of the asynchronous calls, null once the flight is complete
+        private List<Callback<V>> callbacks = new ArrayList<Callback<V>>();
+
+        private void complete(final V value, final Throwable failure) {
+            final List<Callback<V>> completed;
+            synchronized (this) {
+                this.value = value;
+                this.failure = failure;
+                completed = this.callbacks;
+                this.callbacks = null;
+            }
+            this.done.countDown();
+            for (final Callback<V> callback : completed) {
+                notifyCallback(callback, value, failure);
+            }
+        }
+
+        private void listen(final Callback<V> callback) {
+            synchronized (this) {
+                if (this.callbacks != null) {
+                    this.callbacks.add(callback);
+                    return;
+                }
+            }
+            notifyCallback(callback, this.value, this.failure);
+        }
+
+        private void join(final Object key, final long timeout, final Callback<V> callback) {
+            final AtomicBoolean notified = new AtomicBoolean();
+            final ScheduledFuture<?> timer = timeouts.schedule(new Runnable() {
+                public void run() {
+                    if (notified.compareAndSet(false, true)) {
+                        notifyCallback(callback, null, new TechnicalException("Timeout waiting for the call in flight for : " + key));
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            listen(new Callback<V>() {
+                public void done(final V value, final Throwable failure) {
+                    timer.cancel(false);
+                    if (notified.compareAndSet(false, true)) {
+                        callback.done(value, failure);
+                    }
+                }
+            });
+        }
+
+        private static <V> void notifyCallback(final Callback<V> callback, final V value, final Throwable failure) {
+            try {
+                callback.done(value, failure);
+            } catch (final RuntimeException e) {
+                logger.error("callback failure for the call in flight", e);
+            }
+        }
+
+        private V await(final Object key, final long timeout) {
+            try {
+                if (!this.done.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new TechnicalException("Timeout waiting for the call in flight for : " + key);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TechnicalException("Interrupted waiting for the call in flight for : " + key);
+            }
+            return result();
+        }
+
+        private V result() {
+            if (this.failure instanceof RuntimeException) {
+                throw (RuntimeException) this.failure;
+            } else if (this.failure instanceof Error) {
+                throw (Error) this.failure;
+            } else if (this.failure != null) {
+                throw new TechnicalException(this.failure);
+            }
+            return this.value;
+        }
+    }
+}
@@ -15,11 +15,27 @@
  */
 package org.pac4j.play;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.codec.ProfileCodec;
+import org.pac4j.play.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import play.libs.F.Function0;
+import play.libs.F.Promise;
 import play.mvc.Http;
 import play.mvc.Http.Session;
+import scala.concurrent.ExecutionContext;
+import akka.dispatch.ExecutionContexts;
 
 /**
  * This class is an helper to store/retrieve objects (from cache).
@@ -30,8 +46,45 @@ import play.mvc.Http.Session;
 public abstract class StorageHelper {
     
     private static final Logger logger = LoggerFactory.getLogger(StorageHelper.class);
+    
+    public static final String GET_PROFILE_METRIC = "pac4j.storage.getProfile";
+    
+    public static final String GET_PROFILE_FOUND_METRIC = "pac4j.storage.getProfile.found";
+    
+    public static final String GET_PROFILE_NOT_FOUND_METRIC = "pac4j.storage.getProfile.notFound";
+    
+    public static final String SAVE_PROFILE_METRIC = "pac4j.storage.saveProfile";
+    
+    public static final String TOUCH_PROFILE_METRIC = "pac4j.storage.touchProfile";
+    
+    public static final String REMOVE_PROFILE_METRIC = "pac4j.storage.removeProfile";
+    
+    public static final String NEGATIVE_CACHE_HIT_METRIC = "pac4j.storage.getProfile.negativeCacheHit";
+    
+    // the authentication marker of the sessions created when the negative cache is enabled, until a profile is saved
+    public static final String NOT_AUTHENTICATED = "0";
+    
+    public static final String USER_SESSIONS_KEY_PREFIX = "pac4jUser" + Constants.SEPARATOR;
 
     private static volatile StorageHelper instance;
+    
+    // the default storage execution context, shared by all the storage helpers
+    private static volatile ExecutionContext defaultExecutionContext;
+    
+    private ProfileCodec profileCodec;
+    
+    private SessionIdGenerator sessionIdGenerator = new SecureSessionIdGenerator();
+    
+    private volatile ExecutionContext executionContext;
+    
+    // last touches of the sessions on this node, for the sliding expiration of the profiles
+    private final SessionTouches sessionTouches = new SessionTouches(100000);
+    
+    // sessions recently found without profile on this node
+    private final SessionMisses sessionMisses = new SessionMisses(100000);
+    
+    // the updates of the index of the sessions of a user are serialized on this node, by user, whichever storage helper runs them
+    private static final Object[] USER_LOCKS = newLocks(64);
 
     public static StorageHelper getInstance() {
         if (instance == null) {
@@ -67,17 +120,20 @@ public abstract class StorageHelper {
             logger.debug("generated sessionId : {}", sessionId);
             // and save it to session
             session.put(Constants.SESSION_ID, sessionId);
+            if (Config.getNegativeCacheTimeout() > 0) {
+                session.put(Constants.AUTHENTICATION_MARKER, NOT_AUTHENTICATED);
+            }
         }
         return sessionId;
     }
     
     /**
-     * Generate a session identifier.
+     * Generate a session identifier with the session id generator.
      * 
      * @return a session identifier
      */
     public String generateSessionId() {
-        return java.util.UUID.randomUUID().toString();
+        return this.sessionIdGenerator.generate();
     }
     
     /**
@@ -88,11 +144,71 @@ public abstract class StorageHelper {
      */
     public CommonProfile getProfile(final Http.Request request, final Session session, final String sessionId) {
         if (sessionId != null) {
-            return (CommonProfile) get(sessionId);
+            if (isKnownMiss(session, sessionId)) {
+                return null;
+            }
+            final long start = System.nanoTime();
+            final Object value = get(sessionId);
+            boolean touched = false;
+            if (value != null && shouldTouch(sessionId)) {
+                logger.debug("touch profile for sessionId : {}", sessionId);
+                // touched and not saved again, not to resurrect a profile removed since it has been read
+                touched = touch(sessionId, Config.getProfileTimeout());
+            }
+            final CommonProfile profile = decodeProfile(value);
+            if (touched) {
+                touchUserSessions(profile);
+                trackProfileWrite(sessionId);
+            }
+            if (profile != null) {
+                trackProfileRead(sessionId);
+            }
+            final MetricsRegistry metricsRegistry = Config.getMetricsRegistry();
+            metricsRegistry.timer(GET_PROFILE_METRIC).record(System.nanoTime() - start);
+            metricsRegistry.counter(profile != null ? GET_PROFILE_FOUND_METRIC : GET_PROFILE_NOT_FOUND_METRIC).increment();
+            if (profile == null) {
+                recordMiss(session, sessionId);
+            }
+            return profile;
         }
         return null;
     }
-    
+
+    /**
+     * Get the profile from storage when no Java request is available (Scala controllers) : the value of the cookie named
+     * {@link #getProfileCookieName()} is given instead of the request. By default, the cookie is ignored.
+     *
+     * @param profileCookie
+     * @param session
+     * @param sessionId
+     * @return the user profile
+     */
+    public CommonProfile getProfileFromCookie(final String profileCookie, final Session session, final String sessionId) {
+        return getProfile((Http.Request) null, session, sessionId);
+    }
+
+    /**
+     * Get the profile from storage without blocking the calling thread when no Java request is available (Scala controllers), like
+     * {@link #getProfileFromCookie(String, Session, String)}.
+     *
+     * @param profileCookie
+     * @param session
+     * @param sessionId
+     * @return the promise of the user profile
+     */
+    public Promise<CommonProfile> getProfileFromCookieAsync(final String profileCookie, final Session session, final String sessionId) {
+        return getProfileAsync((Http.Request) null, session, sessionId);
+    }
+
+    /**
+     * Return the name of the cookie where the user profiles are kept, if any.
+     *
+     * @return the name of the profile cookie or <code>null</code> if the user profiles are not kept in cookies
+     */
+    public String getProfileCookieName() {
+        return null;
+    }
+
     /**
      * Save a user profile in storage.
      * 
@@ -101,7 +217,266 @@ public abstract class StorageHelper {
      */
     public void saveProfile(final Http.Request request, final Http.Response response, final Session session, final String sessionId, final CommonProfile profile) {
         if (sessionId != null) {
-            save(sessionId, profile, Config.getProfileTimeout());
+            final long start = System.nanoTime();
+            save(sessionId, encodeProfile(profile), Config.getProfileTimeout());
+            if (Config.getProfileTouchInterval() > 0) {
+                this.sessionTouches.record(sessionId, System.currentTimeMillis());
+            }
+            markAuthenticated(session, sessionId);
+            indexSession(sessionId, profile);
+            trackProfileWrite(sessionId);
+            Config.getMetricsRegistry().timer(SAVE_PROFILE_METRIC).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Check whether a session is known to have no profile (see {@link Config#setNegativeCacheTimeout(int)}) : a session created as not
+     * authenticated or a session recently found without profile on this node, with the same authentication marker. Sessions whose Play
+     * session is not available are never known misses.
+     * 
+     * @param session
+     * @param sessionId
+     * @return whether the storage lookup can be skipped
+     */
+    protected boolean isKnownMiss(final Session session, final String sessionId) {
+        if (session == null || Config.getNegativeCacheTimeout() <= 0) {
+            return false;
+        }
+        final String marker = session.get(Constants.AUTHENTICATION_MARKER);
+        if (NOT_AUTHENTICATED.equals(marker) || this.sessionMisses.isMiss(sessionId, marker, System.currentTimeMillis())) {
+            logger.debug("known miss for sessionId : {}", sessionId);
+            Config.getMetricsRegistry().counter(NEGATIVE_CACHE_HIT_METRIC).increment();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Record that a session has no profile in the negative cache (if enabled).
+     * 
+     * @param session
+     * @param sessionId
+     */
+    protected void recordMiss(final Session session, final String sessionId) {
+        final int timeout = Config.getNegativeCacheTimeout();
+        if (session != null && timeout > 0) {
+            this.sessionMisses.record(sessionId, session.get(Constants.AUTHENTICATION_MARKER), System.currentTimeMillis(),
+                                      timeout * 1000L);
+        }
+    }
+    
+    /**
+     * Mark a session as authenticated : its negative cache record on this node is forgotten and, if the negative cache is enabled, a new
+     * authentication marker is put in the Play session so that the records of the other nodes no longer apply.
+     * 
+     * @param session
+     * @param sessionId
+     */
+    public void markAuthenticated(final Session session, final String sessionId) {
+        this.sessionMisses.forget(sessionId);
+        if (session != null && Config.getNegativeCacheTimeout() > 0) {
+            session.put(Constants.AUTHENTICATION_MARKER, Long.toString(SecureSessionIdGenerator.nextLong() & Long.MAX_VALUE, 36));
+        }
+    }
+    
+    /**
+     * Extend the expiration of a user profile in storage (sliding expiration), at most once per
+     * {@link Config#getProfileTouchInterval()} for each session on this node.
+     * 
+     * @param sessionId
+     * @return whether the user profile has been touched
+     */
+    public boolean touchProfile(final String sessionId) {
+        if (sessionId != null && shouldTouch(sessionId)) {
+            logger.debug("touch profile for sessionId : {}", sessionId);
+            final long start = System.nanoTime();
+            final boolean touched = touch(sessionId, Config.getProfileTimeout());
+            Config.getMetricsRegistry().timer(TOUCH_PROFILE_METRIC).record(System.nanoTime() - start);
+            if (touched) {
+                trackProfileWrite(sessionId);
+            }
+            return touched;
+        }
+        return false;
+    }
+    
+    /**
+     * Return whether the expiration of the user profile should be extended now : concurrent requests of the same session are coalesced
+     * into one write per touch interval.
+     * 
+     * @param sessionId
+     * @return whether the user profile should be touched
+     */
+    protected boolean shouldTouch(final String sessionId) {
+        final int touchInterval = Config.getProfileTouchInterval();
+        return touchInterval > 0 && this.sessionTouches.tryTouch(sessionId, System.currentTimeMillis(), touchInterval * 1000L);
+    }
+    
+    /**
+     * Record that a user profile has been read, for its refresh-ahead (if {@link Config#getProfileRefreshStrategy()} is defined).
+     * 
+     * @param sessionId
+     */
+    protected void trackProfileRead(final String sessionId) {
+        if (Config.getProfileRefreshStrategy() != null && !isClientSideStorage()) {
+            ProfileRefresher.getInstance().read(sessionId, System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Record that a user profile has been saved or its expiration extended, for its refresh-ahead (if
+     * {@link Config#getProfileRefreshStrategy()} is defined).
+     * 
+     * @param sessionId
+     */
+    protected void trackProfileWrite(final String sessionId) {
+        if (Config.getProfileRefreshStrategy() != null && !isClientSideStorage()) {
+            ProfileRefresher.getInstance().saved(sessionId, System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Extend the expiration of an object in storage. By default, the object is read and saved again : storage helpers whose backend
+     * supports touching a key should override this method.
+     * 
+     * @param key
+     * @param timeout
+     * @return whether the object exists
+     */
+    protected boolean touch(final String key, final int timeout) {
+        final Object value = get(key);
+        if (value != null) {
+            save(key, value, timeout);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Get the profile from storage without blocking the calling thread. By default, {@link #getProfile(Http.Request, Session, String)}
+     * is called on the storage execution context : storage helpers with a non-blocking backend should override this method.
+     * 
+     * @param request
+     * @param session
+     * @param sessionId
+     * @return the promise of the user profile
+     */
+    public Promise<CommonProfile> getProfileAsync(final Http.Request request, final Session session, final String sessionId) {
+        if (sessionId == null || isKnownMiss(session, sessionId)) {
+            return Promise.pure(null);
+        }
+        return Promise.promise(new Function0<CommonProfile>() {
+            public CommonProfile apply() {
+                return getProfile(request, session, sessionId);
+            }
+        }, getExecutionContext());
+    }
+    
+    /**
+     * Save a user profile in storage without blocking the calling thread. By default,
+     * {@link #saveProfile(Http.Request, Http.Response, Session, String, CommonProfile)} is called on the storage execution context :
+     * storage helpers with a non-blocking backend should override this method.
+     * 
+     * @param request
+     * @param response
+     * @param session
+     * @param sessionId
+     * @param profile
+     * @return the promise of the end of the save
+     */
+    public Promise<Void> saveProfileAsync(final Http.Request request, final Http.Response response, final Session session,
+                                          final String sessionId, final CommonProfile profile) {
+        return Promise.promise(new Function0<Void>() {
+            public Void apply() {
+                saveProfile(request, response, session, sessionId, profile);
+                return null;
+            }
+        }, getExecutionContext());
+    }
+    
+    /**
+     * Remove a user profile from storage without blocking the calling thread. By default, {@link #removeProfile(String)} is called on
+     * the storage execution context : storage helpers with a non-blocking backend should override this method.
+     * 
+     * @param sessionId
+     * @return the promise of the end of the removal
+     */
+    public Promise<Void> removeProfileAsync(final String sessionId) {
+        return Promise.promise(new Function0<Void>() {
+            public Void apply() {
+                removeProfile(sessionId);
+                return null;
+            }
+        }, getExecutionContext());
+    }
+    
+    /**
+     * Get the execution context where the blocking storage operations are run for the asynchronous methods : by default, a fixed pool of
+     * {@link Config#getStorageThreads()} threads created once and shared by all the storage helpers (including the ones replaced by
+     * {@link #setInstance(StorageHelper)} and the delegates), shut down when the JVM stops.
+     * 
+     * @return the storage execution context
+     */
+    public ExecutionContext getExecutionContext() {
+        final ExecutionContext context = this.executionContext;
+        return context != null ? context : getDefaultExecutionContext();
+    }
+    
+    private static ExecutionContext getDefaultExecutionContext() {
+        if (defaultExecutionContext == null) {
+            synchronized (StorageHelper.class) {
+                if (defaultExecutionContext == null) {
+                    final ExecutorService threadPool = Executors.newFixedThreadPool(Config.getStorageThreads(),
+                                                                                    new NamedThreadFactory("pac4j-storage"));
+                    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                        public void run() {
+                            threadPool.shutdown();
+                        }
+                    }, "pac4j-storage-shutdown"));
+                    defaultExecutionContext = ExecutionContexts.fromExecutorService(threadPool);
+                }
+            }
+        }
+        return defaultExecutionContext;
+    }
+    
+    public void setExecutionContext(final ExecutionContext executionContext) {
+        this.executionContext = executionContext;
+    }
+    
+    /**
+     * Encode a user profile with the profile codec (if defined) before storing it.
+     * 
+     * @param profile
+     * @return the encoded profile or the profile itself if no profile codec is defined
+     */
+    protected Object encodeProfile(final CommonProfile profile) {
+        if (this.profileCodec != null && profile != null) {
+            return this.profileCodec.encode(profile);
+        }
+        return profile;
+    }
+    
+    /**
+     * Decode a user profile retrieved from storage, encoded or not : a value which cannot be decoded (corrupt or of an unknown format) is
+     * treated as a missing profile.
+     * 
+     * @param value
+     * @return the user profile
+     */
+    protected CommonProfile decodeProfile(final Object value) {
+        try {
+            if (value instanceof byte[]) {
+                if (this.profileCodec == null) {
+                    logger.warn("encoded profile found in storage but no profile codec defined");
+                    return null;
+                }
+                return this.profileCodec.decode((byte[]) value);
+            }
+            return (CommonProfile) value;
+        } catch (final RuntimeException e) {
+            logger.warn("cannot decode profile found in storage", e);
+            return null;
         }
     }
     
@@ -112,8 +487,217 @@ public abstract class StorageHelper {
      */
     public void removeProfile(final String sessionId) {
         if (sessionId != null) {
+            final long start = System.nanoTime();
             remove(sessionId);
+            forgetSession(sessionId);
+            Config.getMetricsRegistry().timer(REMOVE_PROFILE_METRIC).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Remove several user profiles from storage in one batch, forgetting their sessions like {@link #removeProfile(String)}.
+     * 
+     * @param sessionIds
+     */
+    public void removeProfiles(final Collection<String> sessionIds) {
+        if (!sessionIds.isEmpty()) {
+            final long start = System.nanoTime();
+            removeAll(sessionIds);
+            for (final String sessionId : sessionIds) {
+                forgetSession(sessionId);
+            }
+            Config.getMetricsRegistry().timer(REMOVE_PROFILE_METRIC).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Forget the touches, misses and refreshes of a removed session on this node.
+     * 
+     * @param sessionId
+     */
+    protected void forgetSession(final String sessionId) {
+        this.sessionTouches.forget(sessionId);
+        this.sessionMisses.forget(sessionId);
+        if (Config.getProfileRefreshStrategy() != null) {
+            ProfileRefresher.getInstance().forget(sessionId);
+        }
+    }
+    
+    /**
+     * Add a session to the index of the sessions of its user (if {@link Config#getMaxSessionsPerUser()} is positive). The expired
+     * sessions are pruned from the index and, beyond {@link Config#getMaxSessionsPerUser()} sessions, the oldest sessions of the user
+     * are removed, so that all the live sessions of a user are always indexed.
+     * <p />
+     * The index records the expiration date of each profile when it's indexed : only the sessions past this date are looked up in storage
+     * before being pruned, as their expiration may have been extended since (sliding expiration).
+     * <p />
+     * The index is read and written under a lock of the user on this node : the storage has no atomic update, so concurrent logins of
+     * the same user on different nodes may still lose an index entry.
+     * 
+     * @param sessionId
+     * @param profile
+     */
+    protected void indexSession(final String sessionId, final CommonProfile profile) {
+        final int maxSessions = Config.getMaxSessionsPerUser();
+        if (maxSessions <= 0 || profile == null) {
+            return;
+        }
+        final String typedId = profile.getTypedId();
+        final String key = getUserSessionsKey(typedId);
+        synchronized (userLock(typedId)) {
+            final long now = System.currentTimeMillis();
+            final UserSessions userSessions = UserSessions.from(get(key));
+            final List<String> liveSessionIds = new ArrayList<String>();
+            final List<Long> expirationDates = new ArrayList<Long>();
+            if (userSessions != null) {
+                final List<String> expiredSessionIds = new ArrayList<String>();
+                for (int i = 0; i < userSessions.size(); i++) {
+                    if (userSessions.getExpirationDate(i) <= now) {
+                        expiredSessionIds.add(userSessions.getSessionId(i));
+                    }
+                }
+                final Map<String, Object> profiles;
+                if (expiredSessionIds.isEmpty()) {
+                    profiles = Collections.emptyMap();
+                } else {
+                    profiles = getAll(expiredSessionIds);
+                }
+                for (int i = 0; i < userSessions.size(); i++) {
+                    final String id = userSessions.getSessionId(i);
+                    final long expirationDate = userSessions.getExpirationDate(i);
+                    if (!id.equals(sessionId) && (expirationDate > now || profiles.containsKey(id))) {
+                        liveSessionIds.add(id);
+                        expirationDates.add(expirationDate);
+                    }
+                }
+            }
+            liveSessionIds.add(sessionId);
+            final int timeout = Config.getProfileTimeout();
+            expirationDates.add(timeout > 0 ? now + timeout * 1000L : Long.MAX_VALUE);
+            final int excess = liveSessionIds.size() - maxSessions;
+            if (excess > 0) {
+                final List<String> oldestSessionIds = new ArrayList<String>(liveSessionIds.subList(0, excess));
+                logger.debug("too many sessions for {}, remove the oldest : {}", typedId, oldestSessionIds);
+                removeProfiles(oldestSessionIds);
+                liveSessionIds.subList(0, excess).clear();
+                expirationDates.subList(0, excess).clear();
+            }
+            save(key, new UserSessions(liveSessionIds, expirationDates), timeout);
+        }
+    }
+    
+    /**
+     * Extend the expiration of the index of the sessions of a user, along with the expiration of its sessions.
+     * 
+     * @param profile
+     */
+    protected void touchUserSessions(final CommonProfile profile) {
+        if (Config.getMaxSessionsPerUser() > 0 && profile != null) {
+            touch(getUserSessionsKey(profile.getTypedId()), Config.getProfileTimeout());
+        }
+    }
+    
+    /**
+     * Get the live sessions of a user (if {@link Config#getMaxSessionsPerUser()} is positive).
+     * 
+     * @param typedId the typed identifier of the user profile
+     * @return the session identifiers
+     */
+    public List<String> getSessionIds(final String typedId) {
+        final UserSessions userSessions = UserSessions.from(get(getUserSessionsKey(typedId)));
+        if (userSessions == null) {
+            return Collections.emptyList();
+        }
+        return userSessions.getSessionIds();
+    }
+    
+    /**
+     * Remove all the user profiles of a user ("log out everywhere") in one batch, using the index of its sessions (if
+     * {@link Config#getMaxSessionsPerUser()} is positive). The profiles stored on the client side (in cookies) cannot be removed.
+     * 
+     * @param typedId the typed identifier of the user profile
+     * @return the number of sessions removed
+     */
+    public int removeAllProfiles(final String typedId) {
+        return removeUserSessions(typedId).size();
+    }
+    
+    /**
+     * Remove all the user profiles of a user and the index of its sessions, under the lock of the user.
+     * 
+     * @param typedId the typed identifier of the user profile
+     * @return the identifiers of the removed sessions
+     */
+    protected List<String> removeUserSessions(final String typedId) {
+        final String key = getUserSessionsKey(typedId);
+        synchronized (userLock(typedId)) {
+            final List<String> sessionIds = getSessionIds(typedId);
+            logger.debug("remove all profiles of {} : {}", typedId, sessionIds);
+            final List<String> keys = new ArrayList<String>(sessionIds.size() + 1);
+            keys.addAll(sessionIds);
+            keys.add(key);
+            removeAll(keys);
+            for (final String sessionId : sessionIds) {
+                forgetSession(sessionId);
+            }
+            return sessionIds;
+        }
+    }
+    
+    private String getUserSessionsKey(final String typedId) {
+        return USER_SESSIONS_KEY_PREFIX.concat(typedId);
+    }
+    
+    private Object userLock(final String typedId) {
+        return USER_LOCKS[(typedId.hashCode() & Integer.MAX_VALUE) % USER_LOCKS.length];
+    }
+    
+    private static Object[] newLocks(final int size) {
+        final Object[] locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
         }
+        return locks;
+    }
+    
+    /**
+     * Return whether the user profiles are stored on the client side (in the response) : in that case, each response must save the user
+     * profile.
+     * 
+     * @return whether the user profiles are stored on the client side
+     */
+    public boolean isClientSideStorage() {
+        return false;
+    }
+    
+    public ProfileCodec getProfileCodec() {
+        return this.profileCodec;
+    }
+    
+    /**
+     * Define the codec used to encode the user profiles before storing them : useful when the storage serializes its values (remote
+     * cache, disk overflow...). By default, no codec is defined and the user profiles are stored as is.
+     * 
+     * @param profileCodec
+     */
+    public void setProfileCodec(final ProfileCodec profileCodec) {
+        this.profileCodec = profileCodec;
+    }
+    
+    public SessionIdGenerator getSessionIdGenerator() {
+        return this.sessionIdGenerator;
+    }
+    
+    /**
+     * Define the generator of the session identifiers. By default, a {@link SecureSessionIdGenerator} of 128 bits.
+     * 
+     * @param sessionIdGenerator
+     */
+    public void setSessionIdGenerator(final SessionIdGenerator sessionIdGenerator) {
+        if (sessionIdGenerator == null) {
+            throw new IllegalArgumentException("sessionIdGenerator cannot be null");
+        }
+        this.sessionIdGenerator = sessionIdGenerator;
     }
     
     /**
@@ -124,7 +708,7 @@ public abstract class StorageHelper {
      * @return the requested url
      */
     public String getRequestedUrl(final String sessionId, final String clientName) {
-        return (String) get(sessionId, clientName + Constants.SEPARATOR + Constants.REQUESTED_URL);
+        return (String) get(sessionId, getRequestedUrlKey(clientName));
     }
     
     /**
@@ -135,7 +719,17 @@ public abstract class StorageHelper {
      * @param requestedUrl
      */
     public void saveRequestedUrl(final String sessionId, final String clientName, final String requestedUrl) {
-        save(sessionId, clientName + Constants.SEPARATOR + Constants.REQUESTED_URL, requestedUrl);
+        save(sessionId, getRequestedUrlKey(clientName), requestedUrl);
+    }
+    
+    /**
+     * Get the key (in the session) of the requested url for a client.
+     * 
+     * @param clientName
+     * @return the key of the requested url
+     */
+    public String getRequestedUrlKey(final String clientName) {
+        return clientName + Constants.SEPARATOR + Constants.REQUESTED_URL;
     }
     
     /**
@@ -188,4 +782,97 @@ public abstract class StorageHelper {
      */
     public abstract void remove(final String key);
 
+    /**
+     * Get several objects of a session from storage. By default, objects are retrieved one by one : storage helpers whose backend
+     * supports multi-key reads should override this method.
+     * 
+     * @param sessionId
+     * @param keys
+     * @return the objects found (by key)
+     */
+    public Map<String, Object> getAll(final String sessionId, final Collection<String> keys) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        if (sessionId != null) {
+            for (final String key : keys) {
+                final Object value = get(sessionId, key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Save several objects of a session in storage. By default, objects are saved one by one : storage helpers whose backend supports
+     * multi-key writes should override this method.
+     * 
+     * @param sessionId
+     * @param values
+     */
+    public void saveAll(final String sessionId, final Map<String, Object> values) {
+        if (sessionId != null) {
+            for (final Map.Entry<String, Object> entry : values.entrySet()) {
+                save(sessionId, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove several objects of a session from storage. By default, objects are removed one by one : storage helpers whose backend
+     * supports multi-key removals should override this method.
+     * 
+     * @param sessionId
+     * @param keys
+     */
+    public void removeAll(final String sessionId, final Collection<String> keys) {
+        if (sessionId != null) {
+            for (final String key : keys) {
+                remove(sessionId, key);
+            }
+        }
+    }
+
+    /**
+     * Get several objects from storage. By default, objects are retrieved one by one : storage helpers whose backend supports multi-key
+     * reads should override this method.
+     * 
+     * @param keys
+     * @return the objects found (by key)
+     */
+    public Map<String, Object> getAll(final Collection<String> keys) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (final String key : keys) {
+            final Object value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Save several objects in storage. By default, objects are saved one by one : storage helpers whose backend supports multi-key
+     * writes should override this method.
+     * 
+     * @param values
+     * @param timeout
+     */
+    public void saveAll(final Map<String, Object> values, final int timeout) {
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            save(entry.getKey(), entry.getValue(), timeout);
+        }
+    }
+
+    /**
+     * Remove several objects from storage. By default, objects are removed one by one : storage helpers whose backend supports
+     * multi-key removals should override this method.
+     * 
+     * @param keys
+     */
+    public void removeAll(final Collection<String> keys) {
+        for (final String key : keys) {
+            remove(key);
+        }
+    }
 }
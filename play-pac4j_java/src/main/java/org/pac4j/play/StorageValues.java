@@ -0,0 +1,160 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.pac4j.core.exception.TechnicalException;
+
+/**
+ * This class encodes/decodes the stored values for the storage helpers which keep bytes : a type tag followed by the raw bytes (encoded
+ * profiles), the UTF-8 bytes (strings) or the Java serialization (other values).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+final class StorageValues {
+
+    private static final byte BYTES = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte SERIALIZED = 2;
+
+    private StorageValues() {
+    }
+
+    static byte[] encode(final Object value) {
+        if (value instanceof byte[]) {
+            return tag(BYTES, (byte[]) value);
+        } else if (value instanceof String) {
+            return tag(STRING, toUtf8((String) value));
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(SERIALIZED);
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    private static byte[] tag(final byte tag, final byte[] bytes) {
+        final byte[] data = new byte[bytes.length + 1];
+        data[0] = tag;
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+        return data;
+    }
+
+    static Object decode(final byte[] data) {
+        switch (data[0]) {
+            case BYTES:
+                return Arrays.copyOfRange(data, 1, data.length);
+            case STRING:
+                try {
+                    return new String(data, 1, data.length - 1, "UTF-8");
+                } catch (final UnsupportedEncodingException e) {
+                    throw new TechnicalException(e);
+                }
+            case SERIALIZED:
+                try {
+                    final ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+                    try {
+                        return in.readObject();
+                    } finally {
+                        in.close();
+                    }
+                } catch (final IOException e) {
+                    throw new TechnicalException(e);
+                } catch (final ClassNotFoundException e) {
+                    throw new TechnicalException(e);
+                }
+            default:
+                throw new TechnicalException("Unknown value type : " + data[0]);
+        }
+    }
+
+    /**
+     * Compute a 64-bit hash of a key (FNV-1a followed by the murmur3 finalizer) : all the bits are well mixed, so that the high ones and
+     * the low ones can be used independently.
+     *
+     * @param bytes
+     * @return the hash
+     */
+    static long hash64(final byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < bytes.length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static byte[] toUtf8(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    static String fromUtf8(final byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Resolve the classes with the context class loader (the application class loader in Play).
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+
+        ContextObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (final ClassNotFoundException e) {
+                    // fall back on the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the stored index of the sessions of a user : the session identifiers, from the oldest to the newest, with the expiration
+ * date of their profile when they were indexed.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+final class UserSessions implements Serializable {
+
+    private static final long serialVersionUID = 4376021739201848615L;
+
+    private final String[] sessionIds;
+
+    private final long[] expirationDates;
+
+    UserSessions(final List<String> sessionIds, final List<Long> expirationDates) {
+        final int size = sessionIds.size();
+        this.sessionIds = sessionIds.toArray(new String[size]);
+        this.expirationDates = new long[size];
+        for (int i = 0; i < size; i++) {
+            this.expirationDates[i] = expirationDates.get(i);
+        }
+    }
+
+    /**
+     * Read a stored index : the indexes stored as an array of session identifiers have unknown expiration dates.
+     *
+     * @param value
+     * @return the index or <code>null</code> if none is stored
+     */
+    static UserSessions from(final Object value) {
+        if (value instanceof String[]) {
+            final List<String> sessionIds = Arrays.asList((String[]) value);
+            return new UserSessions(sessionIds, Collections.nCopies(sessionIds.size(), 0L));
+        }
+        return (UserSessions) value;
+    }
+
+    int size() {
+        return this.sessionIds.length;
+    }
+
+    String getSessionId(final int index) {
+        return this.sessionIds[index];
+    }
+
+    long getExpirationDate(final int index) {
+        return this.expirationDates[index];
+    }
+
+    List<String> getSessionIds() {
+        return Arrays.asList(this.sessionIds);
+    }
+}
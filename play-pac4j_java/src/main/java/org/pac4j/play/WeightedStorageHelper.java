@@ -0,0 +1,426 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.codec.BinaryProfileCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.libs.F.Promise;
+import play.mvc.Http;
+import play.mvc.Http.Session;
+
+/**
+ * This class is an in-process storage helper bounded by a maximum total weight : the weight of an entry is the size of its encoded value
+ * (user profiles are encoded with the profile codec, by default : the {@link BinaryProfileCodec}) plus its key and a fixed overhead, so
+ * that a large profile counts as much as many small ones.
+ * <p />
+ * The eviction follows the W-TinyLFU policy : a new entry goes into a small LRU window (1% of the weight) ; when it leaves the window, it
+ * competes with the least recently used entries of the main area and only replaces them if it has been accessed more often, according to a
+ * count-min sketch of the recent accesses whose counters are periodically halved. The session attributes used once (bots, abandoned
+ * logins) are evicted before the active ones.
+ * <p />
+ * This storage helper is the source of truth of the sessions, not a cache in front of another storage : the objects saved by key (the user
+ * profiles and the indexes of the sessions of the users) are always admitted, evicting the least recently used entries of the main area,
+ * so that a login is never silently lost (an object heavier than the main area fails with an exception). Only the session attributes go
+ * through the frequency admission and may be rejected. An evicted user profile is lost, which logs out its user : the maximum weight must
+ * be sized for all the live sessions, the evictions being a last resort against memory exhaustion.
+ * <p />
+ * The evictions and rejections are counted in the metrics registry : <code>pac4j.storage.weighted.evicted</code> and
+ * <code>pac4j.storage.weighted.rejected</code>. As the data stays in the current JVM, this storage helper is meant for single node
+ * deployments or behind a sticky load balancer.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class WeightedStorageHelper extends StorageHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(WeightedStorageHelper.class);
+
+    public static final String EVICTED_METRIC = "pac4j.storage.weighted.evicted";
+
+    public static final String REJECTED_METRIC = "pac4j.storage.weighted.rejected";
+
+    // estimated heap size of an entry besides its value : node, map entry, key object
+    static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxWeight;
+
+    private final long maxWindowWeight;
+
+    private final long maxMainWeight;
+
+    private final Map<String, Node> window = new LinkedHashMap<String, Node>(16, 0.75f, true);
+
+    private final Map<String, Node> main = new LinkedHashMap<String, Node>(16, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    private long windowWeight;
+
+    private long mainWeight;
+
+    private long evictionCount;
+
+    private long evictedWeight;
+
+    private long rejectionCount;
+
+    private long expirationCount;
+
+    /**
+     * Create a storage helper of 64 MB.
+     */
+    public WeightedStorageHelper() {
+        this(64L * 1024 * 1024);
+    }
+
+    /**
+     * Create a storage helper.
+     *
+     * @param maxWeight the maximum total weight, in bytes
+     */
+    public WeightedStorageHelper(final long maxWeight) {
+        if (maxWeight < 1024) {
+            throw new IllegalArgumentException("maxWeight must be at least 1 KB");
+        }
+        this.maxWeight = maxWeight;
+        this.maxWindowWeight = Math.max(maxWeight / 100, 1);
+        this.maxMainWeight = maxWeight - this.maxWindowWeight;
+        // about one counter per 1 KB entry
+        this.sketch = new FrequencySketch((int) Math.min(maxWeight / 1024, 1 << 22));
+        setProfileCodec(new BinaryProfileCodec());
+    }
+
+    /**
+     * The profile is read in memory : no need to go through the storage execution context.
+     */
+    @Override
+    public Promise<CommonProfile> getProfileAsync(final Http.Request request, final Session session, final String sessionId) {
+        return Promise.pure(sessionId != null ? getProfile(request, session, sessionId) : null);
+    }
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        if (sessionId != null) {
+            return get(sessionId + Constants.SEPARATOR + key);
+        }
+        return null;
+    }
+
+    /**
+     * The session attribute goes through the frequency admission.
+     */
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        if (sessionId != null) {
+            put(sessionId + Constants.SEPARATOR + key, value, Config.getSessionTimeout(), false);
+        }
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        if (sessionId != null) {
+            remove(sessionId + Constants.SEPARATOR + key);
+        }
+    }
+
+    @Override
+    public Object get(final String key) {
+        final byte[] data;
+        synchronized (this) {
+            final Node node = getNode(key);
+            if (node == null) {
+                return null;
+            }
+            data = node.data;
+        }
+        return StorageValues.decode(data);
+    }
+
+    /**
+     * Save an object in storage : it's always admitted in the main area.
+     *
+     * @param key
+     * @param value
+     * @param timeout the time to live in seconds, 0 for no expiration
+     */
+    @Override
+    public void save(final String key, final Object value, final int timeout) {
+        put(key, value, timeout, true);
+    }
+
+    private void put(final String key, final Object value, final int timeout, final boolean alwaysAdmitted) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        final Node node = new Node(key, StorageValues.encode(value), expiration(timeout), alwaysAdmitted);
+        if (node.weight > this.maxMainWeight) {
+            remove(key);
+            if (alwaysAdmitted) {
+                throw new TechnicalException("Entry heavier than the maximum weight : " + key);
+            }
+            logger.warn("entry heavier than the maximum weight : {}", key);
+            return;
+        }
+        synchronized (this) {
+            this.sketch.increment(key);
+            removeNode(key);
+            this.window.put(key, node);
+            this.windowWeight += node.weight;
+            // the least recently used entries of the window compete for the main area
+            while (this.windowWeight > this.maxWindowWeight) {
+                final Node candidate = this.window.values().iterator().next();
+                this.window.remove(candidate.key);
+                this.windowWeight -= candidate.weight;
+                admit(candidate);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        removeNode(key);
+    }
+
+    /**
+     * The expiration is updated in place.
+     */
+    @Override
+    protected synchronized boolean touch(final String key, final int timeout) {
+        final Node node = getNode(key);
+        if (node != null) {
+            node.expiration = expiration(timeout);
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized long getWeight() {
+        return this.windowWeight + this.mainWeight;
+    }
+
+    public long getMaxWeight() {
+        return this.maxWeight;
+    }
+
+    public synchronized int getSize() {
+        return this.window.size() + this.main.size();
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    public synchronized long getEvictedWeight() {
+        return this.evictedWeight;
+    }
+
+    /**
+     * Get the number of new session attributes which were not admitted in the main area, being used less often than the entries they
+     * would have replaced.
+     *
+     * @return the number of rejected entries
+     */
+    public synchronized long getRejectionCount() {
+        return this.rejectionCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return this.expirationCount;
+    }
+
+    @Override
+    public String toString() {
+        return "WeightedStorageHelper[size=" + getSize() + ", weight=" + getWeight() + ", maxWeight=" + this.maxWeight + ", evictions="
+               + getEvictionCount() + ", evictedWeight=" + getEvictedWeight() + ", rejections=" + getRejectionCount() + ", expirations="
+               + getExpirationCount() + "]";
+    }
+
+    private static long expiration(final int timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+    }
+
+    // an access counts for the frequency and the recency, an expired entry is dropped
+    private Node getNode(final String key) {
+        Node node = this.window.get(key);
+        if (node == null) {
+            node = this.main.get(key);
+        }
+        if (node == null) {
+            return null;
+        }
+        if (node.expiration <= System.currentTimeMillis()) {
+            removeNode(key);
+            this.expirationCount++;
+            return null;
+        }
+        this.sketch.increment(key);
+        return node;
+    }
+
+    private void removeNode(final String key) {
+        Node node = this.window.remove(key);
+        if (node != null) {
+            this.windowWeight -= node.weight;
+        } else {
+            node = this.main.remove(key);
+            if (node != null) {
+                this.mainWeight -= node.weight;
+            }
+        }
+    }
+
+    /**
+     * Admit a candidate leaving the window into the main area : the least recently used entries of the main area it would replace are all
+     * chosen and, unless the candidate is always admitted, compared with it before any of them is evicted, so that a rejected candidate
+     * evicts nothing.
+     */
+    private void admit(final Node candidate) {
+        final int candidateFrequency = candidate.alwaysAdmitted ? Integer.MAX_VALUE : this.sketch.frequency(candidate.key);
+        final Iterator<Node> victims = this.main.values().iterator();
+        long freedWeight = 0;
+        int victimCount = 0;
+        while (this.mainWeight - freedWeight + candidate.weight > this.maxMainWeight) {
+            final Node victim = victims.next();
+            if (candidateFrequency <= this.sketch.frequency(victim.key)) {
+                logger.debug("entry rejected : {}", candidate.key);
+                this.rejectionCount++;
+                Config.getMetricsRegistry().counter(REJECTED_METRIC).increment();
+                return;
+            }
+            freedWeight += victim.weight;
+            victimCount++;
+        }
+        final Iterator<Node> evictedVictims = this.main.values().iterator();
+        for (int i = 0; i < victimCount; i++) {
+            final Node victim = evictedVictims.next();
+            evictedVictims.remove();
+            this.mainWeight -= victim.weight;
+            this.evictionCount++;
+            this.evictedWeight += victim.weight;
+            Config.getMetricsRegistry().counter(EVICTED_METRIC).increment();
+        }
+        this.main.put(candidate.key, candidate);
+        this.mainWeight += candidate.weight;
+    }
+
+    /**
+     * A stored entry.
+     */
+    private static final class Node {
+
+        final String key;
+
+        final byte[] data;
+
+        final int weight;
+
+        final boolean alwaysAdmitted;
+
+        long expiration;
+
+        Node(final String key, final byte[] data, final long expiration, final boolean alwaysAdmitted) {
+            this.key = key;
+            this.data = data;
+            this.weight = data.length + 2 * key.length() + ENTRY_OVERHEAD;
+            this.expiration = expiration;
+            this.alwaysAdmitted = alwaysAdmitted;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4 rows of 4-bit counters : the counters are halved once the number of increments reaches 10 times the width,
+     * so that the frequencies reflect the recent accesses.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        private final long[] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int size;
+
+        FrequencySketch(final int expectedEntries) {
+            int width = 64;
+            while (width < expectedEntries) {
+                width <<= 1;
+            }
+            // 16 counters per long
+            this.table = new long[width / 4];
+            this.mask = this.table.length - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        int frequency(final String key) {
+            final int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                final int index = index(hash, row);
+                final int shift = ((hash >>> (row << 3)) & 3) << 2 | row << 4;
+                frequency = Math.min(frequency, (int) ((this.table[index] >>> shift) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(final String key) {
+            final int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                final int index = index(hash, row);
+                final int shift = ((hash >>> (row << 3)) & 3) << 2 | row << 4;
+                if (((this.table[index] >>> shift) & 0xfL) < 15) {
+                    this.table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++this.size == this.sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < this.table.length; i++) {
+                this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+            }
+            this.size /= 2;
+        }
+
+        private int index(final int hash, final int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & this.mask;
+        }
+
+        private static int spread(final int hashCode) {
+            final int h = hashCode * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,605 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.profile.UserProfile;
+
+/**
+ * This codec encodes user profiles in a compact binary format :
+ * <ul>
+ * <li>a version byte</li>
+ * <li>the profile class name, identifier, remembered flag, roles and permissions</li>
+ * <li>the attributes : name and tagged value (strings, numbers, booleans, dates, locales, enums, lists and maps are natively supported, other
+ * values are Java-serialized).</li>
+ * </ul>
+ * Attribute names, class names, roles and permissions are written through a string dictionary : the well-known names of the pac4j
+ * profiles are written as a one-byte reference, the other names are written inline the first time and as a reference afterwards.
+ * <p />
+ * The {@link #DICTIONARY} is part of the format : new names can only be appended to it, along with a new {@link #VERSION} whose dictionary
+ * size is added to {@link #DICTIONARY_SIZES}, so that the profiles encoded with the previous versions are still decoded with the names
+ * they were encoded with.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class BinaryProfileCodec implements ProfileCodec {
+
+    public static final byte VERSION = 1;
+
+    static final List<String> DICTIONARY = Arrays.asList(
+        // profiles
+        "org.pac4j.core.profile.CommonProfile", "org.pac4j.cas.profile.CasProfile", "org.pac4j.cas.profile.CasProxyProfile",
+        "org.pac4j.http.profile.HttpProfile", "org.pac4j.openid.profile.myopenid.MyOpenIdProfile",
+        "org.pac4j.openid.profile.google.GoogleOpenIdProfile", "org.pac4j.oauth.profile.facebook.FacebookProfile",
+        "org.pac4j.oauth.profile.twitter.TwitterProfile", "org.pac4j.oauth.profile.google2.Google2Profile",
+        "org.pac4j.oauth.profile.github.GitHubProfile", "org.pac4j.oauth.profile.linkedin.LinkedInProfile",
+        "org.pac4j.oauth.profile.linkedin2.LinkedIn2Profile", "org.pac4j.oauth.profile.windowslive.WindowsLiveProfile",
+        "org.pac4j.oauth.profile.wordpress.WordPressProfile", "org.pac4j.oauth.profile.yahoo.YahooProfile",
+        "org.pac4j.oauth.profile.dropbox.DropBoxProfile", "org.pac4j.oauth.profile.paypal.PayPalProfile",
+        "org.pac4j.oauth.profile.casoauthwrapper.CasOAuthWrapperProfile", "org.pac4j.core.profile.Gender",
+        // common attributes
+        "email", "first_name", "family_name", "display_name", "username", "gender", "locale", "picture_url", "profile_url",
+        "location", "name", "access_token", "access_secret", "id", "url", "link", "description", "verified", "language", "lang",
+        "timezone", "time_zone", "created_at", "updated_at", "update_time", "birthday", "given_name", "middle_name", "last_name",
+        "picture", "screen_name", "login", "company", "blog", "type", "avatar_url", "followers", "following", "bio", "website",
+        "third_party_id", "hometown", "work", "education", "profile_image_url", "utc_offset", "statuses_count",
+        // CAS / LDAP attributes
+        "uid", "cn", "sn", "mail", "givenName", "displayName", "memberOf", "eduPersonAffiliation", "eduPersonPrincipalName",
+        "employeeNumber", "telephoneNumber", "title", "ou", "o");
+
+    // the number of names of the dictionary for each version (index 0 unused)
+    static final int[] DICTIONARY_SIZES = { 0, 80 };
+
+    private static final Map<String, Integer> DICTIONARY_INDEXES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            DICTIONARY_INDEXES.put(DICTIONARY.get(i), i);
+        }
+    }
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_TRUE = 4;
+    private static final byte TAG_FALSE = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_DATE = 7;
+    private static final byte TAG_LOCALE = 8;
+    private static final byte TAG_ENUM = 9;
+    private static final byte TAG_LIST = 10;
+    private static final byte TAG_MAP = 11;
+    private static final byte TAG_SERIALIZED = 12;
+
+    private static final Field ATTRIBUTES_FIELD = findAttributesField();
+
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+    public byte[] encode(final CommonProfile profile) {
+        final Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        writer.writeName(profile.getClass().getName());
+        writer.writeString(profile.getId());
+        writer.writeByte(profile.isRemembered() ? 1 : 0);
+        writeNames(writer, profile.getRoles());
+        writeNames(writer, profile.getPermissions());
+        final Map<String, Object> attributes = profile.getAttributes();
+        writer.writeVarInt(attributes.size());
+        for (final Map.Entry<String, Object> entry : attributes.entrySet()) {
+            writer.writeName(entry.getKey());
+            writeValue(writer, entry.getValue());
+        }
+        return writer.toByteArray();
+    }
+
+    public CommonProfile decode(final byte[] bytes) {
+        final Reader reader = new Reader(bytes);
+        final byte version = reader.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new TechnicalException("Unsupported profile format version : " + version);
+        }
+        reader.dictionarySize = DICTIONARY_SIZES[version];
+        final CommonProfile profile = newProfile(reader.readName());
+        profile.setId(reader.readString());
+        profile.setRemembered(reader.readByte() != 0);
+        int size = reader.readVarInt();
+        for (int i = 0; i < size; i++) {
+            profile.addRole(reader.readName());
+        }
+        size = reader.readVarInt();
+        for (int i = 0; i < size; i++) {
+            profile.addPermission(reader.readName());
+        }
+        size = reader.readVarInt();
+        final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            final String name = reader.readName();
+            attributes.put(name, readValue(reader));
+        }
+        restoreAttributes(profile, attributes);
+        return profile;
+    }
+
+    /**
+     * Put the decoded attributes back as they were encoded : {@link UserProfile#addAttribute(String, Object)} would run them again
+     * through the converters of the profile, which only accept the raw provider values (a <code>Locale</code> or a <code>Gender</code>
+     * would become <code>null</code>).
+     *
+     * @param profile
+     * @param attributes
+     */
+    @SuppressWarnings("unchecked")
+    private static void restoreAttributes(final CommonProfile profile, final Map<String, Object> attributes) {
+        if (ATTRIBUTES_FIELD != null) {
+            try {
+                ((Map<String, Object>) ATTRIBUTES_FIELD.get(profile)).putAll(attributes);
+                return;
+            } catch (final IllegalAccessException e) {
+                throw new TechnicalException(e);
+            }
+        }
+        for (final Map.Entry<String, Object> entry : attributes.entrySet()) {
+            profile.addAttribute(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static Field findAttributesField() {
+        try {
+            final Field field = UserProfile.class.getDeclaredField("attributes");
+            if (!Map.class.isAssignableFrom(field.getType())) {
+                return null;
+            }
+            field.setAccessible(true);
+            return field;
+        } catch (final NoSuchFieldException e) {
+            return null;
+        } catch (final SecurityException e) {
+            return null;
+        }
+    }
+
+    private void writeNames(final Writer writer, final List<String> names) {
+        if (names == null) {
+            writer.writeVarInt(0);
+            return;
+        }
+        writer.writeVarInt(names.size());
+        for (final String name : names) {
+            writer.writeName(name);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void writeValue(final Writer writer, final Object value) {
+        if (value == null) {
+            writer.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            writer.writeByte(TAG_STRING);
+            writer.writeString((String) value);
+        } else if (value instanceof Integer) {
+            writer.writeByte(TAG_INTEGER);
+            writer.writeVarLong((Integer) value);
+        } else if (value instanceof Long) {
+            writer.writeByte(TAG_LONG);
+            writer.writeVarLong((Long) value);
+        } else if (value instanceof Boolean) {
+            writer.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value.getClass() == Date.class) {
+            writer.writeByte(TAG_DATE);
+            writer.writeVarLong(((Date) value).getTime());
+        } else if (value instanceof Locale) {
+            writer.writeByte(TAG_LOCALE);
+            writer.writeString(value.toString());
+        } else if (value instanceof Enum) {
+            writer.writeByte(TAG_ENUM);
+            writer.writeName(((Enum) value).getDeclaringClass().getName());
+            writer.writeString(((Enum) value).name());
+        } else if (value instanceof List) {
+            final List list = (List) value;
+            writer.writeByte(TAG_LIST);
+            writer.writeVarInt(list.size());
+            for (final Object element : list) {
+                writeValue(writer, element);
+            }
+        } else if (value instanceof Map && isStringKeyed((Map) value)) {
+            final Map map = (Map) value;
+            writer.writeByte(TAG_MAP);
+            writer.writeVarInt(map.size());
+            for (final Object object : map.entrySet()) {
+                final Map.Entry entry = (Map.Entry) object;
+                writer.writeName((String) entry.getKey());
+                writeValue(writer, entry.getValue());
+            }
+        } else if (value instanceof Serializable) {
+            writer.writeByte(TAG_SERIALIZED);
+            final byte[] bytes = serialize(value);
+            writer.writeVarInt(bytes.length);
+            writer.writeBytes(bytes);
+        } else {
+            throw new TechnicalException("Cannot encode attribute value of type : " + value.getClass());
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private boolean isStringKeyed(final Map map) {
+        for (final Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings({
+        "rawtypes", "unchecked"
+    })
+    private Object readValue(final Reader reader) {
+        final byte tag = reader.readByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_STRING:
+            return reader.readString();
+        case TAG_INTEGER:
+            return Integer.valueOf((int) reader.readVarLong());
+        case TAG_LONG:
+            return Long.valueOf(reader.readVarLong());
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(reader.readLong()));
+        case TAG_DATE:
+            return new Date(reader.readVarLong());
+        case TAG_LOCALE:
+            return toLocale(reader.readString());
+        case TAG_ENUM:
+            final Class enumClass = loadClass(reader.readName());
+            return Enum.valueOf(enumClass, reader.readString());
+        case TAG_LIST:
+            final int size = reader.readVarInt();
+            final List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(reader));
+            }
+            return list;
+        case TAG_MAP:
+            final int entries = reader.readVarInt();
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < entries; i++) {
+                final String key = reader.readName();
+                map.put(key, readValue(reader));
+            }
+            return map;
+        case TAG_SERIALIZED:
+            return deserialize(reader.readBytes(reader.readVarInt()));
+        default:
+            throw new TechnicalException("Unknown attribute value tag : " + tag);
+        }
+    }
+
+    private static Locale toLocale(final String value) {
+        final String[] parts = value.split("_", 3);
+        if (parts.length == 1) {
+            return new Locale(parts[0]);
+        } else if (parts.length == 2) {
+            return new Locale(parts[0], parts[1]);
+        }
+        return new Locale(parts[0], parts[1], parts[2]);
+    }
+
+    private CommonProfile newProfile(final String className) {
+        final Class<?> profileClass = loadClass(className);
+        if (!CommonProfile.class.isAssignableFrom(profileClass)) {
+            throw new TechnicalException("Not a profile class : " + className);
+        }
+        try {
+            return (CommonProfile) profileClass.newInstance();
+        } catch (final InstantiationException e) {
+            throw new TechnicalException(e);
+        } catch (final IllegalAccessException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    private Class<?> loadClass(final String className) {
+        Class<?> clazz = this.classes.get(className);
+        if (clazz == null) {
+            try {
+                final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                clazz = Class.forName(className, true, classLoader != null ? classLoader : getClass().getClassLoader());
+            } catch (final ClassNotFoundException e) {
+                throw new TechnicalException(e);
+            }
+            this.classes.put(className, clazz);
+        }
+        return clazz;
+    }
+
+    private static byte[] serialize(final Object value) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    private static Object deserialize(final byte[] bytes) {
+        try {
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        } catch (final ClassNotFoundException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    /**
+     * Growable byte buffer with the primitive writes of the format. Names are written as a reference : 0 for <code>null</code>, 1 for
+     * an inline string (added to the local dictionary), index + 2 for a string of the global then local dictionary.
+     */
+    private static final class Writer {
+
+        private byte[] buffer = new byte[256];
+
+        private int position;
+
+        private Map<String, Integer> localNames;
+
+        void writeByte(final int value) {
+            ensureCapacity(1);
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        void writeBytes(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+            this.position += bytes.length;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        // zigzag encoding, so that small negative numbers stay small
+        void writeVarLong(final long signed) {
+            long value = (signed << 1) ^ (signed >> 63);
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        void writeLong(final long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.buffer[this.position++] = (byte) (value >>> shift);
+            }
+        }
+
+        // length + 1 (0 for null) then UTF-8 bytes
+        void writeString(final String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            final int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = value.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                writeVarInt(length + 1);
+                ensureCapacity(length);
+                for (int i = 0; i < length; i++) {
+                    this.buffer[this.position++] = (byte) value.charAt(i);
+                }
+            } else {
+                final byte[] bytes = toUtf8(value);
+                writeVarInt(bytes.length + 1);
+                writeBytes(bytes);
+            }
+        }
+
+        void writeName(final String name) {
+            if (name == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = DICTIONARY_INDEXES.get(name);
+            if (index == null && this.localNames != null) {
+                index = this.localNames.get(name);
+            }
+            if (index != null) {
+                writeVarInt(index + 2);
+            } else {
+                if (this.localNames == null) {
+                    this.localNames = new HashMap<String, Integer>();
+                }
+                this.localNames.put(name, DICTIONARY.size() + this.localNames.size());
+                writeVarInt(1);
+                writeString(name);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.position);
+        }
+
+        private void ensureCapacity(final int length) {
+            if (this.position + length > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + length));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        private List<String> localNames;
+
+        private int dictionarySize = DICTIONARY.size();
+
+        Reader(final byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            checkAvailable(1);
+            return this.buffer[this.position++];
+        }
+
+        byte[] readBytes(final int length) {
+            checkAvailable(length);
+            final byte[] bytes = Arrays.copyOfRange(this.buffer, this.position, this.position + length);
+            this.position += length;
+            return bytes;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final byte b = readByte();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new TechnicalException("Malformed variable-length integer");
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new TechnicalException("Malformed variable-length long");
+        }
+
+        long readLong() {
+            checkAvailable(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (this.buffer[this.position++] & 0xff);
+            }
+            return value;
+        }
+
+        String readString() {
+            final int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            checkAvailable(length);
+            final String value = fromUtf8(this.buffer, this.position, length);
+            this.position += length;
+            return value;
+        }
+
+        String readName() {
+            final int reference = readVarInt();
+            if (reference == 0) {
+                return null;
+            } else if (reference == 1) {
+                final String name = readString();
+                if (this.localNames == null) {
+                    this.localNames = new ArrayList<String>();
+                }
+                this.localNames.add(name);
+                return name;
+            }
+            final int index = reference - 2;
+            if (index < this.dictionarySize) {
+                return DICTIONARY.get(index);
+            }
+            final int localIndex = index - this.dictionarySize;
+            if (this.localNames == null || localIndex >= this.localNames.size()) {
+                throw new TechnicalException("Unknown name reference : " + reference);
+            }
+            return this.localNames.get(localIndex);
+        }
+
+        private void checkAvailable(final int length) {
+            if (length < 0 || this.position + length > this.buffer.length) {
+                throw new TechnicalException("Truncated profile data");
+            }
+        }
+    }
+
+    private static byte[] toUtf8(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    private static String fromUtf8(final byte[] bytes, final int offset, final int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new TechnicalException(e);
+        }
+    }
+}
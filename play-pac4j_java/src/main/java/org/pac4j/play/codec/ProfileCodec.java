@@ -0,0 +1,45 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.codec;
+
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This interface defines how a user profile is encoded to bytes before being stored and decoded after being retrieved.
+ * <p />
+ * Implementations must be thread-safe.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public interface ProfileCodec {
+
+    /**
+     * Encode a user profile.
+     *
+     * @param profile
+     * @return the encoded profile
+     */
+    byte[] encode(CommonProfile profile);
+
+    /**
+     * Decode a user profile.
+     *
+     * @param bytes
+     * @return the decoded profile
+     */
+    CommonProfile decode(byte[] bytes);
+}
@@ -0,0 +1,61 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This codec encodes user profiles with the Java serialization.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class SerializationProfileCodec implements ProfileCodec {
+
+    public byte[] encode(final CommonProfile profile) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(profile);
+            out.close();
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        }
+    }
+
+    public CommonProfile decode(final byte[] bytes) {
+        try {
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (CommonProfile) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new TechnicalException(e);
+        } catch (final ClassNotFoundException e) {
+            throw new TechnicalException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.java;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.pac4j.core.client.Client;
+import org.pac4j.core.client.Clients;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.profile.UserProfile;
+import org.pac4j.play.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is the immutable authentication plan of a protected action : the settings of its {@link RequiresAuthentication} annotation
+ * and the client, resolved on the first redirection to the provider.
+ * <p />
+ * Plans are cached by annotation instance (<code>Method.getAnnotation</code> returns the same instance for every request of a route) in a
+ * bounded direct-mapped table, so that the attributes of the annotation proxy are only read on a miss, and shared by annotation settings :
+ * a plan is recomputed when the clients are changed in the {@link Config}.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+final class AuthenticationPlan {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthenticationPlan.class);
+
+    // power of two
+    private static final int CACHE_SIZE = 256;
+
+    // cache by annotation instance, indexed by identity hash code : a collision only costs a lookup by settings
+    private static final AtomicReferenceArray<CachedPlan> cache = new AtomicReferenceArray<CachedPlan>(CACHE_SIZE);
+
+    // cache by annotation settings, shared by the annotation instances with the same settings
+    private static final ConcurrentMap<Settings, AuthenticationPlan> plans = new ConcurrentHashMap<Settings, AuthenticationPlan>();
+
+    private final Settings settings;
+
+    private final Clients clients;
+
+    // resolved on the first redirection to the provider : the authenticated requests do not need it
+    private volatile Client<Credentials, UserProfile> client;
+
+    private AuthenticationPlan(final Settings settings, final Clients clients) {
+        this.settings = settings;
+        this.clients = clients;
+    }
+
+    /**
+     * Get the authentication plan of an annotation.
+     * 
+     * @param annotation
+     * @return the authentication plan
+     */
+    static AuthenticationPlan get(final RequiresAuthentication annotation) {
+        final Clients clients = Config.getClients();
+        final int index = System.identityHashCode(annotation) & (CACHE_SIZE - 1);
+        final CachedPlan cachedPlan = cache.get(index);
+        if (cachedPlan != null && cachedPlan.annotation == annotation && cachedPlan.plan.clients == clients) {
+            return cachedPlan.plan;
+        }
+        final Settings settings = new Settings(annotation.clientName(), annotation.targetUrl(), annotation.isAjax());
+        AuthenticationPlan plan = plans.get(settings);
+        if (plan == null || plan.clients != clients) {
+            plan = new AuthenticationPlan(settings, clients);
+            logger.debug("new authentication plan : {}", plan);
+            plans.put(settings, plan);
+        }
+        cache.set(index, new CachedPlan(annotation, plan));
+        return plan;
+    }
+
+    String getClientName() {
+        return this.settings.clientName;
+    }
+
+    String getTargetUrl() {
+        return this.settings.targetUrl;
+    }
+
+    boolean isAjax() {
+        return this.settings.isAjax;
+    }
+
+    @SuppressWarnings("unchecked")
+    Client<Credentials, UserProfile> getClient() {
+        Client<Credentials, UserProfile> client = this.client;
+        if (client == null) {
+            client = this.clients.findClient(this.settings.clientName);
+            this.client = client;
+        }
+        return client;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthenticationPlan[clientName=" + this.settings.clientName + ", targetUrl=" + this.settings.targetUrl + ", isAjax="
+               + this.settings.isAjax + "]";
+    }
+
+    /**
+     * The plan of an annotation instance.
+     */
+    private static final class CachedPlan {
+
+        private final RequiresAuthentication annotation;
+
+        private final AuthenticationPlan plan;
+
+        private CachedPlan(final RequiresAuthentication annotation, final AuthenticationPlan plan) {
+            this.annotation = annotation;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * The settings of a {@link RequiresAuthentication} annotation.
+     */
+    private static final class Settings {
+
+        private final String clientName;
+
+        private final String targetUrl;
+
+        private final boolean isAjax;
+
+        private Settings(final String clientName, final String targetUrl, final boolean isAjax) {
+            this.clientName = clientName;
+            this.targetUrl = targetUrl;
+            this.isAjax = isAjax;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.clientName.hashCode() + this.targetUrl.hashCode()) + (this.isAjax ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Settings)) {
+                return false;
+            }
+            final Settings other = (Settings) obj;
+            return this.isAjax == other.isAjax && this.clientName.equals(other.clientName) && this.targetUrl.equals(other.targetUrl);
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.pac4j.play.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import play.libs.F.Promise;
+
 /**
  * This controller is the Java controller to retrieve the user profile or the redirection url to start the authentication process.
  * 
@@ -36,7 +38,8 @@ public class JavaController extends CallbackController {
     
     /**
      * This method returns the url of the provider where the user must be redirected for authentication.<br />
-     * The current requested url is saved into session to be restored after authentication.
+     * The current requested url is saved into session (or into a signed cookie if the sessions are lazy) to be restored after
+     * authentication.
      * 
      * @param clientName
      * @return the url of the provider where to redirect the user
@@ -56,11 +59,17 @@ public class JavaController extends CallbackController {
      */
     protected static String getRedirectionUrl(final String clientName, final String targetUrl) {
         // get or create session id
-        String sessionId = StorageHelper.getInstance().getOrCreationSessionId(session());
+        StorageHelper.getInstance().getOrCreationSessionId(session());
+        // web context : the requested url and the session attributes set by the client are saved in one batch
+        JavaWebContext webContext = new JavaWebContext(request(), response(), session(), true);
         // requested url to save
         final String requestedUrlToSave = CallbackController.defaultUrl(targetUrl, request().uri());
         logger.debug("requestedUrlToSave : {}", requestedUrlToSave);
-        StorageHelper.getInstance().saveRequestedUrl(sessionId, clientName, requestedUrlToSave);
+        if (Config.isLazySessions()) {
+            RequestedUrlCookie.save(response(), clientName, requestedUrlToSave);
+        } else {
+            webContext.setSessionAttribute(StorageHelper.getInstance().getRequestedUrlKey(clientName), requestedUrlToSave);
+        }
         // clients
         Clients clients = Config.getClients();
         // no clients -> misconfiguration ?
@@ -68,12 +77,13 @@ public class JavaController extends CallbackController {
             throw new TechnicalException("No client defined. Use Config.setClients(clients)");
         }
         // redirect to the provider for authentication
-        JavaWebContext webContext = new JavaWebContext(request(), response(), session());
         String redirectionUrl = null;
         try {
             redirectionUrl = clients.findClient(clientName).getRedirectionUrl(webContext, false, false);
         } catch (RequiresHttpAction e) {
             // should not happen
+        } finally {
+            webContext.flushSessionAttributes();
         }
         logger.debug("redirectionUrl : {}", redirectionUrl);
         return redirectionUrl;
@@ -96,4 +106,20 @@ public class JavaController extends CallbackController {
         }
         return null;
     }
+    
+    /**
+     * This method returns the promise of the user profile if the user is authenticated or of <code>null</code> otherwise, without
+     * blocking the current thread on storage.
+     * 
+     * @return the promise of the user profile
+     */
+    protected static Promise<CommonProfile> getUserProfileAsync() {
+        // get the session id
+        final String sessionId = session(Constants.SESSION_ID);
+        logger.debug("sessionId for profile : {}", sessionId);
+        if (StringUtils.isNotBlank(sessionId)) {
+            return StorageHelper.getInstance().getProfileAsync(request(), session(), sessionId);
+        }
+        return Promise.pure(null);
+    }
 }
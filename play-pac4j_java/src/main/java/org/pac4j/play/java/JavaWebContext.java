@@ -15,15 +15,15 @@
  */
 package org.pac4j.play.java;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.pac4j.core.context.BaseResponseContext;
 import org.pac4j.core.util.CommonHelper;
-import org.pac4j.play.CacheStorageHelper;
 import org.pac4j.play.Constants;
+import org.pac4j.play.SessionAttributes;
 
-import org.pac4j.play.StorageHelper;
 import play.mvc.Http.Request;
 import play.mvc.Http.Response;
 import play.mvc.Http.Session;
@@ -42,10 +42,34 @@ public class JavaWebContext extends BaseResponseContext {
     
     private final Session session;
     
+    private final SessionAttributes sessionAttributes;
+    
+    // merged request parameters, built on first use
+    private Map<String, String[]> requestParameters;
+    
+    // server name and port, parsed on first use
+    private String serverName;
+    
+    private int serverPort;
+    
     public JavaWebContext(final Request request, final Response response, final Session session) {
+        this(request, response, session, false);
+    }
+    
+    /**
+     * Build a web context whose session attributes writes are buffered (if requested) until the {@link #flushSessionAttributes()} call.
+     * 
+     * @param request
+     * @param response
+     * @param session
+     * @param bufferedSessionAttributes
+     */
+    public JavaWebContext(final Request request, final Response response, final Session session,
+                          final boolean bufferedSessionAttributes) {
         this.request = request;
         this.response = response;
         this.session = session;
+        this.sessionAttributes = new SessionAttributes(bufferedSessionAttributes);
     }
     
     public String getRequestHeader(final String name) {
@@ -56,32 +80,63 @@ public class JavaWebContext extends BaseResponseContext {
         return this.request.method();
     }
     
+    /**
+     * Get a request parameter : the url parameters override the form parameters. The parameter is looked up directly, without merging
+     * all the parameters.
+     * 
+     * @param name
+     * @return the value of the parameter
+     */
     public String getRequestParameter(final String name) {
-        final Map<String, String[]> parameters = getRequestParameters();
-        final String[] values = parameters.get(name);
+        String[] values = null;
+        if (this.requestParameters != null) {
+            values = this.requestParameters.get(name);
+        } else {
+            final Map<String, String[]> urlParameters = this.request.queryString();
+            if (urlParameters != null) {
+                values = urlParameters.get(name);
+            }
+            if (values == null) {
+                final Map<String, String[]> formParameters = this.request.body().asFormUrlEncoded();
+                if (formParameters != null) {
+                    values = formParameters.get(name);
+                }
+            }
+        }
         if (values != null && values.length > 0) {
             return values[0];
         }
         return null;
     }
     
+    /**
+     * Get all the request parameters : the url parameters override the form parameters. The merged parameters are computed once per
+     * web context.
+     * 
+     * @return the request parameters
+     */
     public Map<String, String[]> getRequestParameters() {
-        final Map<String, String[]> formParameters = this.request.body().asFormUrlEncoded();
-        final Map<String, String[]> urlParameters = this.request.queryString();
-        final Map<String, String[]> parameters = new HashMap<String, String[]>();
-        if (formParameters != null) {
-            parameters.putAll(formParameters);
-        }
-        if (urlParameters != null) {
-            parameters.putAll(urlParameters);
+        if (this.requestParameters == null) {
+            final Map<String, String[]> formParameters = this.request.body().asFormUrlEncoded();
+            final Map<String, String[]> urlParameters = this.request.queryString();
+            if (formParameters == null || formParameters.isEmpty()) {
+                this.requestParameters = urlParameters != null ? Collections.unmodifiableMap(urlParameters)
+                                                               : Collections.<String, String[]> emptyMap();
+            } else {
+                final Map<String, String[]> parameters = new HashMap<String, String[]>(formParameters);
+                if (urlParameters != null) {
+                    parameters.putAll(urlParameters);
+                }
+                this.requestParameters = Collections.unmodifiableMap(parameters);
+            }
         }
-        return parameters;
+        return this.requestParameters;
     }
     
     public Object getSessionAttribute(final String key) {
         String sessionId = this.session.get(Constants.SESSION_ID);
         if (CommonHelper.isNotBlank(sessionId)) {
-            return StorageHelper.getInstance().get(sessionId, key);
+            return this.sessionAttributes.get(sessionId, key);
         }
         return null;
     }
@@ -89,12 +144,35 @@ public class JavaWebContext extends BaseResponseContext {
     public void setSessionAttribute(final String key, final Object value) {
         String sessionId = this.session.get(Constants.SESSION_ID);
         if (CommonHelper.isNotBlank(sessionId)) {
-            StorageHelper.getInstance().save(sessionId, key, value);
+            this.sessionAttributes.set(sessionId, key, value);
+        }
+    }
+    
+    /**
+     * Read several session attributes from storage in one batch.
+     * 
+     * @param keys
+     */
+    public void preloadSessionAttributes(final String... keys) {
+        String sessionId = this.session.get(Constants.SESSION_ID);
+        if (CommonHelper.isNotBlank(sessionId)) {
+            this.sessionAttributes.preload(sessionId, keys);
+        }
+    }
+    
+    /**
+     * Save the buffered session attributes in one batch.
+     */
+    public void flushSessionAttributes() {
+        String sessionId = this.session.get(Constants.SESSION_ID);
+        if (CommonHelper.isNotBlank(sessionId)) {
+            this.sessionAttributes.flush(sessionId);
         }
     }
     
     @Override
     public void setResponseHeader(final String name, final String value) {
+        super.setResponseHeader(name, value);
         this.response.setHeader(name, value);
     }
 
@@ -103,14 +181,27 @@ public class JavaWebContext extends BaseResponseContext {
     }
 
     public String getServerName() {
-        String[] split = request.host().split(":");
-        return split[0];
+        parseHost();
+        return this.serverName;
     }
 
     public int getServerPort() {
-        String[] split = request.host().split(":");
-        String portStr = (split.length > 1) ? split[1] : "80";
-        return Integer.valueOf(portStr);
+        parseHost();
+        return this.serverPort;
+    }
+
+    private void parseHost() {
+        if (this.serverName == null) {
+            final String host = this.request.host();
+            final int colon = host.indexOf(':');
+            if (colon < 0) {
+                this.serverPort = 80;
+                this.serverName = host;
+            } else {
+                this.serverPort = Integer.parseInt(host.substring(colon + 1));
+                this.serverName = host.substring(0, colon);
+            }
+        }
     }
 
     public String getScheme() {
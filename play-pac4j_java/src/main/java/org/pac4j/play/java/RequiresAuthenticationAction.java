@@ -15,10 +15,7 @@
  */
 package org.pac4j.play.java;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.pac4j.core.client.Client;
 import org.pac4j.core.context.HttpConstants;
@@ -31,7 +28,8 @@ import org.pac4j.play.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import play.libs.Akka;
+import play.libs.F.Function;
+import play.libs.F.Function0;
 import play.libs.F.Promise;
 import play.mvc.Action;
 import play.mvc.Http.Context;
@@ -44,81 +42,95 @@ import play.mvc.SimpleResult;
  * @author Jerome Leleu
  * @since 1.0.0
  */
-public final class RequiresAuthenticationAction extends Action<Result> {
+public final class RequiresAuthenticationAction extends Action<RequiresAuthentication> {
     
     private static final Logger logger = LoggerFactory.getLogger(RequiresAuthenticationAction.class);
     
-    private static final Method clientNameMethod;
+    public static final String HIT_METRIC = "pac4j.requiresAuthentication.hit";
     
-    private static final Method targetUrlMethod;
-    
-    private static final Method isAjaxMethod;
-    
-    static {
-        try {
-            clientNameMethod = RequiresAuthentication.class.getDeclaredMethod(Constants.CLIENT_NAME);
-            targetUrlMethod = RequiresAuthentication.class.getDeclaredMethod(Constants.TARGET_URL);
-            isAjaxMethod = RequiresAuthentication.class.getDeclaredMethod(Constants.IS_AJAX);
-        } catch (final SecurityException e) {
-            throw new RuntimeException(e);
-        } catch (final NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
-    }
+    public static final String MISS_METRIC = "pac4j.requiresAuthentication.miss";
     
     @Override
-    @SuppressWarnings("unchecked")
     public Promise<SimpleResult> call(final Context context) throws Throwable {
-        final InvocationHandler invocationHandler = Proxy.getInvocationHandler(this.configuration);
-        final String clientName = (String) invocationHandler.invoke(this.configuration, clientNameMethod, null);
-        logger.debug("clientName : {}", clientName);
-        final String targetUrl = (String) invocationHandler.invoke(this.configuration, targetUrlMethod, null);
-        logger.debug("targetUrl : {}", targetUrl);
-        final Boolean isAjax = (Boolean) invocationHandler.invoke(this.configuration, isAjaxMethod, null);
-        logger.debug("isAjax : {}", isAjax);
-        // get or create session id
-        final String sessionId = StorageHelper.getInstance().getOrCreationSessionId(context.session());
-        logger.debug("sessionId : {}", sessionId);
-        final CommonProfile profile = StorageHelper.getInstance().getProfile(context.request(), context.session(), sessionId);
-        logger.debug("profile : {}", profile);
-        // has a profile -> access resource
-        if (profile != null) {
-            return this.delegate.call(context);
+        // the annotation and the client are resolved once per route
+        final AuthenticationPlan plan = AuthenticationPlan.get(this.configuration);
+        logger.debug("plan : {}", plan);
+        // no session yet -> no profile to look for in storage
+        if (context.session().get(Constants.SESSION_ID) == null) {
+            logger.debug("no session");
+            Config.getMetricsRegistry().counter(MISS_METRIC).increment();
+            return redirectToProvider(context, plan);
         }
-        
+        final String sessionId = context.session().get(Constants.SESSION_ID);
+        logger.debug("sessionId : {}", sessionId);
+        // the profile is retrieved without blocking the current thread
+        return StorageHelper.getInstance().getProfileAsync(context.request(), context.session(), sessionId)
+            .flatMap(new Function<CommonProfile, Promise<SimpleResult>>() {
+                public Promise<SimpleResult> apply(final CommonProfile profile) throws Throwable {
+                    logger.debug("profile : {}", profile);
+                    // has a profile -> access resource
+                    if (profile != null) {
+                        Config.getMetricsRegistry().counter(HIT_METRIC).increment();
+                        return RequiresAuthenticationAction.this.delegate.call(context);
+                    }
+                    Config.getMetricsRegistry().counter(MISS_METRIC).increment();
+                    return redirectToProvider(context, plan);
+                }
+            });
+    }
+    
+    /**
+     * Save the requested url and redirect the user to the provider for authentication.
+     * 
+     * @param context
+     * @param plan
+     * @return the redirection to the provider
+     */
+    private Promise<SimpleResult> redirectToProvider(final Context context, final AuthenticationPlan plan) {
+        // get or create session id (the session attributes set by the client need one)
+        StorageHelper.getInstance().getOrCreationSessionId(context.session());
+        // web context : the requested url and the session attributes set by the client are saved in one batch
+        final JavaWebContext webContext = new JavaWebContext(context.request(), context.response(), context.session(), true);
         // requested url to save
-        final String requestedUrlToSave = CallbackController.defaultUrl(targetUrl, context.request().uri());
+        final String requestedUrlToSave = CallbackController.defaultUrl(plan.getTargetUrl(), context.request().uri());
         logger.debug("requestedUrlToSave : {}", requestedUrlToSave);
-        StorageHelper.getInstance().saveRequestedUrl(sessionId, clientName, requestedUrlToSave);
-        // get client
-        final Client<Credentials, UserProfile> client = Config.getClients().findClient(clientName);
-        logger.debug("client : {}", client);
-        @SuppressWarnings("deprecation")
-        Promise<SimpleResult> promiseOfResult = Akka.future(new Callable<SimpleResult>() {
-            public SimpleResult call() {
-                try {
-                    // and compute redirection url
-                    JavaWebContext webContext = new JavaWebContext(context.request(), context.response(), context
-                        .session());
-                    final String redirectionUrl = client.getRedirectionUrl(webContext, true, isAjax);
-                    logger.debug("redirectionUrl : {}", redirectionUrl);
-                    return redirect(redirectionUrl);
-                } catch (final RequiresHttpAction e) {
-                    // requires some specific HTTP action
-                    final int code = e.getCode();
-                    logger.debug("requires HTTP action : {}", code);
-                    if (code == HttpConstants.UNAUTHORIZED) {
-                        return unauthorized(Config.getErrorPage401()).as(Constants.HTML_CONTENT_TYPE);
-                    } else if (code == HttpConstants.FORBIDDEN) {
-                        return forbidden(Config.getErrorPage403()).as(Constants.HTML_CONTENT_TYPE);
+        if (Config.isLazySessions()) {
+            // in a signed cookie : no storage write for anonymous requests
+            RequestedUrlCookie.save(context.response(), plan.getClientName(), requestedUrlToSave);
+        } else {
+            webContext.setSessionAttribute(StorageHelper.getInstance().getRequestedUrlKey(plan.getClientName()), requestedUrlToSave);
+        }
+        final Client<Credentials, UserProfile> client = plan.getClient();
+        // the redirection url is computed on the bounded authentication executor
+        try {
+            return AuthExecutor.getInstance().submit(new Function0<SimpleResult>() {
+                public SimpleResult apply() {
+                    try {
+                        // and compute redirection url
+                        final String redirectionUrl = client.getRedirectionUrl(webContext, true, plan.isAjax());
+                        logger.debug("redirectionUrl : {}", redirectionUrl);
+                        return redirect(redirectionUrl);
+                    } catch (final RequiresHttpAction e) {
+                        // requires some specific HTTP action
+                        final int code = e.getCode();
+                        logger.debug("requires HTTP action : {}", code);
+                        if (code == HttpConstants.UNAUTHORIZED) {
+                            return unauthorized(Config.getErrorPage401()).as(Constants.HTML_CONTENT_TYPE);
+                        } else if (code == HttpConstants.FORBIDDEN) {
+                            return forbidden(Config.getErrorPage403()).as(Constants.HTML_CONTENT_TYPE);
+                        }
+                        final String message = "Unsupported HTTP action : " + code;
+                        logger.error(message);
+                        throw new TechnicalException(message);
+                    } finally {
+                        webContext.flushSessionAttributes();
                     }
-                    final String message = "Unsupported HTTP action : " + code;
-                    logger.error(message);
-                    throw new TechnicalException(message);
                 }
-                
-            }
-        });
-        return promiseOfResult;
+            });
+        } catch (final RejectedExecutionException e) {
+            logger.warn("authentication executor saturated : {}", AuthExecutor.getInstance());
+            final SimpleResult result = status(Constants.SERVICE_UNAVAILABLE, Config.getErrorPage503()).as(Constants.HTML_CONTENT_TYPE);
+            return Promise.pure(result);
+        }
     }
 }
@@ -0,0 +1,46 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a lock-free in-memory counter.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class InMemoryCounter implements Counter {
+
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment() {
+        this.count.incrementAndGet();
+    }
+
+    public void add(final long count) {
+        this.count.addAndGet(count);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getCount());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is the default metrics registry : lock-free in-memory counters and timers, which can be read to be logged or exported.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentMap<String, InMemoryCounter> counters = new ConcurrentHashMap<String, InMemoryCounter>();
+
+    private final ConcurrentMap<String, InMemoryTimer> timers = new ConcurrentHashMap<String, InMemoryTimer>();
+
+    public Counter counter(final String name) {
+        InMemoryCounter counter = this.counters.get(name);
+        if (counter == null) {
+            final InMemoryCounter newCounter = new InMemoryCounter();
+            counter = this.counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    public Timer timer(final String name) {
+        InMemoryTimer timer = this.timers.get(name);
+        if (timer == null) {
+            final InMemoryTimer newTimer = new InMemoryTimer();
+            timer = this.timers.putIfAbsent(name, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return the counters sorted by name
+     */
+    public Map<String, Counter> getCounters() {
+        return Collections.<String, Counter> unmodifiableMap(new TreeMap<String, Counter>(this.counters));
+    }
+
+    /**
+     * @return the timers sorted by name
+     */
+    public Map<String, Timer> getTimers() {
+        return Collections.<String, Timer> unmodifiableMap(new TreeMap<String, Timer>(this.timers));
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryMetricsRegistry[counters=" + getCounters() + ", timers=" + getTimers() + "]";
+    }
+}
@@ -0,0 +1,104 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a lock-free in-memory timer : the durations are counted in a histogram of power of two buckets (the bucket
+ * <code>i</code> counts the durations between <code>2^(i-1)</code> and <code>2^i - 1</code> nanoseconds), so that recording a duration
+ * is a few atomic additions and the percentiles are estimated within a factor of two.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public final class InMemoryTimer implements Timer {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    private final AtomicLong maxTime = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long duration = nanos < 0 ? 0 : nanos;
+        this.histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(duration));
+        this.count.incrementAndGet();
+        this.totalTime.addAndGet(duration);
+        long max = this.maxTime.get();
+        while (duration > max && !this.maxTime.compareAndSet(max, duration)) {
+            max = this.maxTime.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getTotalTime() {
+        return this.totalTime.get();
+    }
+
+    public long getMaxTime() {
+        return this.maxTime.get();
+    }
+
+    /**
+     * Get the mean duration.
+     * 
+     * @return the mean duration in nanoseconds
+     */
+    public long getMeanTime() {
+        final long count = getCount();
+        return count == 0 ? 0 : getTotalTime() / count;
+    }
+
+    /**
+     * Estimate a percentile by the upper bound of the bucket which contains it (capped by the maximum duration).
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0;
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                final long upperBound = i == 0 ? 0 : (i >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upperBound, getMaxTime());
+            }
+        }
+        return getMaxTime();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMeanTime() + "ns, p50=" + getPercentile(50) + "ns, p99=" + getPercentile(99)
+               + "ns, max=" + getMaxTime() + "ns";
+    }
+}
@@ -0,0 +1,45 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.metrics;
+
+/**
+ * This interface is the registry of the metrics measured by this library : counters and timers, identified by their names.
+ * <p />
+ * Implementations must be thread-safe and cheap : the metrics are looked up by name on the request processing path. Use
+ * {@link org.pac4j.play.Config#setMetricsRegistry(MetricsRegistry)} to plug another implementation (to export the metrics to a
+ * monitoring system for example).
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Get (or create) a counter.
+     * 
+     * @param name
+     * @return the counter
+     */
+    Counter counter(String name);
+
+    /**
+     * Get (or create) a timer.
+     * 
+     * @param name
+     * @return the timer
+     */
+    Timer timer(String name);
+}
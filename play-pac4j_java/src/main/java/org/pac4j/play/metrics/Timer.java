@@ -0,0 +1,52 @@
+/*
+  Copyright 2012 - 2013 Jerome Leleu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.pac4j.play.metrics;
+
+/**
+ * This interface is a timer : it records the durations of an operation.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public interface Timer {
+
+    /**
+     * Record a duration.
+     * 
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos);
+
+    long getCount();
+
+    /**
+     * @return the total duration in nanoseconds
+     */
+    long getTotalTime();
+
+    /**
+     * @return the maximum duration in nanoseconds
+     */
+    long getMaxTime();
+
+    /**
+     * Get an estimation of a percentile of the durations.
+     * 
+     * @param percentile between 0 and 100
+     * @return the estimated percentile in nanoseconds
+     */
+    long getPercentile(double percentile);
+}
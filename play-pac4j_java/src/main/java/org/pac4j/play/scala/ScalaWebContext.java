@@ -15,17 +15,20 @@
  */
 package org.pac4j.play.scala;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.pac4j.core.context.WebContext;
-import org.pac4j.play.CacheStorageHelper;
 import org.pac4j.play.Constants;
+import org.pac4j.play.SessionAttributes;
 
-import org.pac4j.play.StorageHelper;
 import play.api.mvc.AnyContent;
 import play.api.mvc.Request;
 import play.api.mvc.Session;
 import scala.Option;
+import scala.Tuple2;
+import scala.collection.Iterator;
 import scala.collection.Seq;
 
 /**
@@ -40,9 +43,36 @@ public class ScalaWebContext<C> implements WebContext {
     
     private final Session session;
     
+    private final SessionAttributes sessionAttributes;
+    
+    // form parameters, read on first use
+    private scala.collection.immutable.Map<String, Seq<String>> formParameters;
+    
+    private boolean formParametersRead;
+    
+    // merged request parameters, built on first use
+    private Map<String, String[]> requestParameters;
+    
+    // server name and port, parsed on first use
+    private String serverName;
+    
+    private int serverPort;
+    
     public ScalaWebContext(final Request<C> request, final Session session) {
+        this(request, session, false);
+    }
+    
+    /**
+     * Build a web context whose session attributes writes are buffered (if requested) until the {@link #flushSessionAttributes()} call.
+     * 
+     * @param request
+     * @param session
+     * @param bufferedSessionAttributes
+     */
+    public ScalaWebContext(final Request<C> request, final Session session, final boolean bufferedSessionAttributes) {
         this.request = request;
         this.session = session;
+        this.sessionAttributes = new SessionAttributes(bufferedSessionAttributes);
     }
     
     public String getRequestHeader(final String name) {
@@ -53,18 +83,24 @@ public class ScalaWebContext<C> implements WebContext {
         throw new IllegalArgumentException("getRequestMethod not implemented");
     }
     
+    /**
+     * Get a request parameter : the url parameters override the form parameters. The parameter is looked up directly, without merging
+     * all the parameters.
+     * 
+     * @param name
+     * @return the value of the parameter
+     */
     public String getRequestParameter(final String name) {
         String value = null;
         Option<Seq<String>> values = this.request.queryString().get(name);
-        if (values.isDefined()) {
+        if (values.isDefined() && !values.get().isEmpty()) {
             value = values.get().head();
         }
-        if (value == null && this.request instanceof Request) {
-            final Option<scala.collection.immutable.Map<String, Seq<String>>> formParameters = ((Request<AnyContent>) (this.request))
-                .body().asFormUrlEncoded();
-            if (formParameters.isDefined()) {
-                values = formParameters.get().get(name);
-                if (values.isDefined()) {
+        if (value == null) {
+            final scala.collection.immutable.Map<String, Seq<String>> formParameters = getFormParameters();
+            if (formParameters != null) {
+                values = formParameters.get(name);
+                if (values.isDefined() && !values.get().isEmpty()) {
                     value = values.get().head();
                 }
             }
@@ -72,15 +108,58 @@ public class ScalaWebContext<C> implements WebContext {
         return value;
     }
     
+    /**
+     * Get all the request parameters : the url parameters override the form parameters. The merged parameters are computed once per
+     * web context.
+     * 
+     * @return the request parameters
+     */
     public Map<String, String[]> getRequestParameters() {
-        throw new IllegalArgumentException("getRequestParameters not implemented");
+        if (this.requestParameters == null) {
+            final Map<String, String[]> parameters = new HashMap<String, String[]>();
+            final scala.collection.immutable.Map<String, Seq<String>> formParameters = getFormParameters();
+            if (formParameters != null) {
+                copyParameters(formParameters, parameters);
+            }
+            copyParameters(this.request.queryString(), parameters);
+            this.requestParameters = Collections.unmodifiableMap(parameters);
+        }
+        return this.requestParameters;
+    }
+    
+    private scala.collection.immutable.Map<String, Seq<String>> getFormParameters() {
+        if (!this.formParametersRead) {
+            final Object body = this.request.body();
+            if (body instanceof AnyContent) {
+                final Option<scala.collection.immutable.Map<String, Seq<String>>> formParameters = ((AnyContent) body)
+                    .asFormUrlEncoded();
+                if (formParameters.isDefined()) {
+                    this.formParameters = formParameters.get();
+                }
+            }
+            this.formParametersRead = true;
+        }
+        return this.formParameters;
+    }
+    
+    private static void copyParameters(final scala.collection.immutable.Map<String, Seq<String>> from, final Map<String, String[]> to) {
+        final Iterator<Tuple2<String, Seq<String>>> iterator = from.iterator();
+        while (iterator.hasNext()) {
+            final Tuple2<String, Seq<String>> parameter = iterator.next();
+            final Seq<String> values = parameter._2();
+            final String[] array = new String[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.apply(i);
+            }
+            to.put(parameter._1(), array);
+        }
     }
     
     public Object getSessionAttribute(final String key) {
         Object value = null;
         final Option<String> sessionId = this.session.get(Constants.SESSION_ID);
         if (sessionId.isDefined()) {
-            value = StorageHelper.getInstance().get(sessionId.get(), key);
+            value = this.sessionAttributes.get(sessionId.get(), key);
         }
         return value;
     }
@@ -92,7 +171,17 @@ public class ScalaWebContext<C> implements WebContext {
     public void setSessionAttribute(final String key, final Object value) {
         final Option<String> sessionId = this.session.get(Constants.SESSION_ID);
         if (sessionId.isDefined()) {
-            StorageHelper.getInstance().save(sessionId.get(), key, value);
+            this.sessionAttributes.set(sessionId.get(), key, value);
+        }
+    }
+    
+    /**
+     * Save the buffered session attributes in one batch.
+     */
+    public void flushSessionAttributes() {
+        final Option<String> sessionId = this.session.get(Constants.SESSION_ID);
+        if (sessionId.isDefined()) {
+            this.sessionAttributes.flush(sessionId.get());
         }
     }
     
@@ -105,14 +194,27 @@ public class ScalaWebContext<C> implements WebContext {
     }
     
     public String getServerName() {
-        String[] split = this.request.host().split(":");
-        return split[0];
+        parseHost();
+        return this.serverName;
     }
     
     public int getServerPort() {
-        String[] split = this.request.host().split(":");
-        String portStr = (split.length > 1) ? split[1] : "80";
-        return Integer.valueOf(portStr);
+        parseHost();
+        return this.serverPort;
+    }
+    
+    private void parseHost() {
+        if (this.serverName == null) {
+            final String host = this.request.host();
+            final int colon = host.indexOf(':');
+            if (colon < 0) {
+                this.serverPort = 80;
+                this.serverName = host;
+            } else {
+                this.serverPort = Integer.parseInt(host.substring(colon + 1));
+                this.serverName = host.substring(0, colon);
+            }
+        }
     }
     
     public String getScheme() {
@@ -0,0 +1,73 @@
+package org.pac4j.play;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link AuthExecutor} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class AuthExecutorTests {
+
+    @Test
+    public void execute_saturated_rejects() throws InterruptedException {
+        final AuthExecutor executor = new AuthExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            // one running task and one waiting task
+            executor.execute(blocking);
+            executor.execute(blocking);
+            try {
+                executor.execute(blocking);
+                Assert.fail("the executor should be saturated");
+            } catch (final RejectedExecutionException e) {
+                Assert.assertEquals(1, executor.getRejected());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_measuresQueueWaitAndExecutionTime() throws InterruptedException {
+        final AuthExecutor executor = new AuthExecutor(1, 10);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable sleeping = new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        executor.execute(sleeping);
+        executor.execute(sleeping);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        while (executor.getCompleted() < 2) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(2, executor.getSubmitted());
+        Assert.assertTrue(executor.getMaxExecutionTime() >= TimeUnit.MILLISECONDS.toNanos(20));
+        // the second task waited for the first one
+        Assert.assertTrue(executor.getMaxQueueWait() >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+}
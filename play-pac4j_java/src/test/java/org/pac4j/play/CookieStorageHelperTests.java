@@ -0,0 +1,91 @@
+package org.pac4j.play;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link CookieStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class CookieStorageHelperTests {
+
+    private static final String SESSION_ID = "sessionId";
+
+    private static final String ID = "myid";
+
+    private CommonProfile newProfile() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId(ID);
+        profile.addAttribute("email", "test@example.com");
+        return profile;
+    }
+
+    private long future() {
+        return System.currentTimeMillis() + 60000L;
+    }
+
+    @Test
+    public void decode_encodedProfile_returnsSameProfile() {
+        final CookieStorageHelper helper = new CookieStorageHelper(new MemoryStorageHelper(), "secret");
+        final String value = helper.encode(newProfile(), SESSION_ID, future());
+        final CommonProfile profile = helper.decode(value, SESSION_ID);
+        Assert.assertEquals(ID, profile.getId());
+        Assert.assertEquals("test@example.com", profile.getAttribute("email"));
+    }
+
+    @Test
+    public void decode_whenOtherSession_returnsNull() {
+        final CookieStorageHelper helper = new CookieStorageHelper(new MemoryStorageHelper(), "secret");
+        final String value = helper.encode(newProfile(), SESSION_ID, future());
+        Assert.assertNull(helper.decode(value, "otherSessionId"));
+    }
+
+    @Test
+    public void decode_whenExpired_returnsNull() {
+        final CookieStorageHelper helper = new CookieStorageHelper(new MemoryStorageHelper(), "secret");
+        final String value = helper.encode(newProfile(), SESSION_ID, System.currentTimeMillis() - 1000L);
+        Assert.assertNull(helper.decode(value, SESSION_ID));
+    }
+
+    @Test
+    public void decode_whenTampered_returnsNull() {
+        final CookieStorageHelper helper = new CookieStorageHelper(new MemoryStorageHelper(), "secret");
+        final String value = helper.encode(newProfile(), SESSION_ID, future());
+        final char c = value.charAt(10) == 'A' ? 'B' : 'A';
+        Assert.assertNull(helper.decode(value.substring(0, 10) + c + value.substring(11), SESSION_ID));
+        Assert.assertNull(helper.decode("not*base64", SESSION_ID));
+    }
+
+    @Test
+    public void decode_afterKeyRotation_acceptsOldKeyOnlyWhileConfigured() {
+        final CookieStorageHelper helper = new CookieStorageHelper(new MemoryStorageHelper(), "oldSecret");
+        final String value = helper.encode(newProfile(), SESSION_ID, future());
+        helper.setSecrets("newSecret", "oldSecret");
+        Assert.assertEquals(ID, helper.decode(value, SESSION_ID).getId());
+        helper.setSecrets("newSecret");
+        Assert.assertNull(helper.decode(value, SESSION_ID));
+    }
+
+    @Test
+    public void getProfileFromCookie_withoutRequest_decodesCookie() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final CookieStorageHelper helper = new CookieStorageHelper(delegate, "secret");
+        final String value = helper.encode(newProfile(), SESSION_ID, future());
+        Assert.assertEquals(Constants.PROFILE_COOKIE_NAME, helper.getProfileCookieName());
+        Assert.assertEquals(ID, helper.getProfileFromCookie(value, null, SESSION_ID).getId());
+        Assert.assertEquals(0, delegate.reads);
+    }
+
+    @Test
+    public void getProfileFromCookie_noCookie_getsDelegateProfile() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        delegate.saveProfile(null, null, null, SESSION_ID, newProfile());
+        final CookieStorageHelper helper = new CookieStorageHelper(delegate, "secret");
+        Assert.assertEquals(ID, helper.getProfileFromCookie(null, null, SESSION_ID).getId());
+        Assert.assertEquals(ID, helper.getProfileFromCookie("delegate", null, SESSION_ID).getId());
+        Assert.assertEquals(ID, delegate.getProfileFromCookie(null, null, SESSION_ID).getId());
+    }
+}
@@ -0,0 +1,171 @@
+package org.pac4j.play;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link MappedFileStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class MappedFileStorageHelperTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedFileStorageHelper storageHelper;
+
+    @After
+    public void tearDown() {
+        if (this.storageHelper != null) {
+            this.storageHelper.close();
+        }
+    }
+
+    private MappedFileStorageHelper open(final int fileSize) {
+        this.storageHelper = new MappedFileStorageHelper(this.folder.getRoot(), fileSize, 0);
+        return this.storageHelper;
+    }
+
+    private MappedFileStorageHelper reopen(final int fileSize) {
+        this.storageHelper.close();
+        return open(fileSize);
+    }
+
+    @Test
+    public void reopen_savedEntries_areReloaded() {
+        MappedFileStorageHelper storageHelper = open(64 * 1024);
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        storageHelper.saveProfile(null, null, null, "sessionId", profile);
+        storageHelper.save("url", "http://localhost/page", 0);
+        storageHelper.save("removed", "value", 0);
+        storageHelper.remove("removed");
+        storageHelper.save("url", "http://localhost/other", 0);
+        storageHelper = reopen(64 * 1024);
+        Assert.assertEquals(profile.getTypedId(), storageHelper.getProfile(null, null, "sessionId").getTypedId());
+        Assert.assertEquals("http://localhost/other", storageHelper.get("url"));
+        Assert.assertNull(storageHelper.get("removed"));
+        Assert.assertEquals(2, storageHelper.getSize());
+    }
+
+    @Test
+    public void reopen_expiredEntries_areSkipped() throws InterruptedException {
+        MappedFileStorageHelper storageHelper = open(64 * 1024);
+        storageHelper.save("expired", "value", 1);
+        storageHelper.save("touched", "value", 1);
+        Assert.assertTrue(storageHelper.touch("touched", 60));
+        Thread.sleep(1100);
+        Assert.assertNull(storageHelper.get("expired"));
+        storageHelper = reopen(64 * 1024);
+        Assert.assertNull(storageHelper.get("expired"));
+        Assert.assertEquals("value", storageHelper.get("touched"));
+    }
+
+    @Test
+    public void maintain_overwrittenEntries_compactsFiles() {
+        MappedFileStorageHelper storageHelper = open(1024);
+        for (int i = 0; i < 200; i++) {
+            storageHelper.save("key" + (i % 5), "value" + i, 0);
+        }
+        storageHelper.save("removed", "value", 0);
+        storageHelper.remove("removed");
+        final int fileCount = storageHelper.getFileCount();
+        Assert.assertTrue(fileCount > 5);
+        storageHelper.maintain();
+        Assert.assertTrue(storageHelper.getFileCount() < fileCount);
+        Assert.assertTrue(storageHelper.getCompactionCount() > 0);
+        storageHelper = reopen(1024);
+        for (int i = 195; i < 200; i++) {
+            Assert.assertEquals("value" + i, storageHelper.get("key" + (i % 5)));
+        }
+        Assert.assertNull(storageHelper.get("removed"));
+    }
+
+    @Test
+    public void reopen_tornRecord_isDropped() throws Exception {
+        MappedFileStorageHelper storageHelper = open(64 * 1024);
+        storageHelper.save("first", "value", 0);
+        storageHelper.save("second", "value", 0);
+        storageHelper.close();
+        this.storageHelper = null;
+        // corrupt the last byte of the second record
+        final RandomAccessFile file = new RandomAccessFile(new File(this.folder.getRoot(), "sessions-1.log"), "rw");
+        final int firstLength = 21 + "first".length() + 6;
+        file.seek(firstLength + 21 + "second".length() + 5);
+        file.write('X');
+        file.close();
+        storageHelper = open(64 * 1024);
+        Assert.assertEquals("value", storageHelper.get("first"));
+        Assert.assertNull(storageHelper.get("second"));
+        storageHelper.save("third", "value", 0);
+        storageHelper = reopen(64 * 1024);
+        Assert.assertEquals("value", storageHelper.get("third"));
+    }
+
+    @Test
+    public void maintain_concurrentSaves_keepsLatestValues() throws Exception {
+        MappedFileStorageHelper storageHelper = open(1024);
+        final MappedFileStorageHelper writer = storageHelper;
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    writer.save("key" + (i % 5), "value" + i, 0);
+                }
+            }
+        };
+        thread.start();
+        while (thread.isAlive()) {
+            storageHelper.maintain();
+        }
+        thread.join();
+        storageHelper.maintain();
+        Assert.assertTrue(storageHelper.getCompactionCount() > 0);
+        for (int i = 1995; i < 2000; i++) {
+            Assert.assertEquals("value" + i, storageHelper.get("key" + (i % 5)));
+        }
+        storageHelper = reopen(1024);
+        for (int i = 1995; i < 2000; i++) {
+            Assert.assertEquals("value" + i, storageHelper.get("key" + (i % 5)));
+        }
+        Assert.assertEquals(5, storageHelper.getSize());
+    }
+
+    @Test
+    public void open_failedLoad_releasesDirectory() throws Exception {
+        final File invalidFile = new File(this.folder.getRoot(), "sessions-invalid.log");
+        Assert.assertTrue(invalidFile.createNewFile());
+        try {
+            open(64 * 1024);
+            Assert.fail();
+        } catch (final NumberFormatException e) {
+            // expected
+        }
+        Assert.assertTrue(invalidFile.delete());
+        open(64 * 1024).save("key", "value", 0);
+        Assert.assertEquals("value", this.storageHelper.get("key"));
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void open_directoryInUse_fails() {
+        open(64 * 1024);
+        new MappedFileStorageHelper(this.folder.getRoot(), 64 * 1024, 0);
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void open_directoryNotClosed_fails() {
+        open(64 * 1024);
+        // like a reload in development mode without close in Global.onStop
+        new MappedFileStorageHelper(this.folder.getRoot(), 64 * 1024, 0);
+    }
+}
@@ -0,0 +1,55 @@
+package org.pac4j.play;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is an in-memory storage helper for tests, counting the number of reads and writes.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class MemoryStorageHelper extends StorageHelper {
+
+    final Map<String, Object> values = new HashMap<String, Object>();
+
+    int reads;
+
+    int writes;
+
+    @Override
+    public Object get(final String sessionId, final String key) {
+        return get(sessionId + Constants.SEPARATOR + key);
+    }
+
+    @Override
+    public void save(final String sessionId, final String key, final Object value) {
+        save(sessionId + Constants.SEPARATOR + key, value, Config.getSessionTimeout());
+    }
+
+    @Override
+    public void remove(final String sessionId, final String key) {
+        remove(sessionId + Constants.SEPARATOR + key);
+    }
+
+    @Override
+    public synchronized Object get(final String key) {
+        this.reads++;
+        return this.values.get(key);
+    }
+
+    @Override
+    public synchronized void save(final String key, final Object value, final int timeout) {
+        this.writes++;
+        if (value == null) {
+            this.values.remove(key);
+        } else {
+            this.values.put(key, value);
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        save(key, null, 0);
+    }
+}
@@ -0,0 +1,122 @@
+package org.pac4j.play;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link NearCacheStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class NearCacheStorageHelperTests {
+
+    private static final String SESSION_ID = "sessionId";
+
+    @Test
+    public void getProfile_afterSaveProfile_doesNotHitDelegate() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(delegate);
+        final CommonProfile profile = new CommonProfile();
+        helper.saveProfile(null, null, null, SESSION_ID, profile);
+        Assert.assertSame(profile, helper.getProfile(null, null, SESSION_ID));
+        Assert.assertSame(profile, helper.getProfile(null, null, SESSION_ID));
+        Assert.assertEquals(0, delegate.reads);
+        Assert.assertEquals(2, helper.getHits());
+        Assert.assertEquals(0, helper.getMisses());
+    }
+
+    @Test
+    public void getProfile_whenNotCached_loadsFromDelegateOnce() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final CommonProfile profile = new CommonProfile();
+        delegate.saveProfile(null, null, null, SESSION_ID, profile);
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(delegate);
+        Assert.assertSame(profile, helper.getProfile(null, null, SESSION_ID));
+        Assert.assertSame(profile, helper.getProfile(null, null, SESSION_ID));
+        Assert.assertEquals(1, delegate.reads);
+        Assert.assertEquals(1, helper.getHits());
+        Assert.assertEquals(1, helper.getMisses());
+    }
+
+    @Test
+    public void removeProfile_invalidatesCachedProfile() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(delegate);
+        helper.saveProfile(null, null, null, SESSION_ID, new CommonProfile());
+        helper.removeProfile(SESSION_ID);
+        Assert.assertNull(helper.getProfile(null, null, SESSION_ID));
+        Assert.assertEquals(0, helper.getSize());
+    }
+
+    @Test
+    public void saveProfile_whenMaxSizeReached_evictsLeastRecentlyUsed() {
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(new MemoryStorageHelper());
+        helper.setMaxSize(2);
+        helper.saveProfile(null, null, null, "1", new CommonProfile());
+        helper.saveProfile(null, null, null, "2", new CommonProfile());
+        helper.getProfile(null, null, "1");
+        helper.saveProfile(null, null, null, "3", new CommonProfile());
+        Assert.assertEquals(2, helper.getSize());
+        helper.invalidate("1");
+        helper.invalidate("3");
+        Assert.assertEquals(0, helper.getSize());
+    }
+
+    @Test
+    public void getProfile_whenTimeToLiveIsZero_alwaysHitsDelegate() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(delegate);
+        helper.setTimeToLive(0);
+        helper.saveProfile(null, null, null, SESSION_ID, new CommonProfile());
+        helper.getProfile(null, null, SESSION_ID);
+        helper.getProfile(null, null, SESSION_ID);
+        Assert.assertEquals(2, delegate.reads);
+    }
+
+    @Test
+    public void getProfile_removedDuringLoad_isNotCached() {
+        final NearCacheStorageHelper[] helper = new NearCacheStorageHelper[1];
+        final MemoryStorageHelper delegate = new MemoryStorageHelper() {
+            private boolean racing = true;
+
+            @Override
+            public synchronized Object get(final String key) {
+                final Object value = super.get(key);
+                // the logout runs between the read of the delegate and the put in the in-process cache
+                if (this.racing) {
+                    this.racing = false;
+                    helper[0].removeProfile(key);
+                }
+                return value;
+            }
+        };
+        delegate.saveProfile(null, null, null, SESSION_ID, new CommonProfile());
+        helper[0] = new NearCacheStorageHelper(delegate);
+        Assert.assertNotNull(helper[0].getProfile(null, null, SESSION_ID));
+        Assert.assertEquals(0, helper[0].getSize());
+        Assert.assertNull(helper[0].getProfile(null, null, SESSION_ID));
+    }
+
+    @Test
+    public void saveProfile_manySessions_areStripedWithinMaxSize() {
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(new MemoryStorageHelper());
+        helper.setMaxSize(1024);
+        for (int i = 0; i < 5000; i++) {
+            helper.saveProfile(null, null, null, "session" + i, new CommonProfile());
+        }
+        Assert.assertTrue(helper.getSize() <= 1024);
+        Assert.assertTrue(helper.getSize() > 512);
+        Assert.assertNotNull(helper.getProfile(null, null, "session4999"));
+    }
+
+    @Test
+    public void getExecutionContext_storageHelpers_shareOnePool() {
+        final MemoryStorageHelper delegate = new MemoryStorageHelper();
+        final NearCacheStorageHelper helper = new NearCacheStorageHelper(delegate);
+        Assert.assertNotNull(helper.getExecutionContext());
+        Assert.assertSame(helper.getExecutionContext(), delegate.getExecutionContext());
+        Assert.assertSame(helper.getExecutionContext(), new MemoryStorageHelper().getExecutionContext());
+    }
+}
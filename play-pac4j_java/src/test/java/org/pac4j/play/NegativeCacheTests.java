@@ -0,0 +1,101 @@
+package org.pac4j.play;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+import play.mvc.Http;
+
+/**
+ * This class tests the negative cache of the {@link StorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class NegativeCacheTests {
+
+    private MemoryStorageHelper storageHelper;
+
+    private Http.Session session;
+
+    private CommonProfile profile;
+
+    @Before
+    public void setUp() {
+        Config.setNegativeCacheTimeout(10);
+        this.storageHelper = new MemoryStorageHelper();
+        this.session = new Http.Session(new HashMap<String, String>());
+        this.profile = new CommonProfile();
+        this.profile.setId("jleleu");
+    }
+
+    @After
+    public void tearDown() {
+        Config.setNegativeCacheTimeout(0);
+    }
+
+    @Test
+    public void getProfile_newSession_isNotLookedUp() {
+        final String sessionId = this.storageHelper.getOrCreationSessionId(this.session);
+        Assert.assertEquals(StorageHelper.NOT_AUTHENTICATED, this.session.get(Constants.AUTHENTICATION_MARKER));
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, sessionId));
+        Assert.assertEquals(0, this.storageHelper.reads);
+        this.storageHelper.saveProfile(null, null, this.session, sessionId, this.profile);
+        Assert.assertNotNull(this.storageHelper.getProfile(null, this.session, sessionId));
+    }
+
+    @Test
+    public void getProfile_recentMiss_isNotLookedUpAgain() {
+        this.session.put(Constants.SESSION_ID, "dead");
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, "dead"));
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, "dead"));
+        Assert.assertEquals(1, this.storageHelper.reads);
+    }
+
+    @Test
+    public void getProfile_authenticatedOnAnotherNode_isLookedUp() {
+        final MemoryStorageHelper otherNode = new MemoryStorageHelper();
+        this.session.put(Constants.SESSION_ID, "sessionId");
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, "sessionId"));
+        // the other node saves the profile in the shared storage and changes the marker
+        otherNode.saveProfile(null, null, this.session, "sessionId", this.profile);
+        this.storageHelper.values.putAll(otherNode.values);
+        Assert.assertNotNull(this.storageHelper.getProfile(null, this.session, "sessionId"));
+    }
+
+    @Test
+    public void getProfile_noSession_isAlwaysLookedUp() {
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "sessionId"));
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "sessionId"));
+        Assert.assertEquals(2, this.storageHelper.reads);
+    }
+
+    @Test
+    public void getProfile_disabled_isAlwaysLookedUp() {
+        Config.setNegativeCacheTimeout(0);
+        final String sessionId = this.storageHelper.getOrCreationSessionId(this.session);
+        Assert.assertNull(this.session.get(Constants.AUTHENTICATION_MARKER));
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, sessionId));
+        Assert.assertNull(this.storageHelper.getProfile(null, this.session, sessionId));
+        Assert.assertEquals(2, this.storageHelper.reads);
+    }
+
+    @Test
+    public void sessionMisses_full_recordsNoMoreMisses() {
+        final SessionMisses misses = new SessionMisses(2);
+        misses.record("s1", null, 0, 1000);
+        misses.record("s2", "marker", 0, 1000);
+        misses.record("s3", null, 0, 1000);
+        Assert.assertEquals(2, misses.size());
+        Assert.assertTrue(misses.isMiss("s2", "marker", 500));
+        Assert.assertFalse(misses.isMiss("s2", "other", 500));
+        Assert.assertFalse(misses.isMiss("s1", null, 1000));
+        // the expired records are swept
+        misses.record("s3", null, 2000, 1000);
+        Assert.assertTrue(misses.isMiss("s3", null, 2500));
+    }
+}
@@ -0,0 +1,125 @@
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link OffHeapStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class OffHeapStorageHelperTests {
+
+    @Test
+    public void save_valuesOfAllTypes_areReadBack() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(1024 * 1024);
+        storageHelper.save("string", "value", 0);
+        storageHelper.save("bytes", new byte[] {
+            1, 2, 3
+        }, 0);
+        storageHelper.save("list", new ArrayList<String>(Arrays.asList("a", "b")), 0);
+        Assert.assertEquals("value", storageHelper.get("string"));
+        Assert.assertArrayEquals(new byte[] {
+            1, 2, 3
+        }, (byte[]) storageHelper.get("bytes"));
+        Assert.assertEquals(Arrays.asList("a", "b"), storageHelper.get("list"));
+        storageHelper.save("string", "a longer value which needs a bigger chunk", 0);
+        Assert.assertEquals("a longer value which needs a bigger chunk", storageHelper.get("string"));
+        storageHelper.remove("string");
+        Assert.assertNull(storageHelper.get("string"));
+        Assert.assertEquals(2, storageHelper.getSize());
+    }
+
+    @Test
+    public void saveProfile_encodedProfile_isReadBack() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(1024 * 1024);
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        profile.addAttribute("email", "jleleu@example.com");
+        storageHelper.saveProfile(null, null, null, "sessionId", profile);
+        final CommonProfile readProfile = storageHelper.getProfile(null, null, "sessionId");
+        Assert.assertEquals(profile.getTypedId(), readProfile.getTypedId());
+        Assert.assertEquals("jleleu@example.com", readProfile.getAttribute("email"));
+        storageHelper.removeProfile("sessionId");
+        Assert.assertNull(storageHelper.getProfile(null, null, "sessionId"));
+    }
+
+    @Test
+    public void save_manyKeys_areAllFound() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(16 * 1024 * 1024);
+        for (int i = 0; i < 20000; i++) {
+            storageHelper.save("session" + i, "url" + i, 0);
+        }
+        for (int i = 0; i < 20000; i++) {
+            Assert.assertEquals("url" + i, storageHelper.get("session" + i));
+        }
+        Assert.assertEquals(20000, storageHelper.getSize());
+        Assert.assertEquals(0, storageHelper.getEvictionCount());
+    }
+
+    @Test
+    public void save_memoryExhausted_evictsUnreferencedEntries() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(4 * 1024, 1, 1024);
+        storageHelper.save("hot", "value", 0);
+        for (int i = 0; i < 1000; i++) {
+            storageHelper.save("key" + i, "value" + i, 0);
+            Assert.assertEquals("value", storageHelper.get("hot"));
+        }
+        Assert.assertEquals(4 * 1024, storageHelper.getAllocatedMemory());
+        Assert.assertTrue(storageHelper.getEvictionCount() > 0);
+        Assert.assertEquals("value999", storageHelper.get("key999"));
+        Assert.assertNull(storageHelper.get("key0"));
+    }
+
+    @Test
+    public void save_memoryExhaustedByOtherSize_reassignsSlab() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(4 * 1024, 1, 1024);
+        for (int i = 0; i < 1000; i++) {
+            storageHelper.save("key" + i, "value" + i, 0);
+        }
+        final byte[] large = new byte[900];
+        storageHelper.save("large", large, 0);
+        Assert.assertArrayEquals(large, (byte[]) storageHelper.get("large"));
+        storageHelper.save("small", "value", 0);
+        Assert.assertEquals("value", storageHelper.get("small"));
+    }
+
+    @Test
+    public void save_entryLargerThanSlab_isNotStored() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(4 * 1024, 1, 1024);
+        storageHelper.save("large", new byte[2048], 0);
+        Assert.assertNull(storageHelper.get("large"));
+    }
+
+    @Test
+    public void get_expiredEntry_returnsNull() throws InterruptedException {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(1024 * 1024);
+        storageHelper.save("key", "value", 1);
+        storageHelper.save("other", "value", 1);
+        Assert.assertTrue(storageHelper.touch("other", 60));
+        Thread.sleep(1100);
+        Assert.assertNull(storageHelper.get("key"));
+        Assert.assertEquals("value", storageHelper.get("other"));
+        Assert.assertEquals(1, storageHelper.getExpirationCount());
+    }
+
+    @Test
+    public void clear_releasesSlabs() {
+        final OffHeapStorageHelper storageHelper = new OffHeapStorageHelper(1024 * 1024);
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            storageHelper.save("key" + i, "value", 0);
+            keys.add("key" + i);
+        }
+        storageHelper.clear();
+        Assert.assertEquals(0, storageHelper.getSize());
+        Assert.assertEquals(0, storageHelper.getAllocatedMemory());
+        Assert.assertTrue(storageHelper.getAll(keys).isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+import akka.dispatch.ExecutionContexts;
+
+/**
+ * This class tests the {@link PlayLogoutHandler} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class PlayLogoutHandlerTests {
+
+    private static final String LOGOUT_REQUEST = "<samlp:LogoutRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"LR-1\">"
+                                                 + "<saml:NameID>@NOT_USED@</saml:NameID>"
+                                                 + "<samlp:SessionIndex>ST-1-abcdef-cas</samlp:SessionIndex></samlp:LogoutRequest>";
+
+    private MemoryStorageHelper storageHelper;
+
+    @Before
+    public void setUp() {
+        this.storageHelper = new MemoryStorageHelper();
+        StorageHelper.setInstance(this.storageHelper);
+    }
+
+    @After
+    public void tearDown() {
+        StorageHelper.setInstance(null);
+    }
+
+    @Test
+    public void extractSessionIndex_returnsTicket() {
+        Assert.assertEquals("ST-1-abcdef-cas", PlayLogoutHandler.extractSessionIndex(LOGOUT_REQUEST));
+        Assert.assertNull(PlayLogoutHandler.extractSessionIndex("<samlp:LogoutRequest/>"));
+        Assert.assertNull(PlayLogoutHandler.extractSessionIndex(null));
+    }
+
+    @Test
+    public void logout_removesProfilesAndTickets() {
+        for (int i = 0; i < 5; i++) {
+            this.storageHelper.save(PlayLogoutHandler.TICKET_KEY_PREFIX + "ST-" + i, "sessionId" + i, 60);
+            this.storageHelper.save("sessionId" + i, "profile" + i, 60);
+        }
+        this.storageHelper.save("sessionIdOther", "profileOther", 60);
+        final PlayLogoutHandler logoutHandler = new PlayLogoutHandler();
+        logoutHandler.setBatchSize(2);
+        // processed by the calling thread
+        logoutHandler.setMaxPending(0);
+        for (int i = 0; i < 5; i++) {
+            logoutHandler.logout("ST-" + i);
+        }
+        logoutHandler.logout("ST-unknown");
+        Assert.assertEquals(0, logoutHandler.getPendingCount());
+        Assert.assertEquals(1, this.storageHelper.values.size());
+        Assert.assertEquals("profileOther", this.storageHelper.get("sessionIdOther"));
+    }
+
+    @Test
+    public void logout_legacyBareTicketKey_removesProfile() {
+        this.storageHelper.save("ST-legacy", "sessionIdLegacy", 60);
+        this.storageHelper.save("sessionIdLegacy", "profileLegacy", 60);
+        final PlayLogoutHandler logoutHandler = new PlayLogoutHandler();
+        logoutHandler.setMaxPending(0);
+        logoutHandler.logout("ST-legacy");
+        Assert.assertTrue(this.storageHelper.values.isEmpty());
+    }
+
+    @Test
+    public void logout_legacyTicketKeysDisabled_ignoresBareTicketKey() {
+        this.storageHelper.save("ST-legacy", "sessionIdLegacy", 60);
+        this.storageHelper.save("sessionIdLegacy", "profileLegacy", 60);
+        final PlayLogoutHandler logoutHandler = new PlayLogoutHandler();
+        logoutHandler.setMaxPending(0);
+        logoutHandler.setLegacyTicketKeys(false);
+        logoutHandler.logout("ST-legacy");
+        Assert.assertEquals("profileLegacy", this.storageHelper.get("sessionIdLegacy"));
+    }
+
+    @Test
+    public void logout_refreshedProfile_isForgotten() {
+        final ProfileRefreshStrategy strategy = new ProfileRefreshStrategy() {
+            public CommonProfile refresh(final CommonProfile profile) {
+                return profile;
+            }
+        };
+        final ProfileRefresher refresher = new ProfileRefresher(strategy, 300, 1);
+        ProfileRefresher.setInstance(refresher);
+        Config.setProfileRefreshStrategy(strategy);
+        try {
+            this.storageHelper.saveProfile(null, null, null, "sessionId", new CommonProfile());
+            this.storageHelper.save(PlayLogoutHandler.TICKET_KEY_PREFIX + "ST-1", "sessionId", 60);
+            Assert.assertEquals(1, refresher.getSize());
+            final PlayLogoutHandler logoutHandler = new PlayLogoutHandler();
+            logoutHandler.setMaxPending(0);
+            logoutHandler.logout("ST-1");
+            Assert.assertEquals(0, refresher.getSize());
+            Assert.assertNull(this.storageHelper.getProfile(null, null, "sessionId"));
+        } finally {
+            refresher.shutdown();
+            ProfileRefresher.setInstance(null);
+            Config.setProfileRefreshStrategy(null);
+        }
+    }
+
+    @Test
+    public void logout_whileDrainScheduled_submitsOneDrainAndBoundsQueue() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        this.storageHelper.setExecutionContext(ExecutionContexts.fromExecutor(new Executor() {
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        }));
+        final PlayLogoutHandler logoutHandler = new PlayLogoutHandler();
+        logoutHandler.setMaxPending(3);
+        for (int i = 0; i < 10; i++) {
+            logoutHandler.logout("ST-" + i);
+            Assert.assertTrue(logoutHandler.getPendingCount() <= 3);
+        }
+        Assert.assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        Assert.assertEquals(0, logoutHandler.getPendingCount());
+        logoutHandler.logout("ST-last");
+        Assert.assertEquals(2, tasks.size());
+    }
+}
@@ -0,0 +1,176 @@
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link ProfileRefresher} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class ProfileRefresherTests {
+
+    // within the refresh window of a profile saved now
+    private static final long NEAR_EXPIRY = (3600 - 200) * 1000L;
+
+    private MemoryStorageHelper storageHelper;
+
+    private ProfileRefresher refresher;
+
+    private final List<Runnable> queuedRefreshes = new ArrayList<Runnable>();
+
+    private boolean refreshable = true;
+
+    private int refreshes;
+
+    private final ProfileRefreshStrategy strategy = new ProfileRefreshStrategy() {
+        public CommonProfile refresh(final CommonProfile profile) {
+            ProfileRefresherTests.this.refreshes++;
+            if (!ProfileRefresherTests.this.refreshable) {
+                return null;
+            }
+            final CommonProfile refreshedProfile = new CommonProfile();
+            refreshedProfile.setId(profile.getId());
+            refreshedProfile.addAttribute("refreshed", Boolean.TRUE);
+            return refreshedProfile;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        this.storageHelper = new MemoryStorageHelper();
+        StorageHelper.setInstance(this.storageHelper);
+        Config.setProfileTimeout(3600);
+        Config.setProfileRefreshStrategy(this.strategy);
+        this.refresher = new ProfileRefresher(this.strategy, 300, 1, new Executor() {
+            public void execute(final Runnable runnable) {
+                runnable.run();
+            }
+        });
+        ProfileRefresher.setInstance(this.refresher);
+    }
+
+    @After
+    public void tearDown() {
+        this.refresher.shutdown();
+        ProfileRefresher.setInstance(null);
+        Config.setProfileRefreshStrategy(null);
+        StorageHelper.setInstance(null);
+    }
+
+    private long save(final String sessionId) {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        final long now = System.currentTimeMillis();
+        this.storageHelper.saveProfile(null, null, null, sessionId, profile);
+        return now;
+    }
+
+    @Test
+    public void check_readProfileNearExpiry_isRefreshed() {
+        final long now = save("sessionId");
+        this.refresher.read("sessionId", now + 1000);
+        this.refresher.check("sessionId", now + NEAR_EXPIRY);
+        Assert.assertEquals(1, this.refreshes);
+        Assert.assertEquals(Boolean.TRUE, this.storageHelper.getProfile(null, null, "sessionId").getAttribute("refreshed"));
+        Assert.assertEquals(1, this.refresher.getSize());
+        Assert.assertEquals(1, this.refresher.getAvailablePermits());
+    }
+
+    @Test
+    public void check_profileNotReadSinceSave_expires() {
+        final long now = save("sessionId");
+        this.refresher.check("sessionId", now + NEAR_EXPIRY);
+        Assert.assertEquals(0, this.refreshes);
+        Assert.assertEquals(0, this.refresher.getSize());
+    }
+
+    @Test
+    public void check_profileFarFromExpiry_isNotRefreshed() {
+        final long now = save("sessionId");
+        this.refresher.read("sessionId", now + 1000);
+        this.refresher.check("sessionId", now + 2000);
+        Assert.assertEquals(0, this.refreshes);
+        Assert.assertEquals(1, this.refresher.getSize());
+    }
+
+    @Test
+    public void check_unsupportedProfile_expires() {
+        this.refreshable = false;
+        final long now = save("sessionId");
+        this.refresher.read("sessionId", now + 1000);
+        this.refresher.check("sessionId", now + NEAR_EXPIRY);
+        Assert.assertEquals(1, this.refreshes);
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "sessionId").getAttribute("refreshed"));
+        Assert.assertEquals(0, this.refresher.getSize());
+    }
+
+    @Test
+    public void check_concurrencyLimitReached_isRetriedLater() {
+        this.refresher.shutdown();
+        this.refresher = new ProfileRefresher(this.strategy, 300, 1, new Executor() {
+            public void execute(final Runnable runnable) {
+                ProfileRefresherTests.this.queuedRefreshes.add(runnable);
+            }
+        });
+        ProfileRefresher.setInstance(this.refresher);
+        final long now = save("sessionId1");
+        save("sessionId2");
+        this.refresher.read("sessionId1", now + 1000);
+        this.refresher.read("sessionId2", now + 1000);
+        this.refresher.check("sessionId1", now + NEAR_EXPIRY);
+        this.refresher.check("sessionId2", now + NEAR_EXPIRY);
+        Assert.assertEquals(1, this.queuedRefreshes.size());
+        Assert.assertEquals(0, this.refresher.getAvailablePermits());
+        this.queuedRefreshes.get(0).run();
+        Assert.assertEquals(1, this.refreshes);
+        Assert.assertEquals(1, this.refresher.getAvailablePermits());
+        Assert.assertEquals(2, this.refresher.getSize());
+    }
+
+    @Test
+    public void removeProfile_trackedProfile_isForgotten() {
+        final long now = save("sessionId");
+        Assert.assertEquals(1, this.refresher.getSize());
+        this.refresher.read("sessionId", now + 1000);
+        this.storageHelper.removeProfile("sessionId");
+        Assert.assertEquals(0, this.refresher.getSize());
+        this.refresher.check("sessionId", now + NEAR_EXPIRY);
+        Assert.assertEquals(0, this.refreshes);
+    }
+
+    @Test
+    public void check_refresh_isNotAProfileRead() {
+        final long now = save("sessionId");
+        this.refresher.read("sessionId", now + 1000);
+        final long reads = Config.getMetricsRegistry().counter(StorageHelper.GET_PROFILE_FOUND_METRIC).getCount();
+        this.refresher.check("sessionId", now + NEAR_EXPIRY);
+        Assert.assertEquals(1, this.refreshes);
+        Assert.assertEquals(reads, Config.getMetricsRegistry().counter(StorageHelper.GET_PROFILE_FOUND_METRIC).getCount());
+    }
+
+    @Test
+    public void sweep_dueChecks_areRun() {
+        final long now = save("sessionId1");
+        save("sessionId2");
+        this.refresher.read("sessionId1", now + 1000);
+        this.refresher.read("sessionId2", now + 1000);
+        // the checks are due in the first half of the refresh window
+        this.refresher.sweep(now + 2000);
+        Assert.assertEquals(0, this.refreshes);
+        this.refresher.sweep(now + (3600 - 300 + 150) * 1000L);
+        Assert.assertEquals(2, this.refreshes);
+        Assert.assertEquals(2, this.refresher.getSize());
+        // the refreshed profiles are checked again near their new expiration only
+        this.refresher.sweep(now + 2000);
+        Assert.assertEquals(2, this.refreshes);
+    }
+}
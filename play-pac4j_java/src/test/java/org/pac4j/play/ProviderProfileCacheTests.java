@@ -0,0 +1,132 @@
+package org.pac4j.play;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the {@link ProviderProfileCache} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class ProviderProfileCacheTests {
+
+    private static final String CLIENT_NAME = "client";
+
+    private MemoryStorageHelper storageHelper;
+
+    @Before
+    public void setUp() {
+        this.storageHelper = new MemoryStorageHelper();
+        StorageHelper.setInstance(this.storageHelper);
+        ProviderProfileCache.setSecret("secret");
+        Config.setProviderProfileCacheTimeout(CLIENT_NAME, 60);
+    }
+
+    @After
+    public void tearDown() {
+        Config.setProviderProfileCacheTimeout(CLIENT_NAME, 0);
+        Config.setProviderProfileCachePasswords(false);
+        StorageHelper.setInstance(null);
+    }
+
+    @Test
+    public void get_sameCredentials_returnsCachedProfile() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        ProviderProfileCache.put(CLIENT_NAME, new TokenCredentials("token"), profile);
+        Assert.assertEquals("jleleu", ProviderProfileCache.get(CLIENT_NAME, new TokenCredentials("token")).getId());
+        Assert.assertNull(ProviderProfileCache.get(CLIENT_NAME, new TokenCredentials("other")));
+    }
+
+    @Test
+    public void get_disabledForClient_returnsNull() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        ProviderProfileCache.put("otherClient", new TokenCredentials("token"), profile);
+        Assert.assertTrue(this.storageHelper.values.isEmpty());
+        Assert.assertNull(ProviderProfileCache.get("otherClient", new TokenCredentials("token")));
+    }
+
+    @Test
+    public void getKey_doesNotContainCredentials() {
+        final String key = ProviderProfileCache.getKey(CLIENT_NAME, new TokenCredentials("secretToken"));
+        Assert.assertFalse(key.contains("secretToken"));
+        Assert.assertEquals(key, ProviderProfileCache.getKey(CLIENT_NAME, new TokenCredentials("secretToken")));
+        Assert.assertFalse(key.equals(ProviderProfileCache.getKey("otherClient", new TokenCredentials("secretToken"))));
+    }
+
+    @Test
+    public void getKey_otherSecret_isDifferent() {
+        final String key = ProviderProfileCache.getKey(CLIENT_NAME, new TokenCredentials("token"));
+        ProviderProfileCache.setSecret("otherSecret");
+        Assert.assertFalse(key.equals(ProviderProfileCache.getKey(CLIENT_NAME, new TokenCredentials("token"))));
+    }
+
+    @Test
+    public void get_passwordCredentials_areNotCachedByDefault() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        ProviderProfileCache.put(CLIENT_NAME, new PasswordCredentials("jleleu", "password"), profile);
+        Assert.assertTrue(this.storageHelper.values.isEmpty());
+        Assert.assertNull(ProviderProfileCache.get(CLIENT_NAME, new PasswordCredentials("jleleu", "password")));
+    }
+
+    @Test
+    public void get_changedPassword_misses() {
+        Config.setProviderProfileCachePasswords(true);
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("jleleu");
+        ProviderProfileCache.put(CLIENT_NAME, new PasswordCredentials("jleleu", "password"), profile);
+        Assert.assertEquals("jleleu", ProviderProfileCache.get(CLIENT_NAME, new PasswordCredentials("jleleu", "password")).getId());
+        Assert.assertNull(ProviderProfileCache.get(CLIENT_NAME, new PasswordCredentials("jleleu", "newPassword")));
+    }
+
+    private static final class PasswordCredentials extends Credentials {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String username;
+
+        private final String password;
+
+        private PasswordCredentials(final String username, final String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        public String getUsername() {
+            return this.username;
+        }
+
+        public String getPassword() {
+            return this.password;
+        }
+
+        public void clear() {
+        }
+    }
+
+    private static final class TokenCredentials extends Credentials {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+
+        private TokenCredentials(final String token) {
+            this.token = token;
+        }
+
+        public void clear() {
+        }
+
+        @Override
+        public String toString() {
+            return "TokenCredentials[" + this.token + "]";
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.pac4j.play;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link RequestedUrlCookie} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class RequestedUrlCookieTests {
+
+    private static final String URL = "http://localhost:9000/protected/index.html?param=value";
+
+    @Before
+    public void setUp() {
+        RequestedUrlCookie.setSecret("secret");
+    }
+
+    @After
+    public void tearDown() {
+        Config.setSessionTimeout(60);
+    }
+
+    @Test
+    public void decode_encodedUrl_returnsUrl() {
+        Assert.assertEquals(URL, RequestedUrlCookie.decode("CasClient", RequestedUrlCookie.encode("CasClient", URL)));
+    }
+
+    @Test
+    public void decode_otherClient_returnsNull() {
+        Assert.assertNull(RequestedUrlCookie.decode("FacebookClient", RequestedUrlCookie.encode("CasClient", URL)));
+    }
+
+    @Test
+    public void decode_tamperedUrl_returnsNull() {
+        final String value = RequestedUrlCookie.encode("CasClient", URL);
+        final String tampered = Base64Url.encode(StorageValues.toUtf8("http://evil.com")) + value.substring(value.indexOf('.'));
+        Assert.assertNull(RequestedUrlCookie.decode("CasClient", tampered));
+        Assert.assertNull(RequestedUrlCookie.decode("CasClient", "garbage"));
+        Assert.assertNull(RequestedUrlCookie.decode("CasClient", "a.b.c"));
+    }
+
+    @Test
+    public void decode_otherSecret_returnsNull() {
+        final String value = RequestedUrlCookie.encode("CasClient", URL);
+        RequestedUrlCookie.setSecret("other");
+        Assert.assertNull(RequestedUrlCookie.decode("CasClient", value));
+    }
+
+    @Test
+    public void decode_expiredValue_returnsNull() {
+        Config.setSessionTimeout(-10);
+        Assert.assertNull(RequestedUrlCookie.decode("CasClient", RequestedUrlCookie.encode("CasClient", URL)));
+    }
+}
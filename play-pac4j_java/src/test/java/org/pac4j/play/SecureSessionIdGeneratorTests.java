@@ -0,0 +1,75 @@
+package org.pac4j.play;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import play.mvc.Http;
+
+/**
+ * This class tests the {@link SecureSessionIdGenerator} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class SecureSessionIdGeneratorTests {
+
+    @Test
+    public void generate_default_is22UrlSafeCharacters() {
+        final String sessionId = new SecureSessionIdGenerator().generate();
+        Assert.assertEquals(22, sessionId.length());
+        Assert.assertTrue(sessionId.matches("[A-Za-z0-9_-]+"));
+        Assert.assertEquals(16, Base64Url.decode(sessionId).length);
+    }
+
+    @Test
+    public void generate_moreBytes_isLonger() {
+        Assert.assertEquals(32, new SecureSessionIdGenerator(24).generate().length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_lessThan128Bits_isRejected() {
+        new SecureSessionIdGenerator(8);
+    }
+
+    @Test
+    public void generate_concurrentThreads_areUnique() throws InterruptedException {
+        final SecureSessionIdGenerator generator = new SecureSessionIdGenerator();
+        final Set<String> sessionIds = new HashSet<String>();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        final String sessionId = generator.generate();
+                        synchronized (sessionIds) {
+                            sessionIds.add(sessionId);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(4000, sessionIds.size());
+    }
+
+    @Test
+    public void getOrCreationSessionId_customGenerator_isUsed() {
+        final StorageHelper storageHelper = new MemoryStorageHelper();
+        storageHelper.setSessionIdGenerator(new SessionIdGenerator() {
+            public String generate() {
+                return "fixed";
+            }
+        });
+        final Http.Session session = new Http.Session(new HashMap<String, String>());
+        Assert.assertEquals("fixed", storageHelper.getOrCreationSessionId(session));
+        Assert.assertEquals("fixed", session.get(Constants.SESSION_ID));
+    }
+}
@@ -0,0 +1,79 @@
+package org.pac4j.play;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link SessionAttributes} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class SessionAttributesTests {
+
+    private static final String SESSION_ID = "sessionId";
+
+    private MemoryStorageHelper storageHelper;
+
+    @Before
+    public void setUp() {
+        this.storageHelper = new MemoryStorageHelper();
+        StorageHelper.setInstance(this.storageHelper);
+    }
+
+    @After
+    public void tearDown() {
+        StorageHelper.setInstance(null);
+    }
+
+    @Test
+    public void get_sameKeyTwice_readsStorageOnce() {
+        this.storageHelper.save(SESSION_ID, "key", "value");
+        final SessionAttributes attributes = new SessionAttributes(false);
+        Assert.assertEquals("value", attributes.get(SESSION_ID, "key"));
+        Assert.assertEquals("value", attributes.get(SESSION_ID, "key"));
+        Assert.assertNull(attributes.get(SESSION_ID, "absent"));
+        Assert.assertNull(attributes.get(SESSION_ID, "absent"));
+        Assert.assertEquals(2, this.storageHelper.reads);
+    }
+
+    @Test
+    public void get_afterPreload_doesNotReadStorage() {
+        this.storageHelper.save(SESSION_ID, "key1", "value1");
+        final SessionAttributes attributes = new SessionAttributes(false);
+        attributes.preload(SESSION_ID, "key1", "key2");
+        final int reads = this.storageHelper.reads;
+        Assert.assertEquals("value1", attributes.get(SESSION_ID, "key1"));
+        Assert.assertNull(attributes.get(SESSION_ID, "key2"));
+        Assert.assertEquals(reads, this.storageHelper.reads);
+    }
+
+    @Test
+    public void set_whenBuffered_savesOnFlush() {
+        final SessionAttributes attributes = new SessionAttributes(true);
+        attributes.set(SESSION_ID, "key1", "value1");
+        attributes.set(SESSION_ID, "key2", "value2");
+        Assert.assertEquals(0, this.storageHelper.writes);
+        Assert.assertEquals("value1", attributes.get(SESSION_ID, "key1"));
+        attributes.flush(SESSION_ID);
+        Assert.assertEquals(2, this.storageHelper.writes);
+        Assert.assertEquals(0, this.storageHelper.reads);
+        Assert.assertEquals(Arrays.asList("value1", "value2"), Arrays.asList(this.storageHelper.get(SESSION_ID, "key1"),
+                                                                             this.storageHelper.get(SESSION_ID, "key2")));
+        attributes.flush(SESSION_ID);
+        Assert.assertEquals(2, this.storageHelper.writes);
+    }
+
+    @Test
+    public void set_whenNotBuffered_savesImmediately() {
+        final SessionAttributes attributes = new SessionAttributes(false);
+        attributes.set(SESSION_ID, "key", "value");
+        Assert.assertEquals(1, this.storageHelper.writes);
+        Assert.assertEquals("value", attributes.get(SESSION_ID, "key"));
+        Assert.assertEquals(0, this.storageHelper.reads);
+    }
+}
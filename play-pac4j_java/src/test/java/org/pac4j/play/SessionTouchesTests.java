@@ -0,0 +1,43 @@
+package org.pac4j.play;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link SessionTouches} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class SessionTouchesTests {
+
+    private static final long INTERVAL = 60000L;
+
+    @Test
+    public void tryTouch_withinInterval_touchesOnce() {
+        final SessionTouches touches = new SessionTouches(100);
+        Assert.assertTrue(touches.tryTouch("sessionId", 1000L, INTERVAL));
+        Assert.assertFalse(touches.tryTouch("sessionId", 2000L, INTERVAL));
+        Assert.assertFalse(touches.tryTouch("sessionId", 1000L + INTERVAL - 1, INTERVAL));
+        Assert.assertTrue(touches.tryTouch("sessionId", 1000L + INTERVAL, INTERVAL));
+    }
+
+    @Test
+    public void tryTouch_afterRecord_waitsForInterval() {
+        final SessionTouches touches = new SessionTouches(100);
+        touches.record("sessionId", 1000L);
+        Assert.assertFalse(touches.tryTouch("sessionId", 2000L, INTERVAL));
+        touches.forget("sessionId");
+        Assert.assertTrue(touches.tryTouch("sessionId", 2000L, INTERVAL));
+    }
+
+    @Test
+    public void tryTouch_tooManyRecords_sweepsOldRecords() {
+        final SessionTouches touches = new SessionTouches(10);
+        for (int i = 0; i < 10; i++) {
+            touches.tryTouch("old" + i, 1000L, INTERVAL);
+        }
+        touches.tryTouch("recent", 1000L + INTERVAL, INTERVAL);
+        Assert.assertEquals(1, touches.size());
+    }
+}
@@ -0,0 +1,121 @@
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link ShardedStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class ShardedStorageHelperTests {
+
+    private static final int KEYS = 10000;
+
+    private MemoryStorageHelper[] shards;
+
+    private ShardedStorageHelper storageHelper;
+
+    @Before
+    public void setUp() {
+        this.shards = new MemoryStorageHelper[] {
+            new MemoryStorageHelper(), new MemoryStorageHelper(), new MemoryStorageHelper(), new MemoryStorageHelper()
+        };
+        this.storageHelper = new ShardedStorageHelper(this.shards);
+    }
+
+    @Test
+    public void save_sessionAttributesAndProfile_areOnSameShard() {
+        this.storageHelper.save("sessionId", "attribute", "value");
+        this.storageHelper.save("sessionId", "profile", 0);
+        int shardsUsed = 0;
+        for (final MemoryStorageHelper shard : this.shards) {
+            if (!shard.values.isEmpty()) {
+                shardsUsed++;
+                Assert.assertEquals(2, shard.values.size());
+            }
+        }
+        Assert.assertEquals(1, shardsUsed);
+        Assert.assertEquals("value", this.storageHelper.get("sessionId", "attribute"));
+        Assert.assertEquals(this.storageHelper.getShardName("sessionId"), this.storageHelper.getShardName("sessionId$attribute"));
+    }
+
+    @Test
+    public void getShardName_globalKeyPrefix_routesByWholeKey() {
+        final List<String> shardNames = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            final String shardName = this.storageHelper.getShardName(StorageHelper.USER_SESSIONS_KEY_PREFIX + "user" + i);
+            if (!shardNames.contains(shardName)) {
+                shardNames.add(shardName);
+            }
+        }
+        Assert.assertEquals(4, shardNames.size());
+    }
+
+    @Test
+    public void getOwnership_virtualNodes_spreadKeysEvenly() {
+        final Map<String, Double> ownership = this.storageHelper.getOwnership();
+        double total = 0;
+        for (final double share : ownership.values()) {
+            Assert.assertEquals(0.25, share, 0.08);
+            total += share;
+        }
+        Assert.assertEquals(1.0, total, 0.0001);
+    }
+
+    @Test
+    public void addShard_movesOnlyKeysToNewShard() {
+        final Map<String, String> before = new HashMap<String, String>();
+        for (int i = 0; i < KEYS; i++) {
+            before.put("session" + i, this.storageHelper.getShardName("session" + i));
+        }
+        this.storageHelper.addShard("shard-4", new MemoryStorageHelper());
+        int moved = 0;
+        for (final Map.Entry<String, String> entry : before.entrySet()) {
+            final String shardName = this.storageHelper.getShardName(entry.getKey());
+            if (!shardName.equals(entry.getValue())) {
+                Assert.assertEquals("shard-4", shardName);
+                moved++;
+            }
+        }
+        // about 1 / 5 of the keys
+        Assert.assertTrue("moved : " + moved, moved > KEYS / 10 && moved < KEYS * 3 / 10);
+    }
+
+    @Test
+    public void removeShard_movesOnlyKeysOfRemovedShard() {
+        final Map<String, String> before = new HashMap<String, String>();
+        for (int i = 0; i < KEYS; i++) {
+            before.put("session" + i, this.storageHelper.getShardName("session" + i));
+        }
+        Assert.assertSame(this.shards[2], this.storageHelper.removeShard("shard-2"));
+        for (final Map.Entry<String, String> entry : before.entrySet()) {
+            if (!"shard-2".equals(entry.getValue())) {
+                Assert.assertEquals(entry.getValue(), this.storageHelper.getShardName(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void getAll_keysOnSeveralShards_areAllRead() {
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            this.storageHelper.save("session" + i, "value" + i, 0);
+            keys.add("session" + i);
+        }
+        final Map<String, Object> values = this.storageHelper.getAll(keys);
+        Assert.assertEquals(100, values.size());
+        Assert.assertEquals("value42", values.get("session42"));
+        this.storageHelper.removeAll(keys);
+        for (final MemoryStorageHelper shard : this.shards) {
+            Assert.assertTrue(shard.values.isEmpty());
+        }
+    }
+}
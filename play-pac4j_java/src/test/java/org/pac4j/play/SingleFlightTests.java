@@ -0,0 +1,203 @@
+package org.pac4j.play;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.exception.TechnicalException;
+
+/**
+ * This class tests the {@link SingleFlight} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class SingleFlightTests {
+
+    private static final long TIMEOUT = 5000;
+
+    // runs the tasks on demand
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(final Runnable runnable) {
+            this.tasks.add(runnable);
+        }
+
+        private void runAll() {
+            for (final Runnable task : this.tasks) {
+                task.run();
+            }
+            this.tasks.clear();
+        }
+    }
+
+    private static class RecordingCallback implements SingleFlight.Callback<String> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int calls;
+
+        private String value;
+
+        private Throwable failure;
+
+        public synchronized void done(final String value, final Throwable failure) {
+            this.calls++;
+            this.value = value;
+            this.failure = failure;
+            this.done.countDown();
+        }
+    }
+
+    @Test
+    public void execute_concurrentCalls_runOnce() throws InterruptedException {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final String[] results = new String[2];
+        final Thread leader = new Thread(new Runnable() {
+            public void run() {
+                results[0] = singleFlight.execute("key", TIMEOUT, new Callable<String>() {
+                    public String call() throws InterruptedException {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        release.await();
+                        return "profile";
+                    }
+                });
+            }
+        });
+        leader.start();
+        Assert.assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        final Thread follower = new Thread(new Runnable() {
+            public void run() {
+                results[1] = singleFlight.execute("key", TIMEOUT, new Callable<String>() {
+                    public String call() {
+                        calls.incrementAndGet();
+                        return "other";
+                    }
+                });
+            }
+        });
+        follower.start();
+        while (follower.getState() != Thread.State.TIMED_WAITING && follower.isAlive()) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join(TIMEOUT);
+        follower.join(TIMEOUT);
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals("profile", results[0]);
+        Assert.assertEquals("profile", results[1]);
+        Assert.assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void execute_failure_isPropagated() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        try {
+            singleFlight.execute("key", TIMEOUT, new Callable<String>() {
+                public String call() throws Exception {
+                    throw new Exception("provider down");
+                }
+            });
+            Assert.fail("the failure should be propagated");
+        } catch (final TechnicalException e) {
+            Assert.assertEquals(0, singleFlight.size());
+        }
+    }
+
+    @Test
+    public void execute_afterCall_runsAgain() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> callable = new Callable<String>() {
+            public String call() {
+                return "profile" + calls.incrementAndGet();
+            }
+        };
+        Assert.assertEquals("profile1", singleFlight.execute("key", TIMEOUT, callable));
+        Assert.assertEquals("profile2", singleFlight.execute("key", TIMEOUT, callable));
+    }
+
+    @Test
+    public void executeAsync_concurrentCalls_runOnceAndNotifyAll() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final ManualExecutor executor = new ManualExecutor();
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> callable = new Callable<String>() {
+            public String call() {
+                return "profile" + calls.incrementAndGet();
+            }
+        };
+        final RecordingCallback leader = new RecordingCallback();
+        final RecordingCallback follower = new RecordingCallback();
+        Assert.assertTrue(singleFlight.executeAsync("key", TIMEOUT, executor, callable, leader));
+        // the follower does not block while the call is in flight
+        Assert.assertFalse(singleFlight.executeAsync("key", TIMEOUT, executor, callable, follower));
+        Assert.assertEquals(1, executor.tasks.size());
+        Assert.assertEquals(0, follower.calls);
+        executor.runAll();
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(1, leader.calls);
+        Assert.assertEquals("profile1", leader.value);
+        Assert.assertEquals(1, follower.calls);
+        Assert.assertEquals("profile1", follower.value);
+        Assert.assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void executeAsync_callInFlightTooLong_notifiesTimeoutOnce() throws InterruptedException {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final ManualExecutor executor = new ManualExecutor();
+        final Callable<String> callable = new Callable<String>() {
+            public String call() {
+                return "profile";
+            }
+        };
+        singleFlight.executeAsync("key", TIMEOUT, executor, callable, new RecordingCallback());
+        final RecordingCallback follower = new RecordingCallback();
+        singleFlight.executeAsync("key", 10, executor, callable, follower);
+        Assert.assertTrue(follower.done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(follower.failure instanceof TechnicalException);
+        executor.runAll();
+        Assert.assertEquals(1, follower.calls);
+    }
+
+    @Test
+    public void executeAsync_rejectedCall_failsJoinedCalls() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final RecordingCallback follower = new RecordingCallback();
+        final Callable<String> callable = new Callable<String>() {
+            public String call() {
+                return "profile";
+            }
+        };
+        final RecordingCallback leader = new RecordingCallback();
+        try {
+            singleFlight.executeAsync("key", TIMEOUT, new Executor() {
+                public void execute(final Runnable runnable) {
+                    // a concurrent call joins before the rejection
+                    singleFlight.executeAsync("key", TIMEOUT, this, callable, follower);
+                    throw new RejectedExecutionException("saturated");
+                }
+            }, callable, leader);
+            Assert.fail("the rejection should be thrown");
+        } catch (final RejectedExecutionException e) {
+            Assert.assertEquals(0, leader.calls);
+            Assert.assertEquals(1, follower.calls);
+            Assert.assertTrue(follower.failure instanceof RejectedExecutionException);
+            Assert.assertEquals(0, singleFlight.size());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.pac4j.play;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.profile.CommonProfile;
+
+/**
+ * This class tests the index of the sessions of the users in the {@link StorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class UserSessionsIndexTests {
+
+    private MemoryStorageHelper storageHelper;
+
+    private CommonProfile profile;
+
+    @Before
+    public void setUp() {
+        this.storageHelper = new MemoryStorageHelper();
+        Config.setMaxSessionsPerUser(3);
+        this.profile = new CommonProfile();
+        this.profile.setId("jleleu");
+    }
+
+    @After
+    public void tearDown() {
+        Config.setMaxSessionsPerUser(0);
+        Config.setProfileTimeout(3600);
+        Config.setProfileTouchInterval(0);
+    }
+
+    @Test
+    public void removeAllProfiles_removesAllSessionsOfUser() {
+        final CommonProfile other = new CommonProfile();
+        other.setId("other");
+        this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+        this.storageHelper.saveProfile(null, null, null, "s2", this.profile);
+        this.storageHelper.saveProfile(null, null, null, "s3", other);
+        Assert.assertEquals(2, this.storageHelper.removeAllProfiles(this.profile.getTypedId()));
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "s1"));
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "s2"));
+        Assert.assertNotNull(this.storageHelper.getProfile(null, null, "s3"));
+        Assert.assertTrue(this.storageHelper.getSessionIds(this.profile.getTypedId()).isEmpty());
+    }
+
+    @Test
+    public void getProfile_profileRemovedWhileTouched_isNotResurrected() {
+        Config.setProfileTouchInterval(60);
+        this.storageHelper = new MemoryStorageHelper() {
+            @Override
+            public synchronized Object get(final String key) {
+                final Object value = super.get(key);
+                if ("s1".equals(key)) {
+                    // logout of the session on another node
+                    this.values.remove(key);
+                }
+                return value;
+            }
+        };
+        this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+        this.storageHelper.forgetSession("s1");
+        Assert.assertNotNull(this.storageHelper.getProfile(null, null, "s1"));
+        Assert.assertFalse(this.storageHelper.values.containsKey("s1"));
+    }
+
+    @Test
+    public void saveProfile_expiredSessions_arePruned() throws InterruptedException {
+        Config.setProfileTimeout(1);
+        this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+        this.storageHelper.saveProfile(null, null, null, "s2", this.profile);
+        // s1 expires, s2 is still there (touched)
+        this.storageHelper.values.remove("s1");
+        Thread.sleep(1100);
+        this.storageHelper.saveProfile(null, null, null, "s3", this.profile);
+        Assert.assertEquals(Arrays.asList("s2", "s3"), this.storageHelper.getSessionIds(this.profile.getTypedId()));
+    }
+
+    @Test
+    public void saveProfile_unexpiredSessions_areNotReadBack() {
+        this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+        this.storageHelper.saveProfile(null, null, null, "s2", this.profile);
+        this.storageHelper.reads = 0;
+        this.storageHelper.saveProfile(null, null, null, "s3", this.profile);
+        // only the index is read
+        Assert.assertEquals(1, this.storageHelper.reads);
+        Assert.assertEquals(Arrays.asList("s1", "s2", "s3"), this.storageHelper.getSessionIds(this.profile.getTypedId()));
+    }
+
+    @Test
+    public void saveProfile_indexOfSessionIds_isMigrated() {
+        this.storageHelper.save(StorageHelper.USER_SESSIONS_KEY_PREFIX + this.profile.getTypedId(), new String[] { "s1", "s2" }, 0);
+        this.storageHelper.saveProfile(null, null, null, "s2", this.profile);
+        Assert.assertEquals(Arrays.asList("s2"), this.storageHelper.getSessionIds(this.profile.getTypedId()));
+    }
+
+    @Test
+    public void removeAllProfiles_throughNearCache_forgetsSessionsInDelegate() {
+        Config.setProfileTouchInterval(60);
+        final NearCacheStorageHelper nearCache = new NearCacheStorageHelper(this.storageHelper);
+        nearCache.saveProfile(null, null, null, "s1", this.profile);
+        nearCache.saveProfile(null, null, null, "s2", this.profile);
+        Assert.assertNotNull(nearCache.getProfile(null, null, "s1"));
+        Assert.assertEquals(Arrays.asList("s1", "s2"), nearCache.getSessionIds(this.profile.getTypedId()));
+        Assert.assertEquals(2, nearCache.removeAllProfiles(this.profile.getTypedId()));
+        Assert.assertNull(nearCache.getProfile(null, null, "s1"));
+        // the touch recorded by the delegate at save time is forgotten
+        Assert.assertTrue(this.storageHelper.shouldTouch("s2"));
+    }
+
+    @Test
+    public void saveProfile_tooManySessions_removesOldest() {
+        for (int i = 1; i <= 4; i++) {
+            this.storageHelper.saveProfile(null, null, null, "s" + i, this.profile);
+        }
+        Assert.assertEquals(Arrays.asList("s2", "s3", "s4"), this.storageHelper.getSessionIds(this.profile.getTypedId()));
+        Assert.assertNull(this.storageHelper.getProfile(null, null, "s1"));
+    }
+
+    @Test
+    public void saveProfile_indexDisabled_writesNoIndex() {
+        Config.setMaxSessionsPerUser(0);
+        this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+        Assert.assertEquals(1, this.storageHelper.values.size());
+    }
+
+    @Test
+    public void saveProfile_concurrentLoginsOfUser_indexesAllSessions() throws InterruptedException {
+        Config.setMaxSessionsPerUser(1000);
+        final int threads = 8;
+        final int sessionsPerThread = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] logins = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            logins[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < sessionsPerThread; i++) {
+                        UserSessionsIndexTests.this.storageHelper.saveProfile(null, null, null, "s" + thread + "_" + i,
+                                                                              UserSessionsIndexTests.this.profile);
+                    }
+                }
+            });
+            logins[t].start();
+        }
+        start.countDown();
+        for (final Thread login : logins) {
+            login.join();
+        }
+        Assert.assertEquals(threads * sessionsPerThread, this.storageHelper.getSessionIds(this.profile.getTypedId()).size());
+    }
+
+    @Test
+    public void removeAllProfiles_refreshedProfiles_areForgotten() {
+        final ProfileRefreshStrategy strategy = new ProfileRefreshStrategy() {
+            public CommonProfile refresh(final CommonProfile profile) {
+                return profile;
+            }
+        };
+        final ProfileRefresher refresher = new ProfileRefresher(strategy, 300, 1);
+        ProfileRefresher.setInstance(refresher);
+        Config.setProfileRefreshStrategy(strategy);
+        try {
+            this.storageHelper.saveProfile(null, null, null, "s1", this.profile);
+            this.storageHelper.saveProfile(null, null, null, "s2", this.profile);
+            Assert.assertEquals(2, refresher.getSize());
+            this.storageHelper.removeAllProfiles(this.profile.getTypedId());
+            Assert.assertEquals(0, refresher.getSize());
+        } finally {
+            refresher.shutdown();
+            ProfileRefresher.setInstance(null);
+            Config.setProfileRefreshStrategy(null);
+        }
+    }
+
+    @Test
+    public void saveProfile_tooManySessions_forgetsOldest() {
+        final ProfileRefreshStrategy strategy = new ProfileRefreshStrategy() {
+            public CommonProfile refresh(final CommonProfile profile) {
+                return profile;
+            }
+        };
+        final ProfileRefresher refresher = new ProfileRefresher(strategy, 300, 1);
+        ProfileRefresher.setInstance(refresher);
+        Config.setProfileRefreshStrategy(strategy);
+        try {
+            for (int i = 1; i <= 4; i++) {
+                this.storageHelper.saveProfile(null, null, null, "s" + i, this.profile);
+            }
+            Assert.assertEquals(3, refresher.getSize());
+        } finally {
+            refresher.shutdown();
+            ProfileRefresher.setInstance(null);
+            Config.setProfileRefreshStrategy(null);
+        }
+    }
+}
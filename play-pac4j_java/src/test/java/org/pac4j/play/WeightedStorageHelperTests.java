@@ -0,0 +1,140 @@
+package org.pac4j.play;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.play.metrics.InMemoryMetricsRegistry;
+import org.pac4j.play.metrics.MetricsRegistry;
+
+/**
+ * This class tests the {@link WeightedStorageHelper} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class WeightedStorageHelperTests {
+
+    @Test
+    public void save_manyEntries_weightIsBounded() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(64 * 1024);
+        for (int i = 0; i < 5000; i++) {
+            storageHelper.save("session" + i, new byte[100 + i % 500], 0);
+            Assert.assertTrue(storageHelper.getWeight() <= storageHelper.getMaxWeight());
+        }
+        Assert.assertTrue(storageHelper.getEvictionCount() + storageHelper.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void save_largeEntry_weighsItsSize() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(1024 * 1024);
+        storageHelper.save("small", new byte[10], 0);
+        final long smallWeight = storageHelper.getWeight();
+        storageHelper.save("large", new byte[10000], 0);
+        Assert.assertEquals(10000 + 2 * "large".length() + WeightedStorageHelper.ENTRY_OVERHEAD + 1,
+                            storageHelper.getWeight() - smallWeight);
+        storageHelper.remove("large");
+        Assert.assertEquals(smallWeight, storageHelper.getWeight());
+    }
+
+    @Test
+    public void save_oneShotAttributes_doNotEvictFrequentOnes() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(64 * 1024);
+        for (int i = 0; i < 50; i++) {
+            storageHelper.save("hot" + i, "key", "value" + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (i % 100 == 0) {
+                for (int j = 0; j < 50; j++) {
+                    Assert.assertEquals("value" + j, storageHelper.get("hot" + j, "key"));
+                }
+            }
+            storageHelper.save("cold" + i, "key", "value");
+        }
+        for (int j = 0; j < 50; j++) {
+            Assert.assertEquals("value" + j, storageHelper.get("hot" + j, "key"));
+        }
+        Assert.assertTrue(storageHelper.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void saveProfile_mainAreaFullOfFrequentEntries_isAlwaysAdmitted() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(64 * 1024);
+        for (int i = 0; i < 500; i++) {
+            storageHelper.save("hot" + i, new byte[100], 0);
+            for (int j = 0; j < 5; j++) {
+                storageHelper.get("hot" + i);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            final CommonProfile profile = new CommonProfile();
+            profile.setId("user" + i);
+            storageHelper.saveProfile(null, null, null, "login" + i, profile);
+            Assert.assertEquals("user" + i, storageHelper.getProfile(null, null, "login" + i).getId());
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotNull(storageHelper.getProfile(null, null, "login" + i));
+        }
+        Assert.assertEquals(0, storageHelper.getRejectionCount());
+        Assert.assertTrue(storageHelper.getEvictionCount() > 0);
+        Assert.assertTrue(storageHelper.getWeight() <= storageHelper.getMaxWeight());
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void save_objectHeavierThanMainArea_fails() {
+        new WeightedStorageHelper(10240).save("profile", new byte[20000], 0);
+    }
+
+    @Test
+    public void save_candidateLosingToSecondVictim_evictsNothing() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(10240);
+        // two entries of 4999 weight fill the main area, "first" being the least recently used and the least frequent
+        storageHelper.save("first", new byte[4900], 0);
+        storageHelper.get("first");
+        storageHelper.save("second", new byte[4900], 0);
+        for (int i = 0; i < 10; i++) {
+            storageHelper.get("second");
+        }
+        // the candidate needs both victims : it's more frequent than the first one, not than the second one
+        for (int i = 0; i < 3; i++) {
+            storageHelper.save("candidate", "key", new byte[9000]);
+        }
+        Assert.assertEquals(0, storageHelper.getEvictionCount());
+        Assert.assertEquals(3, storageHelper.getRejectionCount());
+        Assert.assertNull(storageHelper.get("candidate", "key"));
+        Assert.assertNotNull(storageHelper.get("first"));
+        Assert.assertNotNull(storageHelper.get("second"));
+    }
+
+    @Test
+    public void frequencySketch_countsAndAges() {
+        final WeightedStorageHelper.FrequencySketch sketch = new WeightedStorageHelper.FrequencySketch(64);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("key");
+        }
+        Assert.assertEquals(15, sketch.frequency("key"));
+        Assert.assertTrue(sketch.frequency("other") <= 1);
+        // 10 * 64 increments halve the counters
+        for (int i = 0; i < 640; i++) {
+            sketch.increment("filler" + i);
+        }
+        Assert.assertTrue(sketch.frequency("key") <= 7);
+    }
+
+    @Test
+    public void save_registryChangedAfterCreation_recordsInNewRegistry() {
+        final WeightedStorageHelper storageHelper = new WeightedStorageHelper(64 * 1024);
+        final MetricsRegistry defaultRegistry = Config.getMetricsRegistry();
+        final MetricsRegistry registry = new InMemoryMetricsRegistry();
+        Config.setMetricsRegistry(registry);
+        try {
+            for (int i = 0; i < 5000; i++) {
+                storageHelper.save("session" + i, new byte[100 + i % 500], 0);
+            }
+            Assert.assertEquals(storageHelper.getEvictionCount(), registry.counter(WeightedStorageHelper.EVICTED_METRIC).getCount());
+            Assert.assertEquals(storageHelper.getRejectionCount(), registry.counter(WeightedStorageHelper.REJECTED_METRIC).getCount());
+        } finally {
+            Config.setMetricsRegistry(defaultRegistry);
+        }
+    }
+}
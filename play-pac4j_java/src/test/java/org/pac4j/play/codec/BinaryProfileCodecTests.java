@@ -0,0 +1,238 @@
+package org.pac4j.play.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.cas.profile.CasProfile;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.core.profile.AttributesDefinition;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.profile.FormattedDate;
+import org.pac4j.core.profile.Gender;
+import org.pac4j.core.profile.converter.Converters;
+import org.pac4j.core.profile.converter.FormattedDateConverter;
+import org.pac4j.play.MemoryStorageHelper;
+
+/**
+ * This class tests the {@link BinaryProfileCodec} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class BinaryProfileCodecTests {
+
+    private final BinaryProfileCodec codec = new BinaryProfileCodec();
+
+    public static class CustomProfile extends CommonProfile {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class TypedAttributesDefinition extends AttributesDefinition {
+
+        public TypedAttributesDefinition() {
+            addAttribute("gender", Converters.genderConverter);
+            addAttribute("locale", Converters.localeConverter);
+            addAttribute("birthday", new FormattedDateConverter("MM/dd/yyyy"));
+        }
+    }
+
+    /**
+     * A profile with typed attributes, like the OAuth profiles (<code>FacebookProfile</code>...).
+     */
+    public static class TypedProfile extends CommonProfile {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final AttributesDefinition DEFINITION = new TypedAttributesDefinition();
+
+        @Override
+        public AttributesDefinition getAttributesDefinition() {
+            return DEFINITION;
+        }
+    }
+
+    private CommonProfile roundTrip(final CommonProfile profile) {
+        return this.codec.decode(this.codec.encode(profile));
+    }
+
+    @Test
+    public void decode_emptyProfile_returnsEmptyProfile() {
+        final CommonProfile profile = roundTrip(new CommonProfile());
+        Assert.assertEquals(CommonProfile.class, profile.getClass());
+        Assert.assertNull(profile.getId());
+        Assert.assertTrue(profile.getAttributes().isEmpty());
+    }
+
+    @Test
+    public void decode_profileWithIdRolesPermissions_returnsSameValues() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("123");
+        profile.addRole("ROLE_USER");
+        profile.addRole("ROLE_ADMIN");
+        profile.addPermission("read");
+        profile.setRemembered(true);
+        final CommonProfile decoded = roundTrip(profile);
+        Assert.assertEquals("123", decoded.getId());
+        Assert.assertEquals(profile.getTypedId(), decoded.getTypedId());
+        Assert.assertEquals(Arrays.asList("ROLE_USER", "ROLE_ADMIN"), decoded.getRoles());
+        Assert.assertEquals(Arrays.asList("read"), decoded.getPermissions());
+        Assert.assertTrue(decoded.isRemembered());
+    }
+
+    @Test
+    public void decode_profileWithAttributes_returnsSameAttributes() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("id");
+        profile.addAttribute("email", "test@example.com");
+        profile.addAttribute("unicode", "\u00e9t\u00e9 \u2603");
+        profile.addAttribute("int", 42);
+        profile.addAttribute("negative", -7);
+        profile.addAttribute("long", Long.MAX_VALUE);
+        profile.addAttribute("minLong", Long.MIN_VALUE);
+        profile.addAttribute("verified", Boolean.TRUE);
+        profile.addAttribute("other", Boolean.FALSE);
+        profile.addAttribute("double", 3.14d);
+        profile.addAttribute("date", new Date(1382000000000L));
+        profile.addAttribute("locale", Locale.CANADA_FRENCH);
+        profile.addAttribute("enum", TimeUnit.SECONDS);
+        profile.addAttribute("list", Arrays.asList("a", "b", 3));
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("city", "Paris");
+        map.put("zip", 75000);
+        profile.addAttribute("map", map);
+        profile.addAttribute("serialized", new StringBuilder("sb").toString().toCharArray());
+        final CommonProfile decoded = roundTrip(profile);
+        final Map<String, Object> attributes = decoded.getAttributes();
+        Assert.assertEquals(profile.getAttributes().size(), attributes.size());
+        for (final Map.Entry<String, Object> entry : profile.getAttributes().entrySet()) {
+            if (entry.getValue() instanceof char[]) {
+                Assert.assertTrue(Arrays.equals((char[]) entry.getValue(), (char[]) attributes.get(entry.getKey())));
+            } else {
+                Assert.assertEquals(entry.getKey(), entry.getValue(), attributes.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void decode_subclassProfile_returnsSameClass() {
+        final CustomProfile profile = new CustomProfile();
+        profile.setId("custom");
+        profile.addAttribute("customAttribute", "value");
+        final CommonProfile decoded = roundTrip(profile);
+        Assert.assertEquals(CustomProfile.class, decoded.getClass());
+        Assert.assertEquals("value", decoded.getAttribute("customAttribute"));
+    }
+
+    @Test
+    public void encode_repeatedNames_usesReferences() {
+        final CommonProfile profile = new CommonProfile();
+        final List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            final Map<String, Object> map = new HashMap<String, Object>();
+            map.put("aVeryLongAttributeName", i);
+            list.add(map);
+        }
+        profile.addAttribute("list", list);
+        final byte[] bytes = this.codec.encode(profile);
+        Assert.assertTrue(bytes.length < 100);
+        Assert.assertEquals(list, this.codec.decode(bytes).getAttribute("list"));
+    }
+
+    @Test
+    public void encode_profile_isSmallerThanSerialization() {
+        final CommonProfile profile = new CommonProfile();
+        profile.setId("123456789");
+        profile.addAttribute("email", "test@example.com");
+        profile.addAttribute("first_name", "John");
+        profile.addAttribute("family_name", "Doe");
+        profile.addAttribute("locale", Locale.FRANCE);
+        final byte[] binary = this.codec.encode(profile);
+        final byte[] serialized = new SerializationProfileCodec().encode(profile);
+        Assert.assertTrue(binary.length * 5 < serialized.length);
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void decode_unknownVersion_fails() {
+        final byte[] bytes = this.codec.encode(new CommonProfile());
+        bytes[0] = 99;
+        this.codec.decode(bytes);
+    }
+
+    @Test
+    public void dictionarySizes_matchDictionary() {
+        Assert.assertEquals(BinaryProfileCodec.VERSION + 1, BinaryProfileCodec.DICTIONARY_SIZES.length);
+        Assert.assertEquals(BinaryProfileCodec.DICTIONARY.size(), BinaryProfileCodec.DICTIONARY_SIZES[BinaryProfileCodec.VERSION]);
+        for (int version = 2; version <= BinaryProfileCodec.VERSION; version++) {
+            Assert.assertTrue(BinaryProfileCodec.DICTIONARY_SIZES[version - 1] <= BinaryProfileCodec.DICTIONARY_SIZES[version]);
+        }
+    }
+
+    @Test
+    public void getProfile_corruptStoredProfile_returnsNull() {
+        final MemoryStorageHelper storageHelper = new MemoryStorageHelper();
+        storageHelper.setProfileCodec(this.codec);
+        final byte[] bytes = this.codec.encode(new CommonProfile());
+        bytes[0] = 99;
+        storageHelper.save("sessionId", bytes, 0);
+        Assert.assertNull(storageHelper.getProfile(null, null, "sessionId"));
+        storageHelper.save("sessionId", "notAProfile", 0);
+        Assert.assertNull(storageHelper.getProfile(null, null, "sessionId"));
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void decode_truncatedData_fails() {
+        final CommonProfile profile = new CommonProfile();
+        profile.addAttribute("email", "test@example.com");
+        final byte[] bytes = this.codec.encode(profile);
+        this.codec.decode(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void decode_notAProfileClass_fails() {
+        final byte[] bytes = this.codec.encode(new CommonProfile());
+        // class name replaced by the "email" name of the dictionary
+        bytes[1] = (byte) (BinaryProfileCodec.DICTIONARY.indexOf("email") + 2);
+        this.codec.decode(bytes);
+    }
+
+    @Test
+    public void decode_typedProfile_doesNotConvertAttributesAgain() {
+        final TypedProfile profile = new TypedProfile();
+        profile.setId("typed");
+        profile.addAttribute("gender", "male");
+        profile.addAttribute("locale", "fr_FR");
+        profile.addAttribute("birthday", "01/15/1980");
+        Assert.assertEquals(Gender.MALE, profile.getGender());
+        Assert.assertEquals(Locale.FRANCE, profile.getLocale());
+        Assert.assertTrue(profile.getAttribute("birthday") instanceof FormattedDate);
+        final CommonProfile decoded = roundTrip(profile);
+        Assert.assertEquals(TypedProfile.class, decoded.getClass());
+        Assert.assertEquals(Gender.MALE, decoded.getGender());
+        Assert.assertEquals(Locale.FRANCE, decoded.getLocale());
+        Assert.assertEquals(profile.getAttribute("birthday"), decoded.getAttribute("birthday"));
+        Assert.assertEquals(profile.getAttributes(), decoded.getAttributes());
+    }
+
+    @Test
+    public void decode_casProfile_returnsSameProfile() {
+        final CasProfile profile = new CasProfile();
+        profile.setId("jdoe");
+        profile.addAttribute("mail", "jdoe@example.com");
+        profile.addAttribute("memberOf", Arrays.asList("admins", "users"));
+        profile.addRole("ROLE_ADMIN");
+        final CommonProfile decoded = roundTrip(profile);
+        Assert.assertEquals(CasProfile.class, decoded.getClass());
+        Assert.assertEquals("jdoe", decoded.getId());
+        Assert.assertEquals(profile.getAttributes(), decoded.getAttributes());
+        Assert.assertEquals(profile.getRoles(), decoded.getRoles());
+    }
+}
@@ -0,0 +1,117 @@
+package org.pac4j.play.java;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pac4j.core.client.Client;
+import org.pac4j.core.client.Clients;
+import org.pac4j.play.Config;
+
+/**
+ * This class tests the {@link AuthenticationPlan} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class AuthenticationPlanTests {
+
+    private static class CountingClients extends Clients {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public Client findClient(final String name) {
+            this.lookups.incrementAndGet();
+            return null;
+        }
+    }
+
+    private static class CountingAnnotation implements RequiresAuthentication {
+
+        private int reads;
+
+        public String clientName() {
+            this.reads++;
+            return "CasClient";
+        }
+
+        public String targetUrl() {
+            this.reads++;
+            return "";
+        }
+
+        public boolean isAjax() {
+            this.reads++;
+            return false;
+        }
+
+        public Class<? extends Annotation> annotationType() {
+            return RequiresAuthentication.class;
+        }
+    }
+
+    @RequiresAuthentication(clientName = "CasClient")
+    public void firstAction() {
+    }
+
+    @RequiresAuthentication(clientName = "CasClient")
+    public void secondAction() {
+    }
+
+    @RequiresAuthentication(clientName = "CasClient", isAjax = true)
+    public void ajaxAction() {
+    }
+
+    private static RequiresAuthentication annotation(final String methodName) throws NoSuchMethodException {
+        return AuthenticationPlanTests.class.getMethod(methodName).getAnnotation(RequiresAuthentication.class);
+    }
+
+    @After
+    public void tearDown() {
+        Config.setClients(null);
+    }
+
+    @Test
+    public void get_sameSettings_returnsSamePlan() throws NoSuchMethodException {
+        Config.setClients(new CountingClients());
+        final AuthenticationPlan plan = AuthenticationPlan.get(annotation("firstAction"));
+        Assert.assertSame(plan, AuthenticationPlan.get(annotation("secondAction")));
+        Assert.assertNotSame(plan, AuthenticationPlan.get(annotation("ajaxAction")));
+        Assert.assertTrue(AuthenticationPlan.get(annotation("ajaxAction")).isAjax());
+    }
+
+    @Test
+    public void get_noRedirection_doesNotResolveClient() throws NoSuchMethodException {
+        final CountingClients clients = new CountingClients();
+        Config.setClients(clients);
+        final AuthenticationPlan plan = AuthenticationPlan.get(annotation("firstAction"));
+        Assert.assertEquals("CasClient", plan.getClientName());
+        Assert.assertEquals(0, clients.lookups.get());
+        plan.getClient();
+        Assert.assertEquals(1, clients.lookups.get());
+    }
+
+    @Test
+    public void get_changedClients_returnsNewPlan() throws NoSuchMethodException {
+        Config.setClients(new CountingClients());
+        final AuthenticationPlan plan = AuthenticationPlan.get(annotation("firstAction"));
+        Config.setClients(new CountingClients());
+        Assert.assertNotSame(plan, AuthenticationPlan.get(annotation("firstAction")));
+    }
+
+    @Test
+    public void get_sameAnnotation_readsAttributesOnce() {
+        Config.setClients(new CountingClients());
+        final CountingAnnotation annotation = new CountingAnnotation();
+        final AuthenticationPlan plan = AuthenticationPlan.get(annotation);
+        Assert.assertEquals(3, annotation.reads);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(plan, AuthenticationPlan.get(annotation));
+        }
+        Assert.assertEquals(3, annotation.reads);
+    }
+}
@@ -0,0 +1,44 @@
+package org.pac4j.play.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This class tests the {@link InMemoryMetricsRegistry} class.
+ *
+ * @author Jerome Leleu
+ * @since 1.2.1
+ */
+public class InMemoryMetricsRegistryTests {
+
+    @Test
+    public void counter_sameName_returnsSameCounter() {
+        final InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        registry.counter("counter").increment();
+        registry.counter("counter").add(2);
+        Assert.assertEquals(3, registry.counter("counter").getCount());
+        Assert.assertEquals(1, registry.getCounters().size());
+    }
+
+    @Test
+    public void timer_records_countsTotalAndMax() {
+        final Timer timer = new InMemoryMetricsRegistry().timer("timer");
+        timer.record(100);
+        timer.record(300);
+        Assert.assertEquals(2, timer.getCount());
+        Assert.assertEquals(400, timer.getTotalTime());
+        Assert.assertEquals(300, timer.getMaxTime());
+    }
+
+    @Test
+    public void timer_percentiles_estimatedWithinFactorOfTwo() {
+        final Timer timer = new InMemoryTimer();
+        for (int i = 1; i <= 1000; i++) {
+            timer.record(i * 1000L);
+        }
+        final long median = timer.getPercentile(50);
+        Assert.assertTrue(median >= 500000 && median < 1000000);
+        Assert.assertEquals(1000000, timer.getPercentile(100));
+        Assert.assertEquals(0, new InMemoryTimer().getPercentile(99));
+    }
+}
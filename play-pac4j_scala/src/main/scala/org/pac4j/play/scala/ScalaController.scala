@@ -15,10 +15,13 @@
  */
 package org.pac4j.play.scala
 
+import java.util.concurrent.RejectedExecutionException
+
 import scala.concurrent.Future
 
 import play.api._
 import play.api.mvc._
+import play.api.libs.concurrent.Execution.Implicits.defaultContext
 import org.pac4j.core.client._
 import org.pac4j.core.credentials._
 import org.pac4j.core.profile._
@@ -50,10 +53,34 @@ trait ScalaController extends Controller {
     logger.debug("getOrCreateSessionId : {}", optionSessionId)
     if (!optionSessionId.isDefined) {
       newSession += Constants.SESSION_ID -> StorageHelper.getInstance().generateSessionId()
+      if (Config.getNegativeCacheTimeout() > 0) {
+        newSession += Constants.AUTHENTICATION_MARKER -> StorageHelper.NOT_AUTHENTICATED
+      }
     }
     newSession
   }
 
+  /**
+   * Returns a Java view of the session, for the negative cache of the storage helper.
+   *
+   * @param session
+   * @return the Java session
+   */
+  private def javaSession(session: Session): play.mvc.Http.Session = {
+    new play.mvc.Http.Session(scala.collection.JavaConverters.mapAsJavaMapConverter(session.data).asJava)
+  }
+
+  /**
+   * Returns the value of the cookie where the storage helper keeps the user profiles, if any.
+   *
+   * @param requestHeader
+   * @return the value of the profile cookie or null
+   */
+  private def profileCookie(requestHeader: RequestHeader): String = {
+    val cookieName = StorageHelper.getInstance.getProfileCookieName()
+    if (cookieName == null) null else requestHeader.cookies.get(cookieName).map(_.value).orNull
+  }
+
   /**
    * Defines an action with requires authentication : it means that the user is redirected to the provider
    * if he is not authenticated or access directly to the action otherwise.
@@ -70,28 +97,48 @@ trait ScalaController extends Controller {
     var newSession = getOrCreateSessionId(request)
     val sessionId = newSession.get(Constants.SESSION_ID).get
     logger.debug("sessionId : {}", sessionId)
-    val profile = getUserProfile(request)
-    logger.debug("profile : {}", profile)
-   
-    if (profile == null) {
-      try {
-        val redirectionUrl = getRedirectionUrl(request, newSession, clientName, targetUrl, true, isAjax)
-        logger.debug("redirectionUrl : {}", redirectionUrl)          
-        Future.successful(Redirect(redirectionUrl).withSession(newSession))
-      } catch {
-        case ex: RequiresHttpAction => {
-          val code = ex.getCode()
-          if (code == 401) {
-            Future.successful(Unauthorized(Config.getErrorPage401()).as(HTML))
-          } else if (code == 403) {
-            Future.successful(Forbidden(Config.getErrorPage403()).as(HTML))
-          } else {
-            throw new TechnicalException("Unexpected HTTP code : " + code)
+    // the profile is retrieved without blocking the current thread
+    getUserProfileAsync(request).flatMap { profile =>
+      logger.debug("profile : {}", profile)
+      if (profile == null) {
+        // the redirection url is computed on the bounded authentication executor
+        try {
+          Future {
+            try {
+              val lazySessions = Config.isLazySessions()
+              val redirectionUrl = getRedirectionUrl(request, newSession, clientName, targetUrl, true, isAjax, !lazySessions)
+              logger.debug("redirectionUrl : {}", redirectionUrl)
+              val result = Redirect(redirectionUrl).withSession(newSession)
+              if (lazySessions) {
+                // the requested url is kept in a signed cookie : no storage write for anonymous requests
+                val requestedUrlToSave = CallbackController.defaultUrl(targetUrl, request.uri)
+                result.withCookies(Cookie(RequestedUrlCookie.getCookieName(clientName), RequestedUrlCookie.encode(clientName, requestedUrlToSave),
+                  Some(Config.getSessionTimeout()), "/", None, false, true))
+              } else {
+                result
+              }
+            } catch {
+              case ex: RequiresHttpAction => {
+                val code = ex.getCode()
+                if (code == 401) {
+                  Unauthorized(Config.getErrorPage401()).as(HTML)
+                } else if (code == 403) {
+                  Forbidden(Config.getErrorPage403()).as(HTML)
+                } else {
+                  throw new TechnicalException("Unexpected HTTP code : " + code)
+                }
+              }
+            }
+          }(AuthExecutor.getInstance.getExecutionContext)
+        } catch {
+          case ex: RejectedExecutionException => {
+            logger.warn("authentication executor saturated : {}", AuthExecutor.getInstance)
+            Future.successful(ServiceUnavailable(Config.getErrorPage503()).as(HTML))
           }
         }
+      } else {
+        action(profile)(request)
       }
-    } else {
-      action(profile)(request)      
     }
   }
   
@@ -112,7 +159,7 @@ trait ScalaController extends Controller {
     var redirectionUrl:String = null
     try {
       // redirect to the provider for authentication
-      redirectionUrl = getRedirectionUrl(request, newSession, clientName, targetUrl, false, false)
+      redirectionUrl = getRedirectionUrl(request, newSession, clientName, targetUrl, false, false, true)
     } catch {
       case ex: RequiresHttpAction => {
         // should not happen
@@ -131,25 +178,32 @@ trait ScalaController extends Controller {
    * @param targetUrl
    * @param protectedPage
    * @param isAjax
+   * @param saveRequestedUrl whether the requested url is saved in storage
    * @return the redirection url to the provider
    */
-  private def getRedirectionUrl[A](request: Request[A], newSession: Session, clientName: String, targetUrl: String, protectedPage: Boolean, isAjax: Boolean): String = {
+  private def getRedirectionUrl[A](request: Request[A], newSession: Session, clientName: String, targetUrl: String, protectedPage: Boolean, isAjax: Boolean, saveRequestedUrl: Boolean): String = {
     val sessionId = newSession.get(Constants.SESSION_ID).get
     logger.debug("sessionId for getRedirectionUrl() : {}", sessionId)
-    // save requested url to save
-    val requestedUrlToSave = CallbackController.defaultUrl(targetUrl, request.uri)
-    logger.debug("requestedUrlToSave : {}", requestedUrlToSave)
-    StorageHelper.getInstance.saveRequestedUrl(sessionId, clientName, requestedUrlToSave);
-    // context
-    val scalaWebContext = new ScalaWebContext(request, newSession)
+    // context : the requested url and the session attributes set by the client are saved in one batch
+    val scalaWebContext = new ScalaWebContext(request, newSession, true)
+    if (saveRequestedUrl) {
+      // save requested url to save
+      val requestedUrlToSave = CallbackController.defaultUrl(targetUrl, request.uri)
+      logger.debug("requestedUrlToSave : {}", requestedUrlToSave)
+      scalaWebContext.setSessionAttribute(StorageHelper.getInstance.getRequestedUrlKey(clientName), requestedUrlToSave)
+    }
     // clients
     val clients = Config.getClients()
     if (clients == null) {
       throw new TechnicalException("No client defined. Use Config.setClients(clients)")
     }
-    val redirectionUrl = clients.findClient(clientName).getRedirectionUrl(scalaWebContext, protectedPage, isAjax)
-    logger.debug("redirectionUrl to : {}", redirectionUrl)
-    redirectionUrl
+    try {
+      val redirectionUrl = clients.findClient(clientName).getRedirectionUrl(scalaWebContext, protectedPage, isAjax)
+      logger.debug("redirectionUrl to : {}", redirectionUrl)
+      redirectionUrl
+    } finally {
+      scalaWebContext.flushSessionAttributes()
+    }
   }
 
   /**
@@ -165,9 +219,27 @@ trait ScalaController extends Controller {
     logger.debug("sessionId for profile : {}", sessionId)
     if (sessionId.isDefined) {
       // get the user profile
-      profile = StorageHelper.getInstance.getProfile(null, null, sessionId.get)
+      profile = StorageHelper.getInstance.getProfileFromCookie(profileCookie(requestHeader), javaSession(requestHeader.session), sessionId.get)
       logger.debug("profile : {}", profile)
     }
     profile
   }
+
+  /**
+   * Returns the future of the user profile, without blocking the current thread on storage.
+   *
+   * @param requestHeader
+   * @return the future of the user profile
+   */
+  protected def getUserProfileAsync(requestHeader: RequestHeader): Future[CommonProfile] = {
+    // get the session id
+    val sessionId = requestHeader.session.get(Constants.SESSION_ID)
+    logger.debug("sessionId for profile : {}", sessionId)
+    if (sessionId.isDefined) {
+      // get the user profile
+      StorageHelper.getInstance.getProfileFromCookieAsync(profileCookie(requestHeader), javaSession(requestHeader.session), sessionId.get).wrapped()
+    } else {
+      Future.successful(null)
+    }
+  }
 }